@@ -0,0 +1,713 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking encode, decode and tagging for services that run on an event loop.
+ *
+ * Every call returns a CompletableFuture at once and no thread ever waits for a
+ * job. Files are read and written through AsynchronousFileChannel. The CPU work
+ * (compressing, encrypting, analysing, decoding) runs one block at a time as short
+ * tasks on an Executor: the caller's, or the common ForkJoinPool. A job only
+ * moves on when one of its reads, tasks or writes completes, so hundreds of jobs
+ * can be queued without a thread each.
+ *
+ * Memory is bounded by a pool of block buffers shared by all jobs. A block holds
+ * a buffer from the moment it is read until it is written, and a job holds at most
+ * BLOCKS_PER_JOB of them. When the pool is empty a job leaves a callback in a
+ * queue instead of waiting, and freed buffers go to the queue in order, so every
+ * queued job keeps moving.
+ *
+ * Output is the same as the blocking API: an encode is byte-identical to
+ * {@link AsphCodec#encode} (GCM nonces aside) and a decode writes the same WAV as
+ * {@link AudioSphereEncoder#decodeFromAudioSphere}. Nothing is printed; futures
+ * fail with the exceptions AsphCodec throws, wrapped in a CompletionException
+ * by dependent stages as usual. Two parts stay synchronous, each on the executor:
+ * the WAV input of an encode is read through its memory mapping
+ * ({@link WavFile}), and legacy v4 files, which are one encrypted stream, are
+ * decoded by a single blocking task.
+ *
+ * <pre>{@code
+ * AsphAsyncCodec codec = new AsphAsyncCodec(workers);
+ * codec.encode(wav, asph, EncodeOptions.defaults())
+ *      .thenCompose(header -> codec.writeMetadata(asph, title, artist, album))
+ *      .whenComplete((done, error) -> eventLoop.execute(() -> reply(error)));
+ * }</pre>
+ */
+public final class AsphAsyncCodec {
+
+    /** Blocks one job can have between read and written. */
+    static final int BLOCKS_PER_JOB = 4;
+
+    private final Executor executor;
+    private final BufferPool buffers;
+
+    /**
+     * Runs the block work on the common ForkJoinPool, with two buffers per core.
+     */
+    public AsphAsyncCodec() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public AsphAsyncCodec(Executor executor) {
+        this(executor, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor   runs the block tasks of every job (about a millisecond
+     *                   each), so it should be a worker pool, not the event loop
+     * @param maxBuffers block buffers shared by all jobs; each grows to about twice
+     *                   the PCM of one block (~200 KB for 48 kHz 24-bit stereo)
+     */
+    public AsphAsyncCodec(Executor executor, int maxBuffers) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (maxBuffers < 1) {
+            throw new IllegalArgumentException("maxBuffers must be >= 1, got " + maxBuffers);
+        }
+        this.executor = executor;
+        this.buffers = new BufferPool(maxBuffers);
+    }
+
+    /**
+     * Encodes a WAV file into ASPH v5. {@code options.threads()} is ignored: the
+     * blocks of one job already run in parallel on the executor. Completes with
+     * the header that was written.
+     */
+    public CompletableFuture<AsphFormat.Header> encode(Path wavFile, Path outputFile, EncodeOptions options) {
+        EncodeJob job = new EncodeJob(wavFile, outputFile, options.withThreads(1));
+        job.compute(null, job::start);
+        return job.result;
+    }
+
+    /**
+     * Decodes an ASPH v4 or v5 file into a WAV file. v5 blocks are read, decoded
+     * and written out of order, up to BLOCKS_PER_JOB at a time. Completes with the
+     * file's header.
+     */
+    public CompletableFuture<AsphFormat.Header> decode(Path file, Path wavFile) {
+        DecodeJob job = new DecodeJob(file, wavFile);
+        job.compute(null, job::start);
+        return job.result;
+    }
+
+    /**
+     * Replaces the metadata trailer of an ASPH file, like
+     * {@link MetadataHandler#addMetadata}.
+     */
+    public CompletableFuture<Void> writeMetadata(Path file, String title, String artist, String album) {
+        MetadataJob job = new MetadataJob(file, title, artist, album);
+        job.compute(null, job::start);
+        return job.result;
+    }
+
+    /**
+     * Opens a channel whose completions (and, on Linux, the reads and writes
+     * themselves) run on the executor when it is an ExecutorService, so the job
+     * threads are the caller's; otherwise on the JDK's default pool.
+     */
+    private AsynchronousFileChannel open(Path file, StandardOpenOption... options) throws IOException {
+        ExecutorService service = executor instanceof ExecutorService s ? s : null;
+        return AsynchronousFileChannel.open(file, Set.of(options), service);
+    }
+
+    // --------- jobs ---------
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    /**
+     * Plumbing shared by the jobs. Every step runs under a guard that fails the job
+     * (and returns the step's buffer, if it holds one) when it throws. Once the job
+     * has failed, completed I/O only returns its buffer.
+     */
+    private abstract class Job<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        /**
+         * Runs {@code step} on the executor.
+         */
+        void compute(Buffer buffer, Step step) {
+            try {
+                executor.execute(() -> run(buffer, step));
+            } catch (RuntimeException ex) {
+                abandon(buffer);
+                fail(ex);
+            }
+        }
+
+        /**
+         * Runs {@code step} on the calling thread.
+         */
+        void run(Buffer buffer, Step step) {
+            try {
+                step.run();
+            } catch (Throwable ex) {
+                abandon(buffer);
+                fail(ex);
+            }
+        }
+
+        /**
+         * Reads {@code buf.remaining()} bytes at {@code position}, flips {@code buf}
+         * and runs {@code then}.
+         */
+        void read(AsynchronousFileChannel channel, long position, ByteBuffer buf, Buffer buffer, Step then) {
+            transfer(channel, position, buf, false, buffer, () -> {
+                buf.flip();
+                then.run();
+            });
+        }
+
+        /**
+         * Writes all of {@code buf} at {@code position} and runs {@code then}.
+         */
+        void write(AsynchronousFileChannel channel, long position, ByteBuffer buf, Buffer buffer, Step then) {
+            transfer(channel, position, buf, true, buffer, then);
+        }
+
+        private void transfer(AsynchronousFileChannel channel, long position, ByteBuffer buf, boolean write,
+                              Buffer buffer, Step then) {
+            int start = buf.position();
+            CompletionHandler<Integer, Void> handler = new CompletionHandler<>() {
+                @Override
+                public void completed(Integer n, Void unused) {
+                    if (result.isDone()) {
+                        abandon(buffer);
+                    } else if (n < 0) {
+                        failed(new EOFException("Unexpected end of file at offset "
+                                + (position + buf.position() - start) + "."), null);
+                    } else if (buf.hasRemaining()) {
+                        next(this);
+                    } else {
+                        run(buffer, then);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable ex, Void unused) {
+                    abandon(buffer);
+                    fail(ex);
+                }
+
+                private void next(CompletionHandler<Integer, Void> handler) {
+                    long at = position + buf.position() - start;
+                    try {
+                        if (write) {
+                            channel.write(buf, at, null, handler);
+                        } else {
+                            channel.read(buf, at, null, handler);
+                        }
+                    } catch (RuntimeException ex) {
+                        failed(ex, null);
+                    }
+                }
+            };
+            handler.completed(0, null);
+        }
+
+        void abandon(Buffer buffer) {
+            if (buffer != null) {
+                buffers.release(buffer);
+            }
+        }
+
+        void fail(Throwable ex) {
+            if (result.completeExceptionally(ex)) {
+                cleanup();
+            }
+        }
+
+        /**
+         * Closes what the job has open after it failed.
+         */
+        abstract void cleanup();
+
+        void closeQuietly(AsynchronousFileChannel channel) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // the job has already failed
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads blocks from the WAV one at a time (the stream is sequential) and
+     * encodes and analyses each on the executor while the next one is read.
+     * Blocks are placed in the file in order once encoded, then written.
+     */
+    private final class EncodeJob extends Job<AsphFormat.Header> {
+        private final Path wavFile;
+        private final Path outputFile;
+        private final EncodeOptions options;
+
+        private AudioSphereEncoder.ConvertedPcmStream pcm;
+        private AsynchronousFileChannel out;
+        private AsphFormat.Header header;
+        private BlockWriter.Layout layout;
+        private AudioAnalysis.Builder analysis;
+        private long blocksRead; // only touched by the reading step
+
+        // guarded by this
+        private final Encoded[] encoded = new Encoded[BLOCKS_PER_JOB]; // by block index % BLOCKS_PER_JOB
+        private long nextToPlace;
+        private int inFlight;
+        private boolean reading;
+        private boolean endOfInput;
+        private boolean inputClosed;
+        private boolean finishing;
+
+        /** An encoded block waiting for its place in the file. */
+        private record Encoded(Buffer buffer, int storedLength, int samples, AudioAnalysis.BlockResult analysed) {}
+
+        EncodeJob(Path wavFile, Path outputFile, EncodeOptions options) {
+            this.wavFile = wavFile;
+            this.outputFile = outputFile;
+            this.options = options;
+        }
+
+        void start() throws IOException {
+            try {
+                pcm = AudioSphereEncoder.openWavAsPcmMirroringInput(wavFile.toString(), options);
+            } catch (IOException ex) {
+                throw ex;
+            } catch (UnsupportedAudioFileException ex) {
+                throw new AsphFormatException("Unsupported input " + wavFile + ": " + ex.getMessage(), ex);
+            } catch (Exception ex) {
+                throw new AsphException("Failed to encode " + wavFile + ": " + ex.getMessage(), ex);
+            }
+            header = AudioSphereEncoder.v5Header(pcm, options);
+            layout = new BlockWriter.Layout(header);
+            analysis = new AudioAnalysis.Builder(header);
+            out = open(outputFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            // the header is patched once the totals are known
+            write(out, 0, AsphFormat.v5HeaderBytes(header), null, this::pump);
+        }
+
+        /**
+         * Starts reading the next block, unless one is being read, the input has
+         * ended or the job already holds BLOCKS_PER_JOB buffers.
+         */
+        private void pump() {
+            synchronized (this) {
+                if (result.isDone() || reading || endOfInput || inFlight == BLOCKS_PER_JOB) {
+                    return;
+                }
+                reading = true;
+                inFlight++;
+            }
+            buffers.acquire(buffer -> compute(buffer, () -> readNext(buffer)));
+        }
+
+        private void readNext(Buffer buffer) throws Exception {
+            byte[] block = buffer.pcm(header.blockBytes());
+            int read;
+            try {
+                read = result.isDone() ? 0 : AudioSphereEncoder.readBlock(pcm.stream(), block, header.blockBytes(),
+                        header.frameSize());
+            } catch (Exception ex) {
+                stopReading(true);
+                throw ex;
+            }
+            if (read <= 0) {
+                stopReading(true);
+                buffers.release(buffer);
+                blockDone();
+                return;
+            }
+            long blockIndex = blocksRead++;
+            Callable<AudioAnalysis.BlockResult> analyse = analysis.task(block, read);
+            stopReading(false);
+            pump();
+
+            BlockCodec codec = BlockCodec.local();
+            int encryptedLength = codec.encode(header, block, read, blockIndex);
+            byte[] stored = buffer.stored(4 + encryptedLength);
+            putIntLE(stored, encryptedLength);
+            System.arraycopy(codec.encrypted(), 0, stored, 4, encryptedLength);
+            place(blockIndex, new Encoded(buffer, 4 + encryptedLength, read / header.frameSize(), analyse.call()));
+        }
+
+        private synchronized void stopReading(boolean end) {
+            reading = false;
+            endOfInput |= end;
+            if (endOfInput || result.isDone()) {
+                closeInput();
+            }
+        }
+
+        /**
+         * Files the block and gives every block that is next in line its offset
+         * (and its analysis to the builder, which needs them in order), then writes
+         * those blocks.
+         */
+        private void place(long blockIndex, Encoded block) {
+            List<Encoded> ready = new ArrayList<>();
+            List<Long> positions = new ArrayList<>();
+            synchronized (this) {
+                encoded[(int) (blockIndex % BLOCKS_PER_JOB)] = block;
+                Encoded next;
+                while ((next = encoded[(int) (nextToPlace % BLOCKS_PER_JOB)]) != null) {
+                    encoded[(int) (nextToPlace % BLOCKS_PER_JOB)] = null;
+                    byte[] stored = next.buffer().stored;
+                    positions.add(layout.add(stored, stored, 4, next.storedLength() - 4, next.samples()));
+                    analysis.add(next.analysed());
+                    ready.add(next);
+                    nextToPlace++;
+                }
+            }
+            for (int i = 0; i < ready.size(); i++) {
+                Encoded next = ready.get(i);
+                write(out, positions.get(i), ByteBuffer.wrap(next.buffer().stored, 0, next.storedLength()),
+                        next.buffer(), () -> {
+                            buffers.release(next.buffer());
+                            blockDone();
+                        });
+            }
+        }
+
+        /**
+         * A buffer came back: either its block is written or the input ended.
+         */
+        private void blockDone() {
+            boolean finish;
+            synchronized (this) {
+                inFlight--;
+                finish = endOfInput && inFlight == 0 && !finishing && !result.isDone();
+                finishing |= finish;
+            }
+            if (finish) {
+                compute(null, this::finish);
+            } else {
+                pump();
+            }
+        }
+
+        /**
+         * Writes the seek index and analysis chunk after the last block, then the
+         * final header.
+         */
+        private void finish() {
+            ByteBuffer chunk = analysis.finish();
+            AsphFormat.Header done = layout.finished(true);
+            write(out, done.indexOffset(), layout.seekIndex(), null,
+                    () -> write(out, done.seekIndexEnd(), chunk, null,
+                            () -> write(out, 0, AsphFormat.v5HeaderBytes(done), null, () -> {
+                                out.close();
+                                result.complete(header.withTotals(layout.totalSamples(), 0));
+                            })));
+        }
+
+        @Override
+        synchronized void cleanup() {
+            if (!reading) {
+                closeInput(); // otherwise the reading step closes it
+            }
+            closeQuietly(out);
+        }
+
+        private void closeInput() {
+            if (!inputClosed && pcm != null) {
+                inputClosed = true;
+                try {
+                    pcm.close();
+                } catch (IOException ignored) {
+                    // read-only
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the header and the whole seek index, writes the WAV header, then
+     * reads, decodes and writes up to BLOCKS_PER_JOB blocks at a time, each at
+     * its own offset in the WAV.
+     */
+    private final class DecodeJob extends Job<AsphFormat.Header> {
+        private final Path file;
+        private final Path wavFile;
+
+        private AsynchronousFileChannel in;
+        private AsynchronousFileChannel out;
+        private AsphFormat.Header header;
+        private AsphFormat.SeekIndex index;
+        private int blocks;
+        private long dataOffset;
+
+        // guarded by this
+        private int nextBlock;
+        private int inFlight;
+        private int written;
+        private boolean finished;
+
+        DecodeJob(Path file, Path wavFile) {
+            this.file = file;
+            this.wavFile = wavFile;
+        }
+
+        void start() throws IOException {
+            in = open(file, StandardOpenOption.READ);
+            ByteBuffer probe = allocate(8);
+            read(in, 0, probe, null, () -> {
+                if (AsphFormat.parseVersion(probe) == AsphFormat.VERSION_4) {
+                    in.close();
+                    compute(null, () -> result.complete(
+                            AudioSphereEncoder.decodeFile(file.toString(), wavFile.toString())));
+                    return;
+                }
+                ByteBuffer buf = allocate(AsphFormat.V5_HEADER_SIZE);
+                read(in, 0, buf, null, () -> readIndex(AsphFormat.parseV5Header(buf)));
+            });
+        }
+
+        private void readIndex(AsphFormat.Header header) throws IOException {
+            if (header.indexOffset() == 0) {
+                throw new AsphFormatException("File has no seek index (unfinished encode).");
+            }
+            long length = header.seekIndexEnd() - header.indexOffset();
+            if (length > Integer.MAX_VALUE) {
+                throw new AsphFormatException("Too many blocks (" + header.blockCount() + ").");
+            }
+            this.header = header;
+            ByteBuffer buf = allocate((int) length);
+            read(in, header.indexOffset(), buf, null, () -> {
+                index = AsphFormat.parseSeekIndex(buf, header);
+                blocks = index.offsets().length;
+                byte[] wavHeader = WavFile.header(header.audioFormat(), header.totalSamples() * header.frameSize());
+                dataOffset = wavHeader.length;
+                out = open(wavFile,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                write(out, 0, ByteBuffer.wrap(wavHeader), null, this::schedule);
+            });
+        }
+
+        /**
+         * Starts the next blocks, up to BLOCKS_PER_JOB in flight.
+         */
+        private void schedule() throws IOException {
+            while (true) {
+                int block;
+                synchronized (this) {
+                    if (written == blocks && !finished) {
+                        finished = true;
+                        break;
+                    }
+                    if (result.isDone() || inFlight == BLOCKS_PER_JOB || nextBlock >= blocks) {
+                        return;
+                    }
+                    block = nextBlock++;
+                    inFlight++;
+                }
+                buffers.acquire(buffer -> run(buffer, () -> readBlock(block, buffer)));
+            }
+            in.close();
+            out.close();
+            result.complete(header);
+        }
+
+        private void readBlock(int block, Buffer buffer) throws AsphCorruptDataException {
+            long offset = index.offsets()[block];
+            long end = block + 1 < blocks ? index.offsets()[block + 1] : header.indexOffset();
+            if (end - offset > 2L * header.blockBytes() + 65_536) {
+                throw new AsphCorruptDataException("Block " + block + " is larger than any block the encoder writes ("
+                        + (end - offset) + " bytes).", block, null);
+            }
+            int length = (int) (end - offset);
+            read(in, offset, ByteBuffer.wrap(buffer.stored(length), 0, length), buffer,
+                    () -> compute(buffer, () -> decodeBlock(block, buffer, length)));
+        }
+
+        private void decodeBlock(int block, Buffer buffer, int length) throws AsphCorruptDataException {
+            long remaining = header.totalSamples() - (long) block * header.samplesPerBlock();
+            int expected = (int) Math.min(header.blockBytes(), remaining * header.frameSize());
+            byte[] pcm = buffer.pcm(expected);
+            long checksum = index.checksums() == null
+                    ? BlockCodec.NO_CHECKSUM
+                    : Integer.toUnsignedLong(index.checksums()[block]);
+            BlockCodec.local().decode(buffer.stored, length, header, block, pcm, expected, checksum);
+            if (header.bitsPerSample() == 8) {
+                for (int k = 0; k < expected; k++) {
+                    pcm[k] ^= (byte) 0x80; // WAV stores 8-bit samples unsigned
+                }
+            }
+            write(out, dataOffset + (long) block * header.blockBytes(), ByteBuffer.wrap(pcm, 0, expected), buffer,
+                    () -> {
+                        buffers.release(buffer);
+                        synchronized (this) {
+                            inFlight--;
+                            written++;
+                        }
+                        schedule();
+                    });
+        }
+
+        @Override
+        void cleanup() {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Finds the end of the payload the way {@link AsphFormat#payloadEnd} does, with
+     * one to three small reads, and writes the trailer there.
+     */
+    private final class MetadataJob extends Job<Void> {
+        private final Path file;
+        private final String title;
+        private final String artist;
+        private final String album;
+        private AsynchronousFileChannel channel;
+
+        MetadataJob(Path file, String title, String artist, String album) {
+            this.file = file;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+        }
+
+        void start() throws IOException {
+            ByteBuffer trailer = MetadataHandler.trailer(title, artist, album);
+            channel = open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer probe = allocate(8);
+            read(channel, 0, probe, null, () -> {
+                if (AsphFormat.parseVersion(probe) == AsphFormat.VERSION_4) {
+                    writeAt(8L + Integer.toUnsignedLong(probe.getInt(4)), trailer);
+                    return;
+                }
+                ByteBuffer buf = allocate(AsphFormat.V5_HEADER_SIZE);
+                read(channel, 0, buf, null, () -> {
+                    AsphFormat.Header header = AsphFormat.parseV5Header(buf);
+                    long indexEnd = header.seekIndexEnd();
+                    if (header.indexOffset() == 0) {
+                        writeAt(channel.size(), trailer); // unfinished encode; treat everything as payload
+                    } else if (!header.hasAnalysis()) {
+                        writeAt(indexEnd, trailer);
+                    } else {
+                        ByteBuffer chunk = allocate(AsphFormat.ANALYSIS_CHUNK_HEADER_SIZE);
+                        read(channel, indexEnd, chunk, null, () -> writeAt(indexEnd
+                                + AsphFormat.ANALYSIS_CHUNK_HEADER_SIZE + AsphFormat.parseAnalysisLength(chunk), trailer));
+                    }
+                });
+            });
+        }
+
+        private void writeAt(long payloadEnd, ByteBuffer trailer) {
+            write(channel, payloadEnd, trailer, null, () -> {
+                channel.truncate(payloadEnd + MetadataHandler.METADATA_SIZE);
+                channel.close();
+                result.complete(null);
+            });
+        }
+
+        @Override
+        void cleanup() {
+            closeQuietly(channel);
+        }
+    }
+
+    // --------- buffers ---------
+
+    /**
+     * The scratch of one block in flight: its PCM and its stored form (length
+     * prefix and ciphertext). Both grow to the largest block seen and are kept.
+     */
+    private static final class Buffer {
+        private byte[] pcm = new byte[0];
+        private byte[] stored = new byte[0];
+
+        byte[] pcm(int size) {
+            if (pcm.length < size) {
+                pcm = new byte[size];
+            }
+            return pcm;
+        }
+
+        byte[] stored(int size) {
+            if (stored.length < size) {
+                stored = new byte[size];
+            }
+            return stored;
+        }
+    }
+
+    /**
+     * At most {@code max} buffers, created on demand. acquire() never waits: with
+     * none free, the callback is queued and release() hands the next buffer to the
+     * oldest one. Callbacks run on the releasing thread and must be short.
+     */
+    private static final class BufferPool {
+        private final int max;
+        private final ArrayDeque<Buffer> free = new ArrayDeque<>();
+        private final ArrayDeque<Consumer<Buffer>> waiting = new ArrayDeque<>();
+        private int created;
+
+        BufferPool(int max) {
+            this.max = max;
+        }
+
+        void acquire(Consumer<Buffer> then) {
+            Buffer buffer;
+            synchronized (this) {
+                buffer = free.poll();
+                if (buffer == null && created < max) {
+                    created++;
+                    buffer = new Buffer();
+                }
+                if (buffer == null) {
+                    waiting.add(then);
+                    return;
+                }
+            }
+            then.accept(buffer);
+        }
+
+        void release(Buffer buffer) {
+            Consumer<Buffer> next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    free.push(buffer);
+                    return;
+                }
+            }
+            next.accept(buffer);
+        }
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void putIntLE(byte[] b, int v) {
+        b[0] = (byte) v;
+        b[1] = (byte) (v >>> 8);
+        b[2] = (byte) (v >>> 16);
+        b[3] = (byte) (v >>> 24);
+    }
+}
@@ -0,0 +1,212 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reusable encode/decode session for embedding AudioSphere in a long-running
+ * service.
+ *
+ * A session owns one cipher, Deflater, Inflater and a set of scratch buffers and
+ * keeps them for its whole life, so decoding file after file costs a channel and
+ * a few small objects per file and (for v5) nothing per block. Decoded PCM goes
+ * into caller-supplied ByteBuffers, heap or direct.
+ *
+ * Sessions decode uncached unless given a {@link PcmCache}: a cache costs a direct
+ * buffer and a copy per missed block, and only pays off when the same files are
+ * decoded again. Sessions may share one cache (it is thread-safe), e.g.
+ * {@link PcmCache#shared()}, the one the player and server use.
+ *
+ * Unlike the static helpers in {@link AudioSphereEncoder}, nothing is printed:
+ * content errors are thrown as {@link AsphFormatException} or
+ * {@link AsphCorruptDataException}, I/O errors as plain IOExceptions.
+ *
+ * A session is not thread-safe and has one decoder open at a time, since the
+ * decoder works in the session's buffers. Use one session per worker thread.
+ *
+ * <pre>{@code
+ * try (AsphCodec codec = new AsphCodec()) {
+ *     for (Path file : files) {
+ *         try (AsphCodec.Decoder decoder = codec.open(file)) {
+ *             while (decoder.read(buffer.clear()) > 0) {
+ *                 consume(buffer.flip());
+ *             }
+ *         }
+ *     }
+ * }
+ * }</pre>
+ */
+public final class AsphCodec implements AutoCloseable {
+
+    private static final int TRANSFER_BYTES = 64 * 1024;
+
+    private final BlockCodec blocks = new BlockCodec();
+    private final PcmCache cache; // null = uncached
+    private byte[] block = new byte[0];
+    private byte[] transfer = new byte[0];
+    private Decoder openDecoder;
+    private boolean closed;
+
+    public AsphCodec() {
+        this(null);
+    }
+
+    /**
+     * A session that reads v5 blocks through {@code cache}; null decodes uncached.
+     */
+    public AsphCodec(PcmCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Opens an ASPH v4 or v5 file for decoding. v5 files decode through the
+     * session's buffers (and its {@link PcmCache}, if any); v4 files are one
+     * continuous stream and get their own inflater for the length of the decode.
+     */
+    public Decoder open(Path file) throws IOException {
+        ensureOpen();
+        if (openDecoder != null) {
+            throw new IllegalStateException("This session already has an open decoder.");
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            PcmSource source;
+            if (AsphFormat.probeVersion(channel) == AsphFormat.VERSION_5) {
+                AsphFormat.Header header = AsphFormat.readV5Header(channel);
+                if (block.length < header.blockBytes()) {
+                    block = new byte[header.blockBytes()];
+                }
+                PcmCache.FileKey fileKey = cache != null ? PcmCache.FileKey.of(file) : null;
+                source = new BlockInputStream(channel, header, blocks, block, cache, fileKey);
+            } else {
+                source = V4StreamPcmSource.open(channel);
+            }
+            openDecoder = new Decoder(source);
+            return openDecoder;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Decodes sample frames [fromSample, toSample) of {@code file} into a WAV file,
+     * e.g. a preview clip. The cost follows the clip length: a v5 file seeks straight
+     * to the block holding {@code fromSample}; a v4 file has to inflate the prefix
+     * but drops it as it goes. {@code toSample} is clamped to the track. Returns the
+     * file's header with {@code totalSamples} set to the frames written.
+     *
+     * @throws IllegalArgumentException if the range is empty or starts outside the track
+     */
+    public AsphFormat.Header extract(Path file, long fromSample, long toSample, Path wavFile) throws IOException {
+        try (Decoder decoder = open(file)) {
+            return AudioSphereEncoder.writeWavRange(decoder.source, fromSample, toSample, wavFile.toString());
+        }
+    }
+
+    /**
+     * Encodes a WAV file into ASPH v5 on the calling thread, reusing the session's
+     * compressor and cipher. {@code options.threads()} is ignored; run one session
+     * per thread instead. Returns the header that was written.
+     */
+    public AsphFormat.Header encode(Path wavFile, Path outputFile, EncodeOptions options) throws IOException {
+        ensureOpen();
+        try {
+            return AudioSphereEncoder.encodeFile(wavFile.toString(), outputFile.toString(), options.withThreads(1), blocks);
+        } catch (IOException ex) {
+            throw ex;
+        } catch (UnsupportedAudioFileException ex) {
+            throw new AsphFormatException("Unsupported input " + wavFile + ": " + ex.getMessage(), ex);
+        } catch (Exception ex) {
+            throw new AsphException("Failed to encode " + wavFile + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Releases the native compressor state. Any open decoder must be closed first.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            blocks.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("AsphCodec session is closed.");
+        }
+    }
+
+    /**
+     * Sequential, seekable reader over one file. Positions are in sample frames.
+     */
+    public final class Decoder implements Closeable {
+
+        private final PcmSource source;
+
+        private Decoder(PcmSource source) {
+            this.source = source;
+        }
+
+        public AsphFormat.Header header() {
+            return source.header();
+        }
+
+        /**
+         * Decodes into {@code dst} from its position up to its limit, in whole frames.
+         * Returns the number of bytes written, 0 if {@code dst} has room for less than
+         * a frame, or -1 at the end of the track.
+         */
+        public int read(ByteBuffer dst) throws IOException {
+            int frameSize = source.header().frameSize();
+            int len = dst.remaining() - dst.remaining() % frameSize;
+            if (len == 0) {
+                return 0;
+            }
+
+            int n;
+            if (dst.hasArray()) {
+                n = source.read(dst.array(), dst.arrayOffset() + dst.position(), len);
+                if (n > 0) {
+                    dst.position(dst.position() + n);
+                }
+            } else {
+                if (transfer.length < frameSize) {
+                    transfer = new byte[Math.max(TRANSFER_BYTES, frameSize)];
+                }
+                n = source.read(transfer, 0, Math.min(len, transfer.length - transfer.length % frameSize));
+                if (n > 0) {
+                    dst.put(transfer, 0, n);
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Moves to {@code sample}, clamped to [0, totalSamples].
+         */
+        public void seek(long sample) throws IOException {
+            source.seek(sample);
+        }
+
+        public long position() {
+            return source.position();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (openDecoder == this) {
+                openDecoder = null;
+            }
+            source.close();
+        }
+    }
+}
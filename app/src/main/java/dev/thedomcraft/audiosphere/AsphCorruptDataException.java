@@ -0,0 +1,28 @@
+package dev.thedomcraft.audiosphere;
+
+/**
+ * The header was fine but the payload is damaged: a block fails to decrypt,
+ * decompress or check out, or the seek index points outside the file.
+ */
+public class AsphCorruptDataException extends AsphException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long blockIndex;
+
+    public AsphCorruptDataException(String message) {
+        this(message, -1, null);
+    }
+
+    public AsphCorruptDataException(String message, long blockIndex, Throwable cause) {
+        super(message, cause);
+        this.blockIndex = blockIndex;
+    }
+
+    /**
+     * Index of the damaged v5 block, or -1 if the error is not tied to one block.
+     */
+    public long blockIndex() {
+        return blockIndex;
+    }
+}
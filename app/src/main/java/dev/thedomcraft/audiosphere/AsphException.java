@@ -0,0 +1,20 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+
+/**
+ * Base type for errors about ASPH content, as opposed to plain I/O failures
+ * (missing file, disk full) which stay ordinary IOExceptions.
+ */
+public class AsphException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public AsphException(String message) {
+        super(message);
+    }
+
+    public AsphException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,421 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * On-disk layout of the ASPH container versions.
+ *
+ * ASPH v4 (read only):
+ *   "ASPH" | int32 LE ciphertext length | AES-CBC(GZIP(inner payload))
+ *
+ * ASPH v5 (block framed, written by the encoder):
+ *   off  size
+ *   0    4    magic "ASPH"
+ *   4    1    version (0x05)
+ *   5    1    codec: 0 = GZip, 1 = lossless (LPC + Rice, see LosslessCodec)
+ *   6    1    cipher: 0 = AES-CBC per block, 1 = AES-GCM per block (see below)
+ *   7    1    flags: bit 0 = the seek index carries block checksums (FLAG_BLOCK_CRC32C)
+ *                   bit 1 = an analysis chunk follows the seek index (FLAG_ANALYSIS)
+ *                   bit 2 = blocks end in a constant-run map (FLAG_CONSTANT_RUNS)
+ *   8    4    sample rate (LE)
+ *   12   4    bits per sample (LE)
+ *   16   4    channels (LE)
+ *   20   4    samples per block (LE)
+ *   24   8    total samples (LE)
+ *   32   8    seek index offset (LE), 0 if the file has no index
+ *   40   ...  blocks: [int32 LE length][AES-CBC(codec(pcm))]
+ *                 or, with AES-GCM: [int32 LE length][12-byte nonce][AES-GCM(codec(pcm))][16-byte tag]
+ *                 with FLAG_CONSTANT_RUNS, codec(pcm) is codec(literal frames) | run map (see ConstantRuns)
+ *        ...  seek index: "SIDX" | int32 LE block count | int64 LE file offset per block
+ *             | [int32 LE CRC32C per block, if FLAG_BLOCK_CRC32C]
+ *        ...  analysis chunk, if FLAG_ANALYSIS: "ANLZ" | int32 LE length | body (see AudioAnalysis)
+ *
+ * Every block holds samplesPerBlock sample frames (the last one may be shorter)
+ * and is compressed and encrypted on its own, so neither side ever has to hold
+ * more than one block in memory.
+ *
+ * Because blocks have a fixed sample count, sample n lives in block
+ * n / samplesPerBlock, and the seek index turns that block number into a file
+ * offset with a single 8-byte read. Seeking costs the same for any track length.
+ *
+ * With AES-GCM each block carries its own random nonce and authentication tag,
+ * and the block index is bound in as associated data, so a block that was
+ * altered, truncated or moved to another position fails to decrypt on its own
+ * instead of inflating to garbage. CBC blocks are only as strong as the GZip
+ * CRC32 (or lossless bounds checks) behind them. Either way every block is
+ * decrypted independently of the others.
+ *
+ * A block checksum is the CRC32C of the block as stored (length prefix and
+ * ciphertext), so damage is pinned to one block and can be found without the key
+ * by reading the file once. Files from before the flag have no checksums; their
+ * blocks can only be checked by decrypting and inflating them.
+ *
+ * Silence and other runs of identical frames are only marked when the encoder is
+ * asked to (FLAG_CONSTANT_RUNS); builds from before the flag cannot decode such
+ * files, so it is off by default. Readers reject flag bits they don't know
+ * (KNOWN_FLAGS) up front, so a file using a later flag fails as unsupported
+ * rather than as corrupt blocks.
+ *
+ * A v4 file stores the ciphertext length right after the magic. That length is
+ * always a multiple of the AES block size, so its low byte never has a non-zero
+ * low nibble, which is how the two versions are told apart without decrypting.
+ */
+public final class AsphFormat {
+
+    private AsphFormat() {}
+
+    public static final byte[] MAGIC = "ASPH".getBytes();
+    public static final int VERSION_4 = 0x04;
+    public static final int VERSION_5 = 0x05;
+
+    public static final int CODEC_GZIP = 0;
+    public static final int CODEC_LOSSLESS = 1;
+
+    public static final int CIPHER_CBC = 0;
+    public static final int CIPHER_GCM = 1;
+
+    public static final int FLAG_BLOCK_CRC32C = 0x01;
+    public static final int FLAG_ANALYSIS = 0x02;
+    public static final int FLAG_CONSTANT_RUNS = 0x04;
+    /** Flags this build can read; a file with any other bit set is rejected. */
+    static final int KNOWN_FLAGS = FLAG_BLOCK_CRC32C | FLAG_ANALYSIS | FLAG_CONSTANT_RUNS;
+
+    public static final int V5_HEADER_SIZE = 40;
+    public static final byte[] SEEK_INDEX_MAGIC = "SIDX".getBytes();
+    public static final int SEEK_INDEX_HEADER_SIZE = 8;
+    public static final byte[] ANALYSIS_MAGIC = "ANLZ".getBytes();
+    public static final int ANALYSIS_CHUNK_HEADER_SIZE = 8;
+    public static final int DEFAULT_SAMPLES_PER_BLOCK = 16_384;
+
+    /**
+     * Format fields shared by every ASPH version. For v4 files the codec is always
+     * GZip, the cipher is CBC and samplesPerBlock, indexOffset and flags are 0.
+     */
+    public record Header(int version, int codec, int sampleRate, int bitsPerSample, int channels,
+                         int samplesPerBlock, long totalSamples, long indexOffset, int flags, int cipher) {
+
+        public Header(int version, int codec, int sampleRate, int bitsPerSample, int channels,
+                      int samplesPerBlock, long totalSamples, long indexOffset) {
+            this(version, codec, sampleRate, bitsPerSample, channels, samplesPerBlock, totalSamples, indexOffset, 0);
+        }
+
+        public Header(int version, int codec, int sampleRate, int bitsPerSample, int channels,
+                      int samplesPerBlock, long totalSamples, long indexOffset, int flags) {
+            this(version, codec, sampleRate, bitsPerSample, channels, samplesPerBlock, totalSamples, indexOffset,
+                    flags, CIPHER_CBC);
+        }
+
+        public int frameSize() {
+            return channels * (bitsPerSample / 8);
+        }
+
+        public int blockBytes() {
+            return samplesPerBlock * frameSize();
+        }
+
+        public long blockCount() {
+            return (totalSamples + samplesPerBlock - 1) / samplesPerBlock;
+        }
+
+        public boolean hasBlockChecksums() {
+            return (flags & FLAG_BLOCK_CRC32C) != 0;
+        }
+
+        public boolean hasAnalysis() {
+            return (flags & FLAG_ANALYSIS) != 0;
+        }
+
+        public boolean hasConstantRuns() {
+            return (flags & FLAG_CONSTANT_RUNS) != 0;
+        }
+
+        /**
+         * Offset just past the seek index (where the analysis chunk starts, if any).
+         */
+        public long seekIndexEnd() {
+            int entrySize = hasBlockChecksums() ? 12 : 8;
+            return indexOffset + SEEK_INDEX_HEADER_SIZE + entrySize * blockCount();
+        }
+
+        public Header withTotals(long totalSamples, long indexOffset) {
+            return new Header(version, codec, sampleRate, bitsPerSample, channels, samplesPerBlock, totalSamples,
+                    indexOffset, flags, cipher);
+        }
+
+        public Header withFlags(int flags) {
+            return new Header(version, codec, sampleRate, bitsPerSample, channels, samplesPerBlock, totalSamples,
+                    indexOffset, flags, cipher);
+        }
+
+        public Header withCipher(int cipher) {
+            return new Header(version, codec, sampleRate, bitsPerSample, channels, samplesPerBlock, totalSamples,
+                    indexOffset, flags, cipher);
+        }
+
+        public AudioFormat audioFormat() {
+            return new AudioFormat(sampleRate, bitsPerSample, channels, true, false);
+        }
+    }
+
+    /**
+     * Reads the first 8 bytes of the file and returns VERSION_4 or VERSION_5.
+     */
+    public static int probeVersion(FileChannel channel) throws IOException {
+        return parseVersion(readFully(channel, 0, 8));
+    }
+
+    /**
+     * As {@link #probeVersion}, on the first 8 bytes of the file already read.
+     */
+    static int parseVersion(ByteBuffer buf) throws AsphFormatException {
+        byte[] magic = new byte[4];
+        buf.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new AsphFormatException("Invalid file format (magic mismatch).");
+        }
+        int marker = buf.get() & 0xFF;
+        if (marker == VERSION_5) {
+            return VERSION_5;
+        }
+        if ((marker & 0x0F) == 0) {
+            return VERSION_4;
+        }
+        throw new AsphFormatException("Unsupported ASPH container version " + marker + ".");
+    }
+
+    public static Header readV5Header(FileChannel channel) throws IOException {
+        return parseV5Header(readFully(channel, 0, V5_HEADER_SIZE));
+    }
+
+    /**
+     * As {@link #readV5Header}, on the first V5_HEADER_SIZE bytes of the file
+     * already read (little-endian).
+     */
+    static Header parseV5Header(ByteBuffer buf) throws AsphFormatException {
+        buf.position(4);
+        int version = buf.get() & 0xFF;
+        if (version != VERSION_5) {
+            throw new AsphFormatException("Not an ASPH v5 file (version " + version + ").");
+        }
+        int codec = buf.get() & 0xFF;
+        if (codec != CODEC_GZIP && codec != CODEC_LOSSLESS) {
+            throw new AsphFormatException("Unsupported ASPH v5 codec " + codec + ".");
+        }
+        int cipher = buf.get() & 0xFF;
+        if (cipher != CIPHER_CBC && cipher != CIPHER_GCM) {
+            throw new AsphFormatException("Unsupported ASPH v5 cipher " + cipher + ".");
+        }
+        int flags = buf.get() & 0xFF;
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new AsphFormatException(String.format("Unsupported ASPH v5 flags 0x%02x.", flags));
+        }
+        int sampleRate = buf.getInt();
+        int bitsPerSample = buf.getInt();
+        int channels = buf.getInt();
+        int samplesPerBlock = buf.getInt();
+        long totalSamples = buf.getLong();
+        long indexOffset = buf.getLong();
+
+        if (sampleRate <= 0 || bitsPerSample % 8 != 0 || bitsPerSample <= 0 || channels <= 0
+                || samplesPerBlock <= 0 || totalSamples < 0 || indexOffset < 0) {
+            throw new AsphFormatException("Corrupt ASPH v5 header.");
+        }
+        return new Header(version, codec, sampleRate, bitsPerSample, channels, samplesPerBlock, totalSamples,
+                indexOffset, flags, cipher);
+    }
+
+    public static void writeV5Header(FileChannel channel, Header header) throws IOException {
+        writeFully(channel, 0, v5HeaderBytes(header));
+    }
+
+    /**
+     * The V5_HEADER_SIZE bytes of {@code header} as written to offset 0.
+     */
+    static ByteBuffer v5HeaderBytes(Header header) {
+        ByteBuffer buf = ByteBuffer.allocate(V5_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(MAGIC);
+        buf.put((byte) VERSION_5);
+        buf.put((byte) header.codec());
+        buf.put((byte) header.cipher());
+        buf.put((byte) header.flags());
+        buf.putInt(header.sampleRate());
+        buf.putInt(header.bitsPerSample());
+        buf.putInt(header.channels());
+        buf.putInt(header.samplesPerBlock());
+        buf.putLong(header.totalSamples());
+        buf.putLong(header.indexOffset());
+        return buf.flip();
+    }
+
+    /**
+     * Writes the seek index at {@code position}; {@code checksums} (null for none)
+     * follow the offsets.
+     */
+    public static void writeSeekIndex(FileChannel channel, long position, long[] blockOffsets, int[] checksums,
+                                      int count) throws IOException {
+        writeFully(channel, position, seekIndexBytes(blockOffsets, checksums, count));
+    }
+
+    static ByteBuffer seekIndexBytes(long[] blockOffsets, int[] checksums, int count) {
+        int entrySize = checksums != null ? 12 : 8;
+        ByteBuffer buf = ByteBuffer.allocate(SEEK_INDEX_HEADER_SIZE + entrySize * count).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(SEEK_INDEX_MAGIC);
+        buf.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buf.putLong(blockOffsets[i]);
+        }
+        if (checksums != null) {
+            for (int i = 0; i < count; i++) {
+                buf.putInt(checksums[i]);
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * The block offsets and checksums (null without FLAG_BLOCK_CRC32C) of a whole
+     * seek index.
+     */
+    record SeekIndex(long[] offsets, int[] checksums) {}
+
+    /**
+     * Parses the seek index of {@code header}, read in full (indexOffset to
+     * seekIndexEnd), and checks that the offsets rise from the first block to the
+     * index.
+     */
+    static SeekIndex parseSeekIndex(ByteBuffer buf, Header header) throws AsphCorruptDataException {
+        byte[] magic = new byte[4];
+        buf.get(magic);
+        long count = buf.getInt();
+        if (!Arrays.equals(magic, SEEK_INDEX_MAGIC) || count != header.blockCount()) {
+            throw new AsphCorruptDataException("Seek index is damaged (bad magic or block count).");
+        }
+        long[] offsets = new long[(int) count];
+        buf.asLongBuffer().get(offsets);
+        buf.position(buf.position() + 8 * (int) count);
+        int[] checksums = null;
+        if (header.hasBlockChecksums()) {
+            checksums = new int[(int) count];
+            buf.asIntBuffer().get(checksums);
+        }
+        long previous = V5_HEADER_SIZE - 1;
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] <= previous || offsets[i] >= header.indexOffset()) {
+                throw new AsphCorruptDataException("Corrupt seek index entry for block " + i + ".", i, null);
+            }
+            previous = offsets[i];
+        }
+        return new SeekIndex(offsets, checksums);
+    }
+
+    /**
+     * Reads and parses the whole seek index of {@code header} with one positional read.
+     */
+    static SeekIndex readSeekIndex(FileChannel channel, Header header) throws IOException {
+        if (header.indexOffset() == 0) {
+            throw new AsphFormatException("File has no seek index.");
+        }
+        long length = header.seekIndexEnd() - header.indexOffset();
+        if (length > Integer.MAX_VALUE) {
+            throw new AsphFormatException("Too many blocks (" + header.blockCount() + ").");
+        }
+        return parseSeekIndex(readFully(channel, header.indexOffset(), (int) length), header);
+    }
+
+    /**
+     * Looks up the file offset of one block with a single positional read.
+     */
+    public static long readBlockOffset(FileChannel channel, Header header, long blockIndex) throws IOException {
+        if (header.indexOffset() == 0) {
+            throw new AsphFormatException("File has no seek index.");
+        }
+        ByteBuffer buf = readFully(channel, header.indexOffset() + SEEK_INDEX_HEADER_SIZE + 8 * blockIndex, 8);
+        long offset = buf.getLong();
+        if (offset < V5_HEADER_SIZE || offset >= header.indexOffset()) {
+            throw new AsphCorruptDataException("Corrupt seek index entry for block " + blockIndex + ".", blockIndex, null);
+        }
+        return offset;
+    }
+
+    /**
+     * Reads the CRC32C of every block (one positional read), or returns null when
+     * the file has no checksums.
+     */
+    public static int[] readBlockChecksums(FileChannel channel, Header header) throws IOException {
+        if (!header.hasBlockChecksums() || header.indexOffset() == 0) {
+            return null;
+        }
+        long count = header.blockCount();
+        if (count > Integer.MAX_VALUE / 4) {
+            throw new AsphFormatException("Too many blocks (" + count + ").");
+        }
+        ByteBuffer buf = readFully(channel, header.indexOffset() + SEEK_INDEX_HEADER_SIZE + 8 * count, (int) count * 4);
+        int[] checksums = new int[(int) count];
+        buf.asIntBuffer().get(checksums);
+        return checksums;
+    }
+
+    /**
+     * Offset just past the audio payload (v4 ciphertext, or the v5 seek index and
+     * analysis chunk). Anything after it is the metadata trailer. Costs a header
+     * read (and the 8-byte chunk header), not a scan.
+     */
+    public static long payloadEnd(FileChannel channel) throws IOException {
+        if (probeVersion(channel) == VERSION_4) {
+            return 8L + Integer.toUnsignedLong(readFully(channel, 4, 4).getInt());
+        }
+        Header header = readV5Header(channel);
+        if (header.indexOffset() == 0) {
+            // unfinished encode; treat everything as payload
+            return channel.size();
+        }
+        long indexEnd = header.seekIndexEnd();
+        if (!header.hasAnalysis()) {
+            return indexEnd;
+        }
+        return indexEnd + ANALYSIS_CHUNK_HEADER_SIZE + readAnalysisLength(channel, indexEnd);
+    }
+
+    /**
+     * Reads the header of the analysis chunk at {@code position} and returns the
+     * length of its body.
+     */
+    static int readAnalysisLength(FileChannel channel, long position) throws IOException {
+        return parseAnalysisLength(readFully(channel, position, ANALYSIS_CHUNK_HEADER_SIZE));
+    }
+
+    static int parseAnalysisLength(ByteBuffer buf) throws AsphFormatException {
+        byte[] magic = new byte[4];
+        buf.get(magic);
+        int length = buf.getInt();
+        if (!Arrays.equals(magic, ANALYSIS_MAGIC) || length < 0) {
+            throw new AsphFormatException("Corrupt analysis chunk (bad magic or length).");
+        }
+        return length;
+    }
+
+    // --------- positional channel helpers ---------
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of file at offset " + (position + buf.position()) + ".");
+            }
+        }
+        return buf.flip();
+    }
+
+    static void writeFully(FileChannel channel, long position, ByteBuffer buf) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package dev.thedomcraft.audiosphere;
+
+/**
+ * The input is not something we can decode: wrong magic, unsupported version or
+ * codec, an invalid header, or an unsupported WAV on the encode side.
+ */
+public class AsphFormatException extends AsphException {
+
+    private static final long serialVersionUID = 1L;
+
+    public AsphFormatException(String message) {
+        super(message);
+    }
+
+    public AsphFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,400 @@
+package dev.thedomcraft.audiosphere;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Serves a directory of ASPH files over HTTP, decoding on the fly:
+ *
+ *   GET /                    JSON list of every .asph below the root
+ *   GET /wav/{path}          the track as a PCM WAV file
+ *   GET /pcm/{path}          raw PCM_SIGNED little-endian, format in X-Asph-* headers
+ *   GET /metadata/{path}     format and MetadataHandler fields as JSON
+ *   GET /analysis/{path}     loudness and waveform peaks (see AudioAnalysis) as JSON;
+ *                            ?width=N picks the peak level for an N pixel wide waveform
+ *   GET /cache               decoded-PCM cache counters (see PcmCache) as JSON
+ *
+ * /wav and /pcm answer HEAD and single byte-range requests. A range start is
+ * turned into a sample position and the decoder seeks there (through the v5 block
+ * index, or by re-inflating v4), so clients can scrub without the server decoding
+ * the skipped audio.
+ *
+ * Every exchange runs on its own virtual thread. A listener costs one decoder
+ * (a block of PCM plus scratch) and a small copy buffer, not a platform thread,
+ * so thousands of concurrent streams only need memory.
+ */
+public final class AsphServer {
+
+    private AsphServer() {}
+
+    private static final int COPY_BUFFER_BYTES = 16 * 1024;
+    private static final int DEFAULT_WAVEFORM_WIDTH = 1024;
+
+    /**
+     * Serves {@code dir} on {@code port} until the process is stopped.
+     */
+    public static void serve(String dir, int port) {
+        try {
+            HttpServer server = start(Path.of(dir), port);
+            CountDownLatch stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(0);
+                stopped.countDown();
+            }));
+            System.out.println("[AudioSphere] Serving " + Path.of(dir).toAbsolutePath().normalize()
+                    + " on http://localhost:" + server.getAddress().getPort() + "/");
+            System.out.println("[AudioSphere] Endpoints: /, /wav/<file>, /pcm/<file>, /metadata/<file>, /analysis/<file>, /cache (Ctrl+C to stop)");
+            stopped.await();
+        } catch (Exception ex) {
+            System.out.println("[AudioSphere] Error starting server: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Does the work of serve without printing or blocking; the caller stops the
+     * returned server. Port 0 picks a free port.
+     */
+    static HttpServer start(Path dir, int port) throws IOException {
+        Path root = dir.toRealPath();
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + dir);
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", exchange -> handle(exchange, root));
+        server.start();
+        return server;
+    }
+
+    private static void handle(HttpExchange exchange, Path root) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendText(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            try {
+                if (path.equals("/")) {
+                    sendJson(exchange, listing(root));
+                } else if (path.startsWith("/wav/")) {
+                    stream(exchange, resolve(root, path.substring(5)), true);
+                } else if (path.startsWith("/pcm/")) {
+                    stream(exchange, resolve(root, path.substring(5)), false);
+                } else if (path.startsWith("/metadata/")) {
+                    sendJson(exchange, metadata(resolve(root, path.substring(10))));
+                } else if (path.startsWith("/analysis/")) {
+                    sendJson(exchange, analysis(resolve(root, path.substring(10)), exchange.getRequestURI().getQuery()));
+                } else if (path.equals("/cache")) {
+                    sendJson(exchange, cacheStats());
+                } else {
+                    sendText(exchange, 404, "Not found");
+                }
+            } catch (NotFoundException ex) {
+                sendText(exchange, 404, "Not found");
+            } catch (AsphException ex) {
+                sendError(exchange, 422, "Unreadable ASPH file: " + ex.getMessage());
+            } catch (IOException | RuntimeException ex) {
+                sendError(exchange, 500, "Error: " + ex.getMessage());
+            }
+        } catch (IOException ex) {
+            // client went away mid-response; nothing to report
+        }
+    }
+
+    /**
+     * Reports a failure if the response hasn't started yet; mid-stream the
+     * connection is just closed, which the client sees as a short body.
+     */
+    private static void sendError(HttpExchange exchange, int status, String text) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendText(exchange, status, text);
+        }
+    }
+
+    // --------- audio ---------
+
+    private static void stream(HttpExchange exchange, Path file, boolean wav) throws IOException {
+        try (PcmSource source = PcmSource.open(file.toString())) {
+            AsphFormat.Header header = source.header();
+            int frameSize = header.frameSize();
+            byte[] wavHeader = wav ? WavFile.header(header.audioFormat(), source.totalSamples() * frameSize) : new byte[0];
+            long total = wavHeader.length + source.totalSamples() * frameSize;
+
+            Headers response = exchange.getResponseHeaders();
+            response.set("Content-Type", wav ? "audio/wav" : "application/octet-stream");
+            response.set("Accept-Ranges", "bytes");
+            if (!wav) {
+                response.set("X-Asph-Sample-Rate", Integer.toString(header.sampleRate()));
+                response.set("X-Asph-Bits", Integer.toString(header.bitsPerSample()));
+                response.set("X-Asph-Channels", Integer.toString(header.channels()));
+            }
+
+            long[] range = parseRange(exchange.getRequestHeaders().getFirst("Range"), total);
+            if (range == null) {
+                response.set("Content-Range", "bytes */" + total);
+                sendText(exchange, 416, "Range not satisfiable");
+                return;
+            }
+            long from = range[0];
+            long to = range[1]; // inclusive
+            boolean partial = from != 0 || to != total - 1;
+            if (partial) {
+                response.set("Content-Range", "bytes " + from + "-" + to + "/" + total);
+            }
+
+            int status = partial ? 206 : 200;
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                response.set("Content-Length", Long.toString(to - from + 1));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, to >= from ? to - from + 1 : -1); // 0 would mean chunked
+
+            OutputStream out = exchange.getResponseBody();
+            long remaining = to - from + 1;
+            if (from < wavHeader.length) {
+                int n = (int) Math.min(remaining, wavHeader.length - from);
+                out.write(wavHeader, (int) from, n);
+                remaining -= n;
+            }
+
+            // seek in sample time, then drop the part of the first frame before the range
+            long pcmFrom = Math.max(0, from - wavHeader.length);
+            source.seek(pcmFrom / frameSize);
+            int skip = (int) (pcmFrom % frameSize);
+            boolean unsigned8 = wav && header.bitsPerSample() == 8; // WAV stores 8-bit unsigned
+
+            byte[] buffer = new byte[COPY_BUFFER_BYTES - COPY_BUFFER_BYTES % frameSize];
+            while (remaining > 0) {
+                int read = source.read(buffer, 0, buffer.length);
+                if (read < 0) {
+                    break;
+                }
+                if (unsigned8) {
+                    for (int i = 0; i < read; i++) {
+                        buffer[i] ^= (byte) 0x80;
+                    }
+                }
+                int n = (int) Math.min(remaining, read - skip);
+                out.write(buffer, skip, n);
+                remaining -= n;
+                skip = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns {from, to} (inclusive) for a single "bytes=" range, the whole body when
+     * there is no usable Range header, or null when the range is unsatisfiable.
+     * Multi-range requests get the whole body, which RFC 9110 allows.
+     */
+    static long[] parseRange(String header, long total) {
+        long[] all = {0, total - 1};
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return all;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return all;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) { // suffix: the last N bytes
+                long n = Long.parseLong(last);
+                return n <= 0 ? null : new long[]{Math.max(0, total - n), total - 1};
+            }
+            long from = Long.parseLong(first);
+            long to = last.isEmpty() ? total - 1 : Math.min(Long.parseLong(last), total - 1);
+            return from >= total || from > to ? null : new long[]{from, to};
+        } catch (NumberFormatException ex) {
+            return all;
+        }
+    }
+
+    // --------- JSON ---------
+
+    private static String listing(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> Files.isRegularFile(p) && isAsph(p)).sorted().toList();
+        }
+
+        StringBuilder json = new StringBuilder("[");
+        for (Path file : files) {
+            String relative = root.relativize(file).toString().replace('\\', '/');
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("\n  {\"path\": ").append(Utilities.jsonString(relative))
+                    .append(", \"wav\": ").append(Utilities.jsonString("/wav/" + relative))
+                    .append(", \"metadata\": ").append(Utilities.jsonString("/metadata/" + relative))
+                    .append(", \"analysis\": ").append(Utilities.jsonString("/analysis/" + relative)).append('}');
+        }
+        return json.append("\n]\n").toString();
+    }
+
+    private static String metadata(Path file) throws IOException {
+        AsphFormat.Header header;
+        Map<String, String> fields;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             PcmSource source = PcmSource.open(file.toString())) {
+            header = source.header();
+            fields = MetadataHandler.readMetadata(channel);
+        }
+
+        StringBuilder json = new StringBuilder("{");
+        for (String key : new String[]{"Title", "Artist", "Album"}) {
+            if (fields.containsKey(key)) {
+                json.append("\n  ").append(Utilities.jsonString(key.toLowerCase())).append(": ")
+                        .append(Utilities.jsonString(fields.get(key))).append(',');
+            }
+        }
+        double seconds = (double) header.totalSamples() / header.sampleRate();
+        json.append("\n  \"version\": ").append(header.version())
+                .append(",\n  \"sampleRate\": ").append(header.sampleRate())
+                .append(",\n  \"bitsPerSample\": ").append(header.bitsPerSample())
+                .append(",\n  \"channels\": ").append(header.channels())
+                .append(",\n  \"totalSamples\": ").append(header.totalSamples())
+                .append(",\n  \"durationSeconds\": ").append(String.format(Locale.ROOT, "%.3f", seconds))
+                .append("\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Loudness plus the peaks of the level that suits {@code width=N} (default
+     * DEFAULT_WAVEFORM_WIDTH), as [min, max] pairs per channel normalised to [-1, 1].
+     * Reads the analysis chunk only; no audio is decoded.
+     */
+    private static String analysis(Path file, String query) throws IOException {
+        int width = DEFAULT_WAVEFORM_WIDTH;
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("width=")) {
+                    try {
+                        width = Math.max(1, Integer.parseInt(parameter.substring(6)));
+                    } catch (NumberFormatException ignored) {
+                        // keep the default
+                    }
+                }
+            }
+        }
+
+        AudioAnalysis.Summary summary;
+        AudioAnalysis.Peaks peaks;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            summary = AudioAnalysis.readSummary(channel);
+            peaks = AudioAnalysis.readPeaks(channel, summary, summary.levelFor(width));
+        }
+
+        StringBuilder json = new StringBuilder("{");
+        json.append("\n  \"integratedLufs\": ").append(jsonNumber(summary.integratedLufs()))
+                .append(",\n  \"loudnessRange\": ").append(jsonNumber(summary.loudnessRange()))
+                .append(",\n  \"truePeakDbtp\": ").append(jsonNumber(summary.truePeakDbtp()))
+                .append(",\n  \"samplePeakDbfs\": ").append(jsonNumber(summary.samplePeakDbfs()))
+                .append(",\n  \"gainToEbuR128\": ").append(jsonNumber(summary.gainTo(AudioAnalysis.EBU_R128_TARGET_LUFS)))
+                .append(",\n  \"sampleRate\": ").append(summary.sampleRate())
+                .append(",\n  \"channels\": ").append(peaks.channels())
+                .append(",\n  \"samplesPerPeak\": ").append(peaks.samplesPerPeak())
+                .append(",\n  \"peaks\": [");
+        for (int p = 0; p < peaks.count(); p++) {
+            json.append(p == 0 ? "\n    [" : ",\n    [");
+            for (int c = 0; c < peaks.channels(); c++) {
+                json.append(c == 0 ? "" : ", ")
+                        .append(String.format(Locale.ROOT, "%.4f, %.4f", peaks.min(p, c) / 32768.0, peaks.max(p, c) / 32768.0));
+            }
+            json.append(']');
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    /**
+     * A finite number with one decimal, or null (JSON has no infinity).
+     */
+    private static String jsonNumber(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.1f", value) : "null";
+    }
+
+    private static String cacheStats() {
+        PcmCache.Stats stats = PcmCache.shared().stats();
+        return "{\n  \"hits\": " + stats.hits()
+                + ",\n  \"sharedDecodes\": " + stats.shared()
+                + ",\n  \"misses\": " + stats.misses()
+                + ",\n  \"evictions\": " + stats.evictions()
+                + ",\n  \"entries\": " + stats.entries()
+                + ",\n  \"bytes\": " + stats.bytes()
+                + ",\n  \"budgetBytes\": " + stats.budget()
+                + "\n}\n";
+    }
+
+    // --------- helpers ---------
+
+    private static final class NotFoundException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotFoundException() {
+            super("not found");
+        }
+    }
+
+    /**
+     * Maps a request path to an .asph file below root; refuses anything that
+     * escapes the root (.., symlinks out of the tree).
+     */
+    private static Path resolve(Path root, String relative) throws IOException {
+        Path file = root.resolve(relative).normalize();
+        if (!file.startsWith(root) || !isAsph(file) || !Files.isRegularFile(file)) {
+            throw new NotFoundException();
+        }
+        Path real = file.toRealPath();
+        if (!real.startsWith(root)) {
+            throw new NotFoundException();
+        }
+        return real;
+    }
+
+    private static boolean isAsph(Path file) {
+        return file.getFileName() != null && file.getFileName().toString().toLowerCase().endsWith(".asph");
+    }
+
+    private static void sendJson(HttpExchange exchange, String json) throws IOException {
+        send(exchange, 200, "application/json; charset=utf-8", json);
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", text + "\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
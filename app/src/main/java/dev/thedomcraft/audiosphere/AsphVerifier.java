@@ -0,0 +1,248 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Integrity check for ASPH files and whole libraries, without writing any PCM.
+ *
+ * For v5 files with block checksums every block is read once and compared with
+ * the CRC32C stored in the seek index; no decryption is needed, so a scrub runs
+ * at disk speed. The index itself is checked against the block chain (each
+ * block must end where the next one starts). Older v5 files have no checksums
+ * and every block is decrypted and inflated instead (GZip blocks carry a CRC32,
+ * lossless blocks are bounds-checked); v4 files are inflated as a whole, since
+ * they have no blocks. Damaged v5 blocks are reported by index and file offset,
+ * and checking continues with the next block.
+ *
+ * Files are checked concurrently on a pool, largest first, like {@link BatchProcessor}.
+ */
+public final class AsphVerifier {
+
+    private AsphVerifier() {}
+
+    private static final int MAX_REPORTED_BLOCKS = 20;
+
+    /**
+     * One damaged block; {@code index} is -1 when the damage is not in a block
+     * (header, seek index, or anywhere in a v4 payload).
+     */
+    record Problem(long index, long offset, String message) {}
+
+    /**
+     * @param blocks      blocks checked (0 for v4)
+     * @param checksummed true if the blocks were checked against stored CRC32Cs,
+     *                    false if they had to be decoded
+     */
+    record Report(Path file, int version, long blocks, boolean checksummed, List<Problem> problems) {
+        boolean ok() {
+            return problems.isEmpty();
+        }
+    }
+
+    /**
+     * Verifies {@code path} (a file, or every .asph below a directory) with
+     * {@code jobs} files in flight and prints each damaged file plus a summary.
+     * Returns true if everything checked out.
+     */
+    public static boolean verify(String path, int jobs) {
+        long started = System.nanoTime();
+        Path root = Path.of(path);
+        List<Path> files;
+        try {
+            files = collect(root);
+        } catch (IOException ex) {
+            System.out.println("[AudioSphere] Error scanning " + root + ": " + ex.getMessage());
+            return false;
+        }
+
+        AtomicInteger good = new AtomicInteger();
+        AtomicInteger damaged = new AtomicInteger();
+        AtomicInteger unreadable = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        System.out.printf("[AudioSphere] Verifying %d file(s) with %d job(s)%n", files.size(), jobs);
+
+        try (ForkJoinPool pool = new ForkJoinPool(jobs)) {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(pool.submit(() -> {
+                    String name = Files.isDirectory(root) ? root.relativize(file).toString() : file.toString();
+                    try {
+                        Report report = verifyFile(file);
+                        bytes.addAndGet(Files.size(file));
+                        if (report.ok()) {
+                            good.incrementAndGet();
+                        } else {
+                            damaged.incrementAndGet();
+                            print(name, report);
+                        }
+                    } catch (Exception ex) {
+                        unreadable.incrementAndGet();
+                        System.out.printf("[AudioSphere] UNREADABLE %s: %s%n", name, ex.getMessage());
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) { // an Error such as OutOfMemoryError; exceptions are counted by the job
+                    unreadable.incrementAndGet();
+                    System.out.printf("[AudioSphere] UNREADABLE %s: %s%n", files.get(i), ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    unreadable.incrementAndGet();
+                }
+            }
+        }
+
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        System.out.println("[AudioSphere] Verify summary:");
+        System.out.printf("[AudioSphere] - OK: %d, Damaged: %d, Unreadable: %d%n",
+                good.get(), damaged.get(), unreadable.get());
+        System.out.printf(Locale.ROOT, "[AudioSphere] - Checked %.1f MB in %.2f s (%.1f MB/s)%n",
+                bytes.get() / 1e6, seconds, bytes.get() / 1e6 / seconds);
+        return damaged.get() == 0 && unreadable.get() == 0;
+    }
+
+    private static void print(String name, Report report) {
+        List<Problem> problems = report.problems();
+        if (report.version() == AsphFormat.VERSION_5) {
+            System.out.printf("[AudioSphere] DAMAGED %s (%d of %d block(s) bad)%n",
+                    name, problems.stream().filter(p -> p.index() >= 0).count(), report.blocks());
+        } else {
+            System.out.printf("[AudioSphere] DAMAGED %s (v%d)%n", name, report.version());
+        }
+        for (int i = 0; i < Math.min(problems.size(), MAX_REPORTED_BLOCKS); i++) {
+            Problem problem = problems.get(i);
+            if (problem.index() >= 0) {
+                System.out.printf("[AudioSphere]   block %d at offset %d: %s%n",
+                        problem.index(), problem.offset(), problem.message());
+            } else {
+                System.out.printf("[AudioSphere]   %s%n", problem.message());
+            }
+        }
+        if (problems.size() > MAX_REPORTED_BLOCKS) {
+            System.out.printf("[AudioSphere]   ... and %d more%n", problems.size() - MAX_REPORTED_BLOCKS);
+        }
+    }
+
+    /**
+     * Does the work for one file without printing. Damage is returned in the report;
+     * an exception means the file could not be checked at all (unreadable, not ASPH).
+     */
+    static Report verifyFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (AsphFormat.probeVersion(channel) == AsphFormat.VERSION_5) {
+                return verifyV5(file, channel);
+            }
+        }
+        return verifyV4(file);
+    }
+
+    private static Report verifyV5(Path file, FileChannel channel) throws IOException {
+        AsphFormat.Header header = AsphFormat.readV5Header(channel);
+        List<Problem> problems = new ArrayList<>();
+        long blocks = header.blockCount();
+        if (header.indexOffset() == 0) {
+            problems.add(new Problem(-1, 0, "no seek index (unfinished encode)"));
+            return new Report(file, AsphFormat.VERSION_5, 0, false, problems);
+        }
+        if (blocks > Integer.MAX_VALUE / 12) {
+            throw new AsphFormatException("Too many blocks (" + blocks + ").");
+        }
+
+        ByteBuffer index = AsphFormat.readFully(channel, header.indexOffset(), AsphFormat.SEEK_INDEX_HEADER_SIZE);
+        byte[] magic = new byte[4];
+        index.get(magic);
+        int count = index.getInt();
+        if (!Arrays.equals(magic, AsphFormat.SEEK_INDEX_MAGIC) || count != blocks) {
+            problems.add(new Problem(-1, header.indexOffset(), "seek index is damaged (bad magic or block count)"));
+            return new Report(file, AsphFormat.VERSION_5, blocks, false, problems);
+        }
+        long[] offsets = new long[(int) blocks];
+        AsphFormat.readFully(channel, header.indexOffset() + AsphFormat.SEEK_INDEX_HEADER_SIZE, 8 * (int) blocks)
+                .asLongBuffer().get(offsets);
+        int[] checksums = AsphFormat.readBlockChecksums(channel, header);
+
+        BlockCodec codec = BlockCodec.local();
+        byte[] pcm = checksums == null ? new byte[header.blockBytes()] : null;
+        for (int i = 0; i < blocks; i++) {
+            long offset = offsets[i];
+            long next = i + 1 < blocks ? offsets[i + 1] : header.indexOffset();
+            if (offset < AsphFormat.V5_HEADER_SIZE || offset >= next) {
+                problems.add(new Problem(i, offset, "seek index entry is out of order"));
+                continue;
+            }
+            try {
+                long stored;
+                if (checksums != null) {
+                    stored = 4L + codec.read(channel, offset, next, i, Integer.toUnsignedLong(checksums[i]));
+                } else {
+                    long remaining = header.totalSamples() - (long) i * header.samplesPerBlock();
+                    int expected = (int) Math.min(header.blockBytes(), remaining * header.frameSize());
+                    stored = codec.decode(channel, offset, next, header, i, pcm, expected);
+                }
+                if (offset + stored != next) {
+                    problems.add(new Problem(i, offset, "block length does not match the seek index"));
+                }
+            } catch (AsphCorruptDataException ex) {
+                problems.add(new Problem(i, offset, ex.getMessage()));
+            }
+        }
+        return new Report(file, AsphFormat.VERSION_5, blocks, checksums != null, problems);
+    }
+
+    private static Report verifyV4(Path file) throws IOException {
+        List<Problem> problems = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             V4StreamPcmSource source = V4StreamPcmSource.open(channel)) {
+            try {
+                // inflating through the trailer checks the padding, the deflate stream and the GZip CRC32
+                source.readToEnd();
+            } catch (IOException ex) { // CipherInputStream reports bad padding as a plain IOException
+                String message = ex instanceof AsphException ? ex.getMessage() : "Corrupt ASPH v4 payload: " + ex.getMessage();
+                problems.add(new Problem(-1, -1, message));
+            }
+        }
+        return new Report(file, AsphFormat.VERSION_4, 0, false, problems);
+    }
+
+    private record Candidate(Path file, long size) {}
+
+    /**
+     * The file itself, or every .asph below a directory, largest first.
+     */
+    private static List<Path> collect(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            if (!Files.isRegularFile(root)) {
+                throw new IOException("No such file or directory");
+            }
+            return List.of(root);
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) walk::iterator) {
+                if (Files.isRegularFile(file) && file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".asph")) {
+                    candidates.add(new Candidate(file, Files.size(file)));
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingLong(Candidate::size).reversed());
+        return candidates.stream().map(Candidate::file).toList();
+    }
+}
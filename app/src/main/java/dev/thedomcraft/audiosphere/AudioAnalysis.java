@@ -0,0 +1,512 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Waveform peaks and loudness measured while encoding, stored in an analysis
+ * chunk between the seek index and the metadata trailer (FLAG_ANALYSIS):
+ *
+ *   off  size
+ *   0    4    magic "ANLZ"
+ *   4    4    length of the rest of the chunk (LE)
+ *   8    1    chunk version (1)
+ *   9    1    channels
+ *   10   2    level count L (LE)
+ *   12   4    integrated loudness, LUFS (float LE; -Infinity when everything is gated out)
+ *   16   4    loudness range, LU (float LE)
+ *   20   4    true peak, dBTP (float LE)
+ *   24   4    sample peak, dBFS (float LE)
+ *   28   4    reserved (0)
+ *   32   16*L levels, finest first: int32 samples per peak | int32 peak count
+ *             | int64 offset of the level's peaks from the start of the chunk
+ *   ...       peaks of each level: per peak, per channel, int16 min and int16 max
+ *             (full scale 32767, whatever the bit depth)
+ *
+ * Each level has half the peaks of the one before, down to MIN_LEVEL_PEAKS, so a
+ * waveform of any width is drawn from one read of the first level with at least
+ * as many peaks as pixels. The finest level has BASE_SAMPLES_PER_PEAK samples per
+ * peak, doubled as often as needed to stay within MAX_PEAKS, so the chunk is at
+ * most about 1 MB for any track length. Reading the loudness is a read of the
+ * header and the first few hundred bytes of the chunk.
+ *
+ * Loudness follows ITU-R BS.1770-4 and EBU R128 (see {@link LoudnessMeter}).
+ */
+public final class AudioAnalysis {
+
+    private AudioAnalysis() {}
+
+    static final int CHUNK_VERSION = 1;
+    static final int BASE_SAMPLES_PER_PEAK = 256;
+    static final int MAX_PEAKS = 1 << 16;
+    static final int MIN_LEVEL_PEAKS = 64;
+
+    /** The EBU R128 programme loudness target. */
+    public static final double EBU_R128_TARGET_LUFS = -23.0;
+
+    private static final int BODY_HEADER_SIZE = 24; // after magic and length
+    private static final int LEVEL_ENTRY_SIZE = 16;
+    private static final int MAX_LEVELS = 16;
+
+    /**
+     * One resolution of the peak pyramid; {@code position} is the file offset of
+     * its peaks.
+     */
+    public record Level(int samplesPerPeak, int peaks, long position) {}
+
+    /**
+     * The loudness figures and the peak levels of a file. Loudness in LUFS, range
+     * in LU, peaks in dBTP / dBFS; -Infinity for digital silence.
+     */
+    public record Summary(int sampleRate, int channels, long totalSamples, double integratedLufs,
+                          double loudnessRange, double truePeakDbtp, double samplePeakDbfs, List<Level> levels) {
+
+        /**
+         * Gain in dB that brings the track to {@code targetLufs}; not finite for silence.
+         */
+        public double gainTo(double targetLufs) {
+            return targetLufs - integratedLufs;
+        }
+
+        /**
+         * The coarsest level with at least {@code minPeaks} peaks, or the finest one
+         * if none has that many.
+         */
+        public Level levelFor(int minPeaks) {
+            Level best = levels.get(0);
+            for (Level level : levels) {
+                if (level.peaks() >= minPeaks) {
+                    best = level;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Peaks of one level; {@code values} holds min and max for each channel of each
+     * peak in turn, as int16.
+     */
+    public record Peaks(int channels, int samplesPerPeak, short[] values) {
+
+        public int count() {
+            return values.length / (2 * channels);
+        }
+
+        public short min(int peak, int channel) {
+            return values[(peak * channels + channel) * 2];
+        }
+
+        public short max(int peak, int channel) {
+            return values[(peak * channels + channel) * 2 + 1];
+        }
+    }
+
+    /**
+     * Prints the loudness and peak levels of {@code inputFile}. Files without an
+     * analysis chunk (v4, or encoded before it existed) are measured by decoding.
+     */
+    public static void printAnalysis(String inputFile) {
+        try {
+            long started = System.nanoTime();
+            Summary summary;
+            boolean stored = hasAnalysis(inputFile);
+            if (stored) {
+                summary = readSummary(inputFile);
+            } else {
+                System.out.println("[AudioSphere] " + inputFile + " has no analysis chunk; measuring by decoding");
+                try (PcmSource source = PcmSource.open(inputFile)) {
+                    summary = measure(source);
+                }
+            }
+            double ms = (System.nanoTime() - started) / 1e6;
+
+            System.out.printf(Locale.ROOT, "[AudioSphere] Analysis of %s (%s in %.1f ms):%n",
+                    inputFile, stored ? "stored" : "measured", ms);
+            System.out.printf(Locale.ROOT, "[AudioSphere] - Integrated Loudness: %.1f LUFS%n", summary.integratedLufs());
+            System.out.printf(Locale.ROOT, "[AudioSphere] - Loudness Range: %.1f LU%n", summary.loudnessRange());
+            System.out.printf(Locale.ROOT, "[AudioSphere] - True Peak: %.1f dBTP (sample peak %.1f dBFS)%n",
+                    summary.truePeakDbtp(), summary.samplePeakDbfs());
+            System.out.printf(Locale.ROOT, "[AudioSphere] - Gain to %.0f LUFS (EBU R128): %+.1f dB%n",
+                    EBU_R128_TARGET_LUFS, summary.gainTo(EBU_R128_TARGET_LUFS));
+            if (stored) {
+                List<Level> levels = summary.levels();
+                System.out.printf("[AudioSphere] - Waveform Peaks: %d level(s), %d to %d samples per peak%n",
+                        levels.size(), levels.get(0).samplesPerPeak(), levels.get(levels.size() - 1).samplesPerPeak());
+            }
+        } catch (Exception ex) {
+            System.out.println("[AudioSphere] Error analysing file: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    static boolean hasAnalysis(String inputFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ)) {
+            if (AsphFormat.probeVersion(channel) != AsphFormat.VERSION_5) {
+                return false;
+            }
+            AsphFormat.Header header = AsphFormat.readV5Header(channel);
+            return header.hasAnalysis() && header.indexOffset() != 0;
+        }
+    }
+
+    /**
+     * Reads the loudness and level table of the analysis chunk; a few hundred
+     * bytes whatever the track length.
+     */
+    public static Summary readSummary(String inputFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ)) {
+            return readSummary(channel);
+        }
+    }
+
+    /**
+     * Reads the level of the peak pyramid with at least {@code minPeaks} peaks
+     * (see {@link Summary#levelFor}) with one positional read.
+     */
+    public static Peaks readPeaks(String inputFile, int minPeaks) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ)) {
+            Summary summary = readSummary(channel);
+            return readPeaks(channel, summary, summary.levelFor(minPeaks));
+        }
+    }
+
+    static Summary readSummary(FileChannel channel) throws IOException {
+        if (AsphFormat.probeVersion(channel) != AsphFormat.VERSION_5) {
+            throw new AsphFormatException("ASPH v4 files have no analysis chunk.");
+        }
+        AsphFormat.Header header = AsphFormat.readV5Header(channel);
+        if (!header.hasAnalysis() || header.indexOffset() == 0) {
+            throw new AsphFormatException("File has no analysis chunk.");
+        }
+        long position = header.seekIndexEnd();
+        int length = AsphFormat.readAnalysisLength(channel, position);
+        if (length < BODY_HEADER_SIZE) {
+            throw new AsphFormatException("Corrupt analysis chunk (too short).");
+        }
+        ByteBuffer body = AsphFormat.readFully(channel, position + AsphFormat.ANALYSIS_CHUNK_HEADER_SIZE,
+                Math.min(length, BODY_HEADER_SIZE + LEVEL_ENTRY_SIZE * MAX_LEVELS));
+
+        int version = body.get() & 0xFF;
+        if (version != CHUNK_VERSION) {
+            throw new AsphFormatException("Unsupported analysis chunk version " + version + ".");
+        }
+        int channels = body.get() & 0xFF;
+        int levelCount = body.getShort() & 0xFFFF;
+        double integrated = body.getFloat();
+        double range = body.getFloat();
+        double truePeak = body.getFloat();
+        double samplePeak = body.getFloat();
+        body.getInt(); // reserved
+        if (channels != header.channels() || levelCount == 0 || levelCount > MAX_LEVELS
+                || body.remaining() < levelCount * LEVEL_ENTRY_SIZE) {
+            throw new AsphFormatException("Corrupt analysis chunk (bad channel or level count).");
+        }
+
+        List<Level> levels = new ArrayList<>(levelCount);
+        long chunkEnd = AsphFormat.ANALYSIS_CHUNK_HEADER_SIZE + (long) length;
+        for (int i = 0; i < levelCount; i++) {
+            int samplesPerPeak = body.getInt();
+            int peaks = body.getInt();
+            long offset = body.getLong();
+            if (samplesPerPeak <= 0 || peaks <= 0 || peaks > MAX_PEAKS || offset < 0
+                    || offset + (long) peaks * channels * 4 > chunkEnd) {
+                throw new AsphFormatException("Corrupt analysis chunk (level " + i + " out of bounds).");
+            }
+            levels.add(new Level(samplesPerPeak, peaks, position + offset));
+        }
+        return new Summary(header.sampleRate(), channels, header.totalSamples(), integrated, range,
+                truePeak, samplePeak, List.copyOf(levels));
+    }
+
+    static Peaks readPeaks(FileChannel channel, Summary summary, Level level) throws IOException {
+        int count = level.peaks() * summary.channels() * 2;
+        short[] values = new short[count];
+        AsphFormat.readFully(channel, level.position(), count * 2).asShortBuffer().get(values);
+        return new Peaks(summary.channels(), level.samplesPerPeak(), values);
+    }
+
+    /**
+     * Measures a decoded source from its current position to the end (levels are
+     * not kept). Used for files that were encoded without an analysis chunk.
+     */
+    static Summary measure(PcmSource source) throws IOException {
+        AsphFormat.Header header = source.header();
+        Builder builder = new Builder(header);
+        byte[] block = new byte[AsphFormat.DEFAULT_SAMPLES_PER_BLOCK * header.frameSize()];
+        while (true) {
+            int filled = 0;
+            int read;
+            while (filled < block.length && (read = source.read(block, filled, block.length - filled)) > 0) {
+                filled += read;
+            }
+            if (filled == 0) {
+                break;
+            }
+            try {
+                builder.add(builder.task(block, filled).call());
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex); // analyse() throws nothing checked
+            }
+        }
+        return builder.summary(header.totalSamples());
+    }
+
+    // --------- measuring ---------
+
+    /**
+     * What one block contributed: its peaks at BASE_SAMPLES_PER_PEAK, its partial
+     * K-weighted step sums (the first and last step may be shared with the
+     * neighbouring blocks) and its peak values.
+     */
+    record BlockResult(long firstFrame, int frames, short[] peaks, double[] steps, int stepCount,
+                       double samplePeak, double truePeak) {}
+
+    /**
+     * Collects the analysis of a track block by block. task() must be called for
+     * every block in order, on one thread; the returned tasks can run on any
+     * thread, and their results must reach add() in order. Each task keeps a copy
+     * of the end of the previous block (for the filter warm-up), so in a parallel
+     * encode no block has to wait for another.
+     */
+    static final class Builder {
+        private final int sampleRate;
+        private final int bitsPerSample;
+        private final int channels;
+        private final int frameSize;
+        private final int stepFrames;
+
+        private byte[] tail = new byte[0];
+        private long submittedFrames;
+
+        private short[] peaks;
+        private int peakCount;
+        private int fold = 1; // base peaks per stored peak
+        private final short[] pending;
+        private int pendingCount;
+
+        private double[] steps = new double[64];
+        private double samplePeak;
+        private double truePeak;
+        private long frames;
+
+        Builder(AsphFormat.Header header) {
+            if (header.samplesPerBlock() % BASE_SAMPLES_PER_PEAK != 0) {
+                throw new IllegalArgumentException("Block size is not a multiple of " + BASE_SAMPLES_PER_PEAK + " samples.");
+            }
+            this.sampleRate = header.sampleRate();
+            this.bitsPerSample = header.bitsPerSample();
+            this.channels = header.channels();
+            this.frameSize = header.frameSize();
+            this.stepFrames = LoudnessMeter.stepFrames(sampleRate);
+            this.peaks = new short[1024 * channels * 2];
+            this.pending = new short[channels * 2];
+        }
+
+        /**
+         * The analysis of the next {@code length} bytes of PCM. {@code pcm} must
+         * not change until the task has run.
+         */
+        Callable<BlockResult> task(byte[] pcm, int length) {
+            int blockFrames = length / frameSize;
+            byte[] context = tail;
+            long firstFrame = submittedFrames;
+            int keep = Math.min(blockFrames, stepFrames) * frameSize;
+            tail = Arrays.copyOfRange(pcm, length - keep, length);
+            submittedFrames += blockFrames;
+            return () -> analyse(context, pcm, blockFrames, firstFrame);
+        }
+
+        private BlockResult analyse(byte[] context, byte[] pcm, int blockFrames, long firstFrame) {
+            StageEvent timer = StageEvent.begin(PipelineStats.Stage.ANALYSE);
+            int contextFrames = context.length / frameSize;
+            float[] before = new float[contextFrames * channels];
+            float[] x = new float[blockFrames * channels];
+            PcmDsp.toFloat(context, 0, before.length, bitsPerSample, true, false, false, before);
+            PcmDsp.toFloat(pcm, 0, x.length, bitsPerSample, true, false, false, x);
+
+            // min/max per channel of every BASE_SAMPLES_PER_PEAK frames
+            int peakCount = (blockFrames + BASE_SAMPLES_PER_PEAK - 1) / BASE_SAMPLES_PER_PEAK;
+            short[] blockPeaks = new short[peakCount * channels * 2];
+            float blockPeak = 0.0f;
+            for (int p = 0; p < peakCount; p++) {
+                int from = p * BASE_SAMPLES_PER_PEAK;
+                int to = Math.min(blockFrames, from + BASE_SAMPLES_PER_PEAK);
+                for (int c = 0; c < channels; c++) {
+                    float lo = Float.MAX_VALUE;
+                    float hi = -Float.MAX_VALUE;
+                    for (int i = from * channels + c; i < to * channels; i += channels) {
+                        lo = Math.min(lo, x[i]);
+                        hi = Math.max(hi, x[i]);
+                    }
+                    blockPeaks[(p * channels + c) * 2] = toShort(lo);
+                    blockPeaks[(p * channels + c) * 2 + 1] = toShort(hi);
+                    blockPeak = Math.max(blockPeak, Math.max(-lo, hi));
+                }
+            }
+
+            LoudnessMeter.KWeighting weighting = new LoudnessMeter.KWeighting(sampleRate, channels);
+            weighting.warmUp(before, contextFrames, channels);
+            double[] blockSteps = new double[blockFrames / stepFrames + 2];
+            int stepCount = weighting.measure(x, blockFrames, channels, firstFrame, stepFrames, blockSteps);
+
+            int history = LoudnessMeter.TRUE_PEAK_TAPS - 1;
+            float[] channel = new float[history + blockFrames];
+            float blockTruePeak = blockPeak;
+            for (int c = 0; c < channels; c++) {
+                Arrays.fill(channel, 0, history, 0.0f);
+                for (int i = 0; i < Math.min(history, contextFrames); i++) {
+                    channel[history - 1 - i] = before[(contextFrames - 1 - i) * channels + c];
+                }
+                for (int f = 0; f < blockFrames; f++) {
+                    channel[history + f] = x[f * channels + c];
+                }
+                blockTruePeak = LoudnessMeter.truePeak(channel, blockFrames, blockTruePeak);
+            }
+            timer.end((long) blockFrames * frameSize);
+            return new BlockResult(firstFrame, blockFrames, blockPeaks, blockSteps, stepCount, blockPeak, blockTruePeak);
+        }
+
+        void add(BlockResult block) {
+            if (block.firstFrame() != frames) {
+                throw new IllegalStateException("Analysis blocks out of order.");
+            }
+            short[] blockPeaks = block.peaks();
+            int width = channels * 2;
+            for (int p = 0; p < blockPeaks.length; p += width) {
+                push(blockPeaks, p);
+            }
+
+            int firstStep = (int) (block.firstFrame() / stepFrames);
+            if (firstStep + block.stepCount() > steps.length) {
+                steps = Arrays.copyOf(steps, Math.max(steps.length * 2, firstStep + block.stepCount()));
+            }
+            for (int i = 0; i < block.stepCount(); i++) {
+                steps[firstStep + i] += block.steps()[i];
+            }
+            samplePeak = Math.max(samplePeak, block.samplePeak());
+            truePeak = Math.max(truePeak, block.truePeak());
+            frames += block.frames();
+        }
+
+        /**
+         * Loudness of everything added so far; {@code totalSamples} is only reported.
+         */
+        Summary summary(long totalSamples) {
+            int completeSteps = (int) (frames / stepFrames);
+            return new Summary(sampleRate, channels, totalSamples,
+                    LoudnessMeter.integrated(steps, completeSteps, stepFrames),
+                    LoudnessMeter.range(steps, completeSteps, stepFrames),
+                    LoudnessMeter.decibels(truePeak), LoudnessMeter.decibels(samplePeak), List.of());
+        }
+
+        /**
+         * The complete analysis chunk, magic included, ready to be written.
+         */
+        ByteBuffer finish() {
+            if (pendingCount > 0) {
+                emit();
+            }
+            int width = channels * 2;
+            List<short[]> levels = new ArrayList<>();
+            short[] level = Arrays.copyOf(peaks, peakCount * width);
+            levels.add(level);
+            while (level.length / width > MIN_LEVEL_PEAKS) {
+                int count = level.length / width;
+                short[] coarser = new short[(count + 1) / 2 * width];
+                for (int p = 0; p < count; p += 2) {
+                    System.arraycopy(level, p * width, coarser, p / 2 * width, width);
+                    if (p + 1 < count) {
+                        merge(level, (p + 1) * width, coarser, p / 2 * width);
+                    }
+                }
+                levels.add(coarser);
+                level = coarser;
+            }
+
+            int tableEnd = AsphFormat.ANALYSIS_CHUNK_HEADER_SIZE + BODY_HEADER_SIZE + LEVEL_ENTRY_SIZE * levels.size();
+            int size = tableEnd + levels.stream().mapToInt(l -> l.length * 2).sum();
+            Summary summary = summary(frames);
+
+            ByteBuffer chunk = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            chunk.put(AsphFormat.ANALYSIS_MAGIC);
+            chunk.putInt(size - AsphFormat.ANALYSIS_CHUNK_HEADER_SIZE);
+            chunk.put((byte) CHUNK_VERSION);
+            chunk.put((byte) channels);
+            chunk.putShort((short) levels.size());
+            chunk.putFloat((float) summary.integratedLufs());
+            chunk.putFloat((float) summary.loudnessRange());
+            chunk.putFloat((float) summary.truePeakDbtp());
+            chunk.putFloat((float) summary.samplePeakDbfs());
+            chunk.putInt(0);
+            long offset = tableEnd;
+            int samplesPerPeak = BASE_SAMPLES_PER_PEAK * fold;
+            for (short[] l : levels) {
+                chunk.putInt(samplesPerPeak);
+                chunk.putInt(l.length / width);
+                chunk.putLong(offset);
+                offset += l.length * 2L;
+                samplesPerPeak *= 2;
+            }
+            for (short[] l : levels) {
+                chunk.asShortBuffer().put(l);
+                chunk.position(chunk.position() + l.length * 2);
+            }
+            return chunk.flip();
+        }
+
+        /**
+         * Folds one base peak into the pending stored peak. When MAX_PEAKS are
+         * stored, neighbours are merged and every stored peak covers twice as much.
+         */
+        private void push(short[] src, int offset) {
+            int width = channels * 2;
+            if (pendingCount == 0) {
+                System.arraycopy(src, offset, pending, 0, width);
+            } else {
+                merge(src, offset, pending, 0);
+            }
+            if (++pendingCount == fold) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            int width = channels * 2;
+            if (peakCount * width == peaks.length) {
+                peaks = Arrays.copyOf(peaks, peaks.length * 2);
+            }
+            System.arraycopy(pending, 0, peaks, peakCount * width, width);
+            peakCount++;
+            pendingCount = 0;
+            if (peakCount == MAX_PEAKS) {
+                for (int p = 0; p < MAX_PEAKS; p += 2) {
+                    System.arraycopy(peaks, p * width, peaks, p / 2 * width, width);
+                    merge(peaks, (p + 1) * width, peaks, p / 2 * width);
+                }
+                peakCount = MAX_PEAKS / 2;
+                fold *= 2;
+            }
+        }
+
+        private void merge(short[] src, int srcOffset, short[] dst, int dstOffset) {
+            for (int i = 0; i < channels * 2; i += 2) {
+                dst[dstOffset + i] = (short) Math.min(dst[dstOffset + i], src[srcOffset + i]);
+                dst[dstOffset + i + 1] = (short) Math.max(dst[dstOffset + i + 1], src[srcOffset + i + 1]);
+            }
+        }
+
+        private static short toShort(float sample) {
+            return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample * 32768.0f)));
+        }
+    }
+}
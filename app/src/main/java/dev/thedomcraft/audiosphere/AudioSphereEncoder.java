@@ -7,12 +7,20 @@ import javax.sound.sampled.*;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
- * ASPH v4 encoder/decoder (WAV-only input).
+ * ASPH encoder/decoder (WAV-only input). Writes block-framed ASPH v5 and reads
+ * both v4 and v5 (see {@link AsphFormat}).
  *
  * - Input: WAV files only (required).
  * - Output ASPH: PCM_SIGNED, little-endian, with sample rate / bit depth / channels
@@ -20,6 +28,7 @@ import java.util.zip.GZIPOutputStream;
  *      sampleRate <= 96 kHz
  *      bitsPerSample <= 24
  *      channels <= 2
+ *   Extra channels are mixed down and deeper sources are dithered (see {@link PcmDsp}).
  */
 
 /**
@@ -51,65 +60,37 @@ public final class AudioSphereEncoder {
     private static final String MAGIC = "ASPH";
     private static final byte VERSION = 0x04; // ASPH v4
 
+    private static final int WAV_WRITE_BYTES = 256 * 1024;
+
     /**
-     * Encode a WAV file into ASPH v4.
+     * Encode a WAV file into ASPH v5.
      * The output format mirrors the input WAV format (clamped to <= 96kHz, 24-bit, 2ch).
+     * PCM is read, compressed and encrypted one block at a time, so memory use does
+     * not depend on the length of the track.
      */
     public static void encodeToAudioSphere(String inputFile, String outputFile) {
-        try {
-            EncodedPcmResult pcm = readAndConvertWavToPcmMirroringInput(inputFile);
-
-            byte[] combinedData;
-            try (var combinedStream = new ByteArrayOutputStream()) {
-                // ASPH magic + version
-                combinedStream.write(MAGIC.getBytes());
-                combinedStream.write(VERSION);
-
-                // Write audio format details (little endian)
-                combinedStream.write(intToLittleEndian(Math.round(pcm.sampleRate())));
-                combinedStream.write(intToLittleEndian(pcm.bitsPerSample()));
-                combinedStream.write(intToLittleEndian(pcm.channels()));
-
-                // PCM audio data
-                combinedStream.write(pcm.pcmBytes());
-
-                combinedData = combinedStream.toByteArray();
-            }
-
-            // Compress
-            byte[] compressed;
-            try (var baos = new ByteArrayOutputStream();
-                 var gzip = new GZIPOutputStream(baos)) {
-                gzip.write(combinedData);
-                gzip.finish();
-                compressed = baos.toByteArray();
-            }
+        encodeToAudioSphere(inputFile, outputFile, EncodeOptions.defaults());
+    }
 
-            // Encrypt
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(
-                    Cipher.ENCRYPT_MODE,
-                    new SecretKeySpec(ENCRYPTION_KEY, "AES"),
-                    new IvParameterSpec(INIT_VECTOR)
-            );
-            byte[] encrypted = cipher.doFinal(compressed);
-
-            // Write final file: magic (unencrypted) + length + encrypted payload
-            try (var fos = new FileOutputStream(outputFile)) {
-                fos.write(MAGIC.getBytes());
-                fos.write(intToLittleEndian(encrypted.length));
-                fos.write(encrypted);
-            }
+    /**
+     * Encode with explicit options. With more than one thread, blocks are compressed
+     * and encrypted on a ForkJoinPool and written back in order, so the output is
+     * byte-identical to a single-threaded encode.
+     */
+    public static void encodeToAudioSphere(String inputFile, String outputFile, EncodeOptions options) {
+        try {
+            AsphFormat.Header header = encodeFile(inputFile, outputFile, options);
 
             long originalSize = new File(inputFile).length();
             long encodedSize = new File(outputFile).length();
             double ratio = (double) encodedSize / Math.max(1, originalSize) * 100.0;
 
-            System.out.println("[AudioSphere] ASPH Version: " + (VERSION & 0xFF));
+            System.out.println("[AudioSphere] ASPH Version: " + AsphFormat.VERSION_5);
+            System.out.println("[AudioSphere] Codec: " + (header.codec() == AsphFormat.CODEC_LOSSLESS ? "Lossless (LPC + Rice)" : "GZip"));
             System.out.println("[AudioSphere] Audio Format (mirrored from input WAV):");
-            System.out.println("[AudioSphere] - Sample Rate: " + Math.round(pcm.sampleRate()) + "Hz");
-            System.out.println("[AudioSphere] - Bit Depth: " + pcm.bitsPerSample() + "-bit");
-            System.out.println("[AudioSphere] - Channels: " + pcm.channels());
+            System.out.println("[AudioSphere] - Sample Rate: " + header.sampleRate() + "Hz");
+            System.out.println("[AudioSphere] - Bit Depth: " + header.bitsPerSample() + "-bit");
+            System.out.println("[AudioSphere] - Channels: " + header.channels());
             System.out.println("[AudioSphere] File Statistics:");
             System.out.printf("[AudioSphere] - Original Size: %,d bytes%n", originalSize);
             System.out.printf("[AudioSphere] - Encoded Size: %,d bytes%n", encodedSize);
@@ -120,11 +101,146 @@ public final class AudioSphereEncoder {
         }
     }
 
+    /**
+     * Does the work of encodeToAudioSphere without printing; errors propagate.
+     * Returns the header that was written.
+     */
+    static AsphFormat.Header encodeFile(String inputFile, String outputFile, EncodeOptions options) throws Exception {
+        return encodeFile(inputFile, outputFile, options, BlockCodec.local());
+    }
+
+    /**
+     * As above; single-threaded encodes compress and encrypt through {@code codec}.
+     */
+    static AsphFormat.Header encodeFile(String inputFile, String outputFile, EncodeOptions options, BlockCodec codec)
+            throws Exception {
+        try (ConvertedPcmStream pcm = openWavAsPcmMirroringInput(inputFile, options);
+             FileChannel out = FileChannel.open(Path.of(outputFile),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            AsphFormat.Header header = v5Header(pcm, options);
+            BlockWriter writer = new BlockWriter(out, header, codec);
+            AudioAnalysis.Builder analysis = new AudioAnalysis.Builder(header);
+            if (options.threads() > 1) {
+                writeBlocksParallel(pcm.stream(), writer, analysis, header, options.threads());
+            } else {
+                byte[] block = new byte[header.blockBytes()];
+                int read;
+                while ((read = readBlock(pcm.stream(), block, header.frameSize())) > 0) {
+                    analysis.add(analysis.task(block, read).call());
+                    writer.writeBlock(block, read);
+                }
+            }
+            writer.finish(analysis.finish());
+            return header.withTotals(writer.totalSamples(), 0);
+        }
+    }
+
+    /**
+     * The header an encode of {@code pcm} starts with; the totals and index offset
+     * are patched in when it finishes.
+     */
+    static AsphFormat.Header v5Header(ConvertedPcmStream pcm, EncodeOptions options) {
+        return new AsphFormat.Header(
+                AsphFormat.VERSION_5,
+                options.codec(),
+                Math.round(pcm.sampleRate()),
+                pcm.bitsPerSample(),
+                pcm.channels(),
+                AsphFormat.DEFAULT_SAMPLES_PER_BLOCK,
+                0,
+                0,
+                AsphFormat.FLAG_BLOCK_CRC32C | AsphFormat.FLAG_ANALYSIS
+                        | (options.constantRuns() ? AsphFormat.FLAG_CONSTANT_RUNS : 0),
+                options.cipher()
+        );
+    }
+
+    /**
+     * A block submitted to the pool: its encoded bytes and its analysis are
+     * computed as separate tasks.
+     */
+    private record InFlightBlock(ForkJoinTask<byte[]> encoded, ForkJoinTask<AudioAnalysis.BlockResult> analysed,
+                                 int samples) {}
+
+    /**
+     * Keeps up to two blocks per thread in flight: the reader submits each block to
+     * the pool as soon as it is read and only waits when the window is full, at which
+     * point the oldest block is joined and written. Memory stays bounded by the window.
+     * The analysis of each block runs as its own task next to the encode.
+     */
+    private static void writeBlocksParallel(InputStream pcm, BlockWriter writer, AudioAnalysis.Builder analysis,
+                                            AsphFormat.Header header, int threads) throws Exception {
+        int window = threads * 2;
+        ArrayDeque<InFlightBlock> inFlight = new ArrayDeque<>(window);
+
+        try (ForkJoinPool pool = new ForkJoinPool(threads)) {
+            long blockIndex = 0;
+            while (true) {
+                byte[] block = new byte[header.blockBytes()];
+                int read = readBlock(pcm, block, header.frameSize());
+                if (read <= 0) {
+                    break;
+                }
+
+                long index = blockIndex++;
+                inFlight.add(new InFlightBlock(
+                        pool.submit(() -> BlockWriter.encodeBlock(header, block, read, index)),
+                        pool.submit(analysis.task(block, read)),
+                        read / header.frameSize()));
+
+                if (inFlight.size() >= window) {
+                    append(inFlight.poll(), writer, analysis);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                append(inFlight.poll(), writer, analysis);
+            }
+        }
+    }
+
+    private static void append(InFlightBlock block, BlockWriter writer, AudioAnalysis.Builder analysis)
+            throws IOException {
+        writer.appendBlock(block.encoded().join(), block.samples());
+        analysis.add(block.analysed().join());
+    }
+
+    /**
+     * Fill {@code block} from the stream, dropping a trailing partial frame if any.
+     */
+    private static int readBlock(InputStream in, byte[] block, int frameSize) throws IOException {
+        return readBlock(in, block, block.length, frameSize);
+    }
+
+    /**
+     * As above, into {@code block[0, length)}.
+     */
+    static int readBlock(InputStream in, byte[] block, int length, int frameSize) throws IOException {
+        int read = in.readNBytes(block, 0, length);
+        return read - read % frameSize;
+    }
+
     /**
      * Decrypts & decompresses an ASPH file and returns the raw combined bytes:
      * [magic(4)][version(1)][sampleRate(4)][bits(4)][channels(4)][audio...]
+     *
+     * Works for both v4 and v5 files. For v5 the blocks are concatenated, so the
+     * whole track ends up in memory. Decoded PCM comes from (and goes to) the
+     * shared {@link PcmCache}: per block for v5, as one entry for v4.
      */
     public static byte[] decryptAndDecompress(String inputFile) {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ)) {
+            PcmCache.FileKey fileKey = PcmCache.FileKey.of(Path.of(inputFile));
+            if (AsphFormat.probeVersion(channel) == AsphFormat.VERSION_5) {
+                return readV5Combined(channel, fileKey);
+            }
+            return PcmCache.shared().readAll(fileKey, () -> readV4Combined(inputFile));
+        } catch (Exception ex) {
+            throw new RuntimeException("[AudioSphere] Error during decrypt/decompress: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static byte[] readV4Combined(String inputFile) throws IOException {
         try (var fis = new FileInputStream(inputFile)) {
             byte[] magic = fis.readNBytes(4);
             if (!Arrays.equals(magic, MAGIC.getBytes())) {
@@ -137,112 +253,237 @@ public final class AudioSphereEncoder {
             }
             int encryptedLength = littleEndianToInt(lenBytes);
 
+            StageEvent readTimer = StageEvent.begin(PipelineStats.Stage.READ);
             byte[] encrypted = fis.readNBytes(encryptedLength);
             if (encrypted.length != encryptedLength) {
                 throw new IOException("Unexpected end of file while reading encrypted payload.");
             }
-
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(
-                    Cipher.DECRYPT_MODE,
-                    new SecretKeySpec(ENCRYPTION_KEY, "AES"),
-                    new IvParameterSpec(INIT_VECTOR)
-            );
-            byte[] decrypted = cipher.doFinal(encrypted);
+            readTimer.end(encryptedLength);
+
+            StageEvent decryptTimer = StageEvent.begin(PipelineStats.Stage.DECRYPT);
+            byte[] decrypted;
+            try {
+                Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                cipher.init(
+                        Cipher.DECRYPT_MODE,
+                        new SecretKeySpec(ENCRYPTION_KEY, "AES"),
+                        new IvParameterSpec(INIT_VECTOR)
+                );
+                decrypted = cipher.doFinal(encrypted);
+            } catch (GeneralSecurityException ex) {
+                throw new AsphCorruptDataException("Decryption failed: " + ex.getMessage(), -1, ex);
+            }
+            decryptTimer.end(encryptedLength);
 
             // GZip decompress
+            StageEvent decompressTimer = StageEvent.begin(PipelineStats.Stage.DECOMPRESS);
             try (var gzip = new GZIPInputStream(new ByteArrayInputStream(decrypted));
                  var baos = new ByteArrayOutputStream()) {
                 gzip.transferTo(baos);
+                decompressTimer.end(baos.size());
                 return baos.toByteArray();
             }
-        } catch (Exception ex) {
-            throw new RuntimeException("[AudioSphere] Error during decrypt/decompress: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static byte[] readV5Combined(FileChannel channel, PcmCache.FileKey fileKey) throws IOException {
+        AsphFormat.Header header = AsphFormat.readV5Header(channel);
+        long pcmBytes = header.totalSamples() * header.frameSize();
+        if (pcmBytes > Integer.MAX_VALUE - 17) {
+            throw new IOException("Track too large to decode into memory (" + pcmBytes + " bytes).");
+        }
+
+        try (var combinedStream = new ByteArrayOutputStream((int) pcmBytes + 17);
+             var blocks = new BlockInputStream(channel, header, fileKey)) {
+            combinedStream.write(MAGIC.getBytes());
+            combinedStream.write(AsphFormat.VERSION_5);
+            combinedStream.write(intToLittleEndian(header.sampleRate()));
+            combinedStream.write(intToLittleEndian(header.bitsPerSample()));
+            combinedStream.write(intToLittleEndian(header.channels()));
+            blocks.transferTo(combinedStream);
+            return combinedStream.toByteArray();
         }
     }
 
     /**
-     * Decode ASPH v4 back into WAV.
+     * Decode ASPH v4 or v5 back into WAV.
      */
     public static void decodeFromAudioSphere(String inputFile, String outputFile) {
         try {
-            byte[] combined = decryptAndDecompress(inputFile);
-            try (var in = new ByteArrayInputStream(combined)) {
-                byte[] magic = in.readNBytes(4);
-                if (!Arrays.equals(magic, MAGIC.getBytes())) {
-                    throw new IOException("Invalid data: wrong ASPH magic.");
-                }
-
-                int version = in.read();
-                if (version != (VERSION & 0xFF)) {
-                    System.out.println("[AudioSphere] Warning: ASPH version mismatch (" + version + ")");
-                }
+            decodeFile(inputFile, outputFile);
+            System.out.println("[AudioSphere] Successfully decoded " + inputFile + " to " + outputFile);
+        } catch (Exception ex) {
+            System.out.println("[AudioSphere] Error decoding file: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
 
-                byte[] fmtBytes = in.readNBytes(12);
-                if (fmtBytes.length != 12) {
-                    throw new IOException("Incomplete ASPH header.");
-                }
+    /**
+     * Does the work of decodeFromAudioSphere without printing; errors propagate.
+     *
+     * Both versions stream: v4 through CipherInputStream and GZIPInputStream
+     * ({@link V4StreamPcmSource}), v5 block by block through the shared
+     * {@link PcmCache}, straight into {@link #writeWav}. Memory use does not
+     * depend on the track length. Returns the file's header.
+     */
+    static AsphFormat.Header decodeFile(String inputFile, String outputFile) throws IOException {
+        try (PcmSource source = PcmSource.open(inputFile)) {
+            writeWav(source, source.totalSamples(), outputFile);
+            return source.header();
+        }
+    }
 
-                int sampleRate = littleEndianToInt(Arrays.copyOfRange(fmtBytes, 0, 4));
-                int bitsPerSample = littleEndianToInt(Arrays.copyOfRange(fmtBytes, 4, 8));
-                int channels = littleEndianToInt(Arrays.copyOfRange(fmtBytes, 8, 12));
+    /**
+     * Decode the range [startSeconds, endSeconds) of an ASPH file into a WAV, e.g. a
+     * preview clip. The end is clamped to the track.
+     */
+    public static void extractFromAudioSphere(String inputFile, double startSeconds, double endSeconds,
+                                              String outputFile) {
+        try {
+            long started = System.nanoTime();
+            AsphFormat.Header header = extractFile(inputFile, outputFile, startSeconds, endSeconds);
+            System.out.printf(Locale.ROOT, "[AudioSphere] Extracted %.3f s of %s (from %.3f s) to %s in %.2f ms%n",
+                    (double) header.totalSamples() / header.sampleRate(), inputFile, startSeconds, outputFile,
+                    (System.nanoTime() - started) / 1e6);
+        } catch (Exception ex) {
+            System.out.println("[AudioSphere] Error extracting range: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
 
-                byte[] audioData = in.readAllBytes();
+    /**
+     * Does the work of extractFromAudioSphere without printing; errors propagate.
+     * Returns the source header with {@code totalSamples} set to the frames written.
+     */
+    static AsphFormat.Header extractFile(String inputFile, String outputFile, double startSeconds, double endSeconds)
+            throws IOException {
+        if (!(startSeconds >= 0) || !(endSeconds > startSeconds)) {
+            throw new IllegalArgumentException("The range must satisfy 0 <= start < end (got "
+                    + startSeconds + " to " + endSeconds + ").");
+        }
+        try (PcmSource source = PcmSource.open(inputFile)) {
+            int rate = source.header().sampleRate();
+            long fromSample = Math.round(startSeconds * rate);
+            if (fromSample >= source.totalSamples()) {
+                throw new IllegalArgumentException(String.format(Locale.ROOT,
+                        "Start %.3f s is past the end of the track (%.3f s).",
+                        startSeconds, (double) source.totalSamples() / rate));
+            }
+            return writeWavRange(source, fromSample, Math.round(Math.min(endSeconds, Long.MAX_VALUE / rate) * rate),
+                    outputFile);
+        }
+    }
 
-                AudioFormat format = new AudioFormat(
-                        sampleRate,
-                        bitsPerSample,
-                        channels,
-                        true,
-                        false
-                );
+    /**
+     * Writes sample frames [fromSample, toSample) of {@code source} as a WAV file.
+     * Only that range is decoded: the source seeks to the start (v5 reads the one
+     * block holding it, v4 inflates and discards up to it) and reading stops at the
+     * end. Returns the source header with {@code totalSamples} set to the frames
+     * written.
+     */
+    static AsphFormat.Header writeWavRange(PcmSource source, long fromSample, long toSample, String outputFile)
+            throws IOException {
+        long total = source.totalSamples();
+        if (fromSample < 0 || fromSample >= total || toSample <= fromSample) {
+            throw new IllegalArgumentException("Range [" + fromSample + ", " + toSample
+                    + ") is empty or starts outside the track (" + total + " samples).");
+        }
+        long frames = Math.min(toSample, total) - fromSample;
+        source.seek(fromSample);
+        writeWav(source, frames, outputFile);
+        return source.header().withTotals(frames, 0);
+    }
 
-                try (var audioStream = new AudioInputStream(
-                        new ByteArrayInputStream(audioData),
-                        format,
-                        audioData.length / format.getFrameSize()
-                )) {
-                    AudioSystem.write(audioStream, AudioFileFormat.Type.WAVE, new File(outputFile));
+    /**
+     * Writes the next {@code frames} frames of {@code source} (fewer if the track ends
+     * first, which is an error) as a WAV file through a FileChannel: the
+     * 44-byte RIFF header from the ASPH format fields, then the PCM in
+     * {@link #WAV_WRITE_BYTES} writes (timed as the OUTPUT stage). 8-bit samples are
+     * stored unsigned in WAV, so they are flipped on the way; everything else is
+     * already little-endian signed PCM. The output is byte-identical to what Java
+     * Sound wrote for the same data.
+     */
+    private static void writeWav(PcmSource source, long frames, String outputFile) throws IOException {
+        AsphFormat.Header header = source.header();
+        int frameSize = header.frameSize();
+        long dataBytes = Math.min(frames, source.totalSamples() - source.position()) * frameSize;
+        boolean unsigned8 = header.bitsPerSample() == 8;
+        byte[] buffer = new byte[Math.max(1, WAV_WRITE_BYTES / frameSize) * frameSize];
+        ByteBuffer data = ByteBuffer.wrap(buffer);
+
+        try (FileChannel out = FileChannel.open(Path.of(outputFile), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            byte[] wavHeader = WavFile.header(header.audioFormat(), dataBytes);
+            AsphFormat.writeFully(out, 0, ByteBuffer.wrap(wavHeader));
+            long position = wavHeader.length;
+
+            int n;
+            long remaining = dataBytes;
+            while (remaining > 0 && (n = source.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                remaining -= n;
+                if (unsigned8) {
+                    for (int k = 0; k < n; k++) {
+                        buffer[k] ^= (byte) 0x80;
+                    }
                 }
-
-                System.out.println("[AudioSphere] Successfully decoded " + inputFile + " to " + outputFile);
+                StageEvent timer = StageEvent.begin(PipelineStats.Stage.OUTPUT);
+                AsphFormat.writeFully(out, position, data.clear().limit(n));
+                timer.end(n);
+                position += n;
+            }
+            if (position - wavHeader.length != dataBytes) {
+                throw new AsphCorruptDataException("Audio data ended after " + (position - wavHeader.length)
+                        + " of " + dataBytes + " bytes.");
             }
-        } catch (Exception ex) {
-            System.out.println("[AudioSphere] Error decoding file: " + ex.getMessage());
-            ex.printStackTrace();
         }
     }
 
     // --------- WAV/PCM conversion helpers ---------
 
-    private record EncodedPcmResult(byte[] pcmBytes, float sampleRate, int bitsPerSample, int channels) {}
+    record ConvertedPcmStream(InputStream stream, float sampleRate, int bitsPerSample, int channels)
+            implements Closeable {
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
 
     /**
-     * Read a WAV file and convert it to PCM_SIGNED little-endian with format
-     * mirroring the source (clamped to supported max values).
+     * Open a WAV file as a PCM_SIGNED little-endian stream with format
+     * mirroring the source (clamped to supported max values). Rates outside
+     * the range are converted with {@code options.resampleQuality()}.
+     *
+     * The file is parsed and mapped by {@link WavFile}; only non-linear encodings
+     * (A-law, u-law, ADPCM) go through Java Sound to be decoded.
      *
      * Input MUST be a WAV file.
      */
-    private static EncodedPcmResult readAndConvertWavToPcmMirroringInput(String inputFile) throws Exception {
-        File inFile = new File(inputFile);
-
-        try (AudioInputStream originalStream = AudioSystem.getAudioInputStream(inFile)) {
-            AudioFileFormat.Type fileType = AudioSystem.getAudioFileFormat(inFile).getType();
-            if (!AudioFileFormat.Type.WAVE.equals(fileType)) {
-                throw new IOException("Input must be a WAV file. Detected type: " + fileType);
+    static ConvertedPcmStream openWavAsPcmMirroringInput(String inputFile, EncodeOptions options)
+            throws Exception {
+        WavFile wav = WavFile.open(Path.of(inputFile));
+        InputStream source = null;
+        try {
+            AudioFormat base;
+            if (wav.isLinearPcm()) {
+                base = wav.audioFormat();
+                source = PipelineStats.timed(wav.openData(), PipelineStats.Stage.INGEST);
+            } else {
+                wav.close();
+                AudioInputStream decoded = AudioSystem.getAudioInputStream(AudioFormat.Encoding.PCM_SIGNED,
+                        AudioSystem.getAudioInputStream(new File(inputFile)));
+                base = decoded.getFormat();
+                source = PipelineStats.timed(decoded, PipelineStats.Stage.INGEST);
             }
 
-            AudioFormat base = originalStream.getFormat();
-
             float srcRate = base.getSampleRate();
             int srcBits = base.getSampleSizeInBits();
             int srcChannels = base.getChannels();
 
             if (srcRate <= 0) {
-                throw new IOException("Unsupported WAV: invalid sample rate " + srcRate);
+                throw new AsphFormatException("Unsupported WAV: invalid sample rate " + srcRate);
             }
             if (srcChannels <= 0) {
-                throw new IOException("Unsupported WAV: invalid channel count " + srcChannels);
+                throw new AsphFormatException("Unsupported WAV: invalid channel count " + srcChannels);
             }
 
             // Some WAVs may report -1 or 0 for bits; handle that
@@ -260,25 +501,55 @@ public final class AudioSphereEncoder {
 
             int targetChannels = clamp(srcChannels, MIN_CHANNELS, MAX_CHANNELS);
 
-            int frameSize = targetChannels * (targetBits / 8);
-
-            AudioFormat targetFormat = new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED,
-                    targetRate,
-                    targetBits,
-                    targetChannels,
-                    frameSize,
-                    targetRate,
-                    false // little endian
-            );
+            // rate, channel and bit-depth clamping run through Resampler and PcmDsp (mixdown, dither)
+            InputStream converted = ConvertingPcmStream.open(source, base, Math.round(targetRate),
+                    targetBits, targetChannels, options.resampleQuality(), options.threads());
+            return new ConvertedPcmStream(converted, targetRate, targetBits, targetChannels);
+        } catch (Exception ex) {
+            if (source != null) {
+                source.close();
+            }
+            wav.close();
+            throw ex;
+        }
+    }
 
-            AudioInputStream convertedStream = AudioSystem.getAudioInputStream(targetFormat, originalStream);
+    /**
+     * Rough peak working memory of encoding {@code inputFile} with {@code options},
+     * from the WAV header: the blocks in flight (each held as PCM, compressed and
+     * encrypted) plus the resampler when the rate has to be converted.
+     */
+    static long encodeWorkingSetBytes(Path inputFile, EncodeOptions options) throws IOException {
+        try (WavFile wav = WavFile.open(inputFile)) {
+            AudioFormat base = wav.audioFormat();
+            int srcRate = Math.round(base.getSampleRate());
+            int targetRate = Math.round(clamp(base.getSampleRate(), MIN_SAMPLE_RATE, MAX_SAMPLE_RATE));
+            // non-linear encodings are decoded to 16-bit by Java Sound
+            int srcBits = wav.isLinearPcm() ? base.getSampleSizeInBits() : 16;
+            int targetBits = (clamp(srcBits, MIN_BITS_PER_SAMPLE, MAX_BITS_PER_SAMPLE) + 4) / 8 * 8;
+            int targetChannels = clamp(base.getChannels(), MIN_CHANNELS, MAX_CHANNELS);
+
+            long blockBytes = (long) AsphFormat.DEFAULT_SAMPLES_PER_BLOCK * targetChannels * (targetBits / 8);
+            long inFlight = options.threads() > 1 ? options.threads() * 2L : 1; // see writeBlocksParallel
+            long bytes = inFlight * 3 * blockBytes;
+            if (srcRate > 0 && srcRate != targetRate) {
+                bytes += Resampler.workingSetBytes(targetChannels, srcRate, targetRate, options.resampleQuality());
+            }
+            return bytes;
+        }
+    }
 
-            try (convertedStream; var baos = new ByteArrayOutputStream()) {
-                convertedStream.transferTo(baos);
-                byte[] pcm = baos.toByteArray();
-                return new EncodedPcmResult(pcm, targetRate, targetBits, targetChannels);
+    /**
+     * Rough peak working memory of decoding {@code inputFile}, from its header: a v5
+     * block plus the codec's compressed and encrypted scratch. v4 files stream
+     * through fixed-size cipher and GZip buffers and add nothing.
+     */
+    static long decodeWorkingSetBytes(Path inputFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+            if (AsphFormat.probeVersion(channel) != AsphFormat.VERSION_5) {
+                return 0;
             }
+            return 3L * AsphFormat.readV5Header(channel).blockBytes();
         }
     }
 
@@ -2,141 +2,86 @@ package dev.thedomcraft.audiosphere;
 
 import javax.sound.sampled.*;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 public final class AudioSpherePlayer {
 
     private AudioSpherePlayer() {}
 
-    public static void playAudioSphere(String inputFile, boolean loop) {
-        try {
-            Map<String, String> metadata = MetadataHandler.readMetadata(inputFile);
-            byte[] combined = AudioSphereEncoder.decryptAndDecompress(inputFile);
-
-            int offset = 0;
-            byte[] magic = Arrays.copyOfRange(combined, offset, offset + 4);
-            offset += 4;
-            if (!Arrays.equals(magic, "ASPH".getBytes())) {
-                throw new IOException("Invalid ASPH data.");
-            }
-
-            int version = combined[offset] & 0xFF;
-            offset += 1;
+    // read-ahead ring: 64 x 4 KB, roughly 1.5 s of 44.1 kHz 16-bit stereo
+    static final int CHUNK_BYTES = 4096;
+    static final int CHUNK_COUNT = 64;
 
-            int sampleRate = littleEndianToInt(combined, offset);
-            int bitsPerSample = littleEndianToInt(combined, offset + 4);
-            int channels = littleEndianToInt(combined, offset + 8);
-            offset += 12;
+    private static final long UI_REFRESH_MILLIS = 250;
 
-            byte[] audioData = Arrays.copyOfRange(combined, offset, combined.length);
-
-            AudioFormat format = new AudioFormat(
-                    sampleRate,
-                    bitsPerSample,
-                    channels,
-                    true,
-                    false
-            );
-
-            int frameSize = format.getFrameSize();
-            float bytesPerSecond = format.getFrameRate() * frameSize;
-
-            String title = metadata.getOrDefault("Title", inputFile);
-            String artist = metadata.getOrDefault("Artist", "Unknown");
-            String album = metadata.getOrDefault("Album", "Unknown");
+    public static void playAudioSphere(String inputFile, boolean loop) {
+        playAudioSphere(List.of(inputFile), loop);
+    }
 
-            System.out.println("[AudioSphere] Now Playing: " + title);
-            System.out.println("[AudioSphere] Artist: " + artist);
-            System.out.println("[AudioSphere] Album: " + album);
-            System.out.println("[AudioSphere] Format: " + sampleRate + " Hz, " + bitsPerSample + "-bit, " + channels + " ch, ASPH v" + version);
+    /**
+     * Plays the files (.asph, or .m3u/.m3u8 playlists of them) back to back without
+     * gaps; the next track is opened and pre-decoded while the current one plays.
+     * With {@code loop} the whole list repeats.
+     */
+    public static void playAudioSphere(List<String> inputFiles, boolean loop) {
+        List<String> files = new ArrayList<>();
+        try {
+            for (String input : inputFiles) {
+                if (PlaybackQueue.isPlaylist(input)) {
+                    files.addAll(PlaybackQueue.readPlaylist(Path.of(input)));
+                } else {
+                    files.add(input);
+                }
+            }
+        } catch (Exception ex) {
+            System.out.println("[AudioSphere] Error reading playlist: " + ex.getMessage());
+            return;
+        }
+        if (files.isEmpty()) {
+            System.out.println("[AudioSphere] Error: Nothing to play.");
+            return;
+        }
 
-            AtomicBoolean stopPlayback = new AtomicBoolean(false);
-            AtomicBoolean paused = new AtomicBoolean(false);
-            AtomicReference<Float> volumeRef = new AtomicReference<>(1.0f);
-            AtomicReference<Integer> positionRef = new AtomicReference<>(0); // byte index in audioData
+        try (PlaybackQueue queue = new PlaybackQueue(files, loop)) {
+            PlaybackRenderer renderer = new PlaybackRenderer(queue);
+            Thread render = renderer.start();
 
             // Key listener on another thread
-            Thread keyThread = new Thread(() ->
-                    keyListener(loop, paused, stopPlayback, volumeRef, positionRef, bytesPerSecond, audioData.length)
-            );
+            Thread keyThread = new Thread(() -> keyListener(renderer));
             keyThread.setDaemon(true);
             keyThread.start();
 
-            long totalMillis = Math.round((audioData.length / bytesPerSecond) * 1000);
-            long startTime = System.currentTimeMillis();
-
-            while (!stopPlayback.get()) {
-                int startPos = positionRef.get();
-                if (startPos < 0) startPos = 0;
-                if (startPos >= audioData.length) {
-                    if (loop) {
-                        startPos = 0;
-                    } else {
-                        break;
+            // The calling thread is the UI: it only samples the renderer's counters
+            // a few times a second, so console I/O never sits between two line writes.
+            PlaybackQueue.Track shown = null;
+            do {
+                for (PlaybackQueue.Track track; (track = renderer.pollStarted()) != null; ) {
+                    if (shown != null) {
+                        System.out.println();
                     }
+                    printNowPlaying(track, queue.size());
+                    shown = track;
                 }
-
-                positionRef.set(startPos);
-
-                try (SourceDataLine line = (SourceDataLine) AudioSystem.getLine(
-                        new DataLine.Info(SourceDataLine.class, format))) {
-                    line.open(format);
-                    line.start();
-                    line.flush();
-                    FloatControl volumeControl = null;
-                    if (line.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
-                        volumeControl = (FloatControl) line.getControl(FloatControl.Type.MASTER_GAIN);
-                    }
-
-                    byte[] buffer = new byte[4096];
-                    while (!stopPlayback.get()) {
-                        if (paused.get()) {
-                            // Sleep briefly while paused
-                            Thread.sleep(50);
-                            continue;
-                        }
-
-                        int pos = positionRef.get();
-                        if (pos >= audioData.length) {
-                            if (loop) {
-                                positionRef.set(0);
-                                startTime = System.currentTimeMillis();
-                                continue;
-                            } else {
-                                break;
-                            }
-                        }
-
-                        int remaining = audioData.length - pos;
-                        int toCopy = Math.min(buffer.length, remaining);
-                        System.arraycopy(audioData, pos, buffer, 0, toCopy);
-                        int written = line.write(buffer, 0, toCopy);
-                        positionRef.set(pos + written);
-
-                        // Volume
-                        if (volumeControl != null) {
-                            float requested = volumeRef.get();
-                            requested = Math.max(0.0f, Math.min(1.0f, requested));
-                            float min = volumeControl.getMinimum();
-                            float max = volumeControl.getMaximum();
-                            float dB = min + (max - min) * requested;
-                            volumeControl.setValue(dB);
-                        }
-
-                        // Progress display
-                        long now = System.currentTimeMillis();
-                        long elapsedMillis = now - startTime;
-                        long remainingMillis = Math.max(0, totalMillis - elapsedMillis);
-                        printProgress(positionRef.get(), audioData.length, elapsedMillis, remainingMillis, loop);
-                    }
-                    line.drain();
+                if (shown != null) {
+                    printProgress(renderer, shown, loop);
                 }
-            }
+                render.join(UI_REFRESH_MILLIS);
+            } while (render.isAlive());
 
+            if (renderer.error() != null) {
+                System.out.println();
+                throw renderer.error();
+            }
+            if (shown != null) {
+                printProgress(renderer, shown, loop);
+            }
             System.out.println("\n[AudioSphere] Playback ended.");
+            if (renderer.underruns() > 0) {
+                System.out.println("[AudioSphere] Underruns: " + renderer.underruns());
+            }
 
         } catch (Exception ex) {
             System.out.println("[AudioSphere] Error playing file: " + ex.getMessage());
@@ -144,55 +89,63 @@ public final class AudioSpherePlayer {
         }
     }
 
+    private static void printNowPlaying(PlaybackQueue.Track track, int trackCount) {
+        Map<String, String> metadata = track.metadata();
+        AsphFormat.Header header = track.source().header();
+
+        String title = metadata.getOrDefault("Title", track.path());
+        String artist = metadata.getOrDefault("Artist", "Unknown");
+        String album = metadata.getOrDefault("Album", "Unknown");
+
+        System.out.println("[AudioSphere] Now Playing: " + title
+                + (trackCount > 1 ? " (" + (track.index() + 1) + "/" + trackCount + ")" : ""));
+        System.out.println("[AudioSphere] Artist: " + artist);
+        System.out.println("[AudioSphere] Album: " + album);
+        System.out.println("[AudioSphere] Format: " + header.sampleRate() + " Hz, " + header.bitsPerSample() + "-bit, "
+                + header.channels() + " ch, ASPH v" + header.version());
+    }
+
     // ---------- controls & helpers ----------
 
-    private static void keyListener(
-            boolean loop,
-            AtomicBoolean paused,
-            AtomicBoolean stopPlayback,
-            AtomicReference<Float> volumeRef,
-            AtomicReference<Integer> positionRef,
-            float bytesPerSecond,
-            int totalBytes
-    ) {
+    private static void keyListener(PlaybackRenderer renderer) {
         try {
-            while (!stopPlayback.get()) {
+            while (true) {
                 int ch = System.in.read();
                 if (ch == -1) break;
                 char c = (char) ch;
+                PlaybackQueue.Track track = renderer.track();
+                float bytesPerSecond = track == null ? 0 : track.bytesPerSecond();
                 switch (c) {
                     case 'p', 'P' -> {
-                        boolean newState = !paused.get();
-                        paused.set(newState);
+                        boolean newState = renderer.togglePause();
                         System.out.println(newState ? "\n[AudioSphere] Paused" : "\n[AudioSphere] Resumed");
                     }
                     case '+', '=' -> {
-                        float v = volumeRef.get();
-                        v = Math.min(1.0f, v + 0.1f);
-                        volumeRef.set(v);
+                        float v = renderer.adjustVolume(0.1f);
                         System.out.printf("%n[AudioSphere] Volume: %.0f%%%n", v * 100);
                     }
                     case '-' -> {
-                        float v = volumeRef.get();
-                        v = Math.max(0.0f, v - 0.1f);
-                        volumeRef.set(v);
+                        float v = renderer.adjustVolume(-0.1f);
                         System.out.printf("%n[AudioSphere] Volume: %.0f%%%n", v * 100);
                     }
                     case 'f', 'F' -> {
-                        int delta = (int) (bytesPerSecond * 10); // 10s
-                        int newPos = Math.min(totalBytes, positionRef.get() + delta);
-                        positionRef.set(newPos);
+                        long delta = (long) (bytesPerSecond * 10); // 10s
+                        renderer.seek(renderer.seekBase() + delta);
                         System.out.println("\n[AudioSphere] Seek forward 10s");
                     }
                     case 'b', 'B' -> {
-                        int delta = (int) (bytesPerSecond * 10);
-                        int newPos = Math.max(0, positionRef.get() - delta);
-                        positionRef.set(newPos);
+                        long delta = (long) (bytesPerSecond * 10);
+                        renderer.seek(renderer.seekBase() - delta);
                         System.out.println("\n[AudioSphere] Seek backward 10s");
                     }
+                    case 'n', 'N' -> {
+                        renderer.skip();
+                        System.out.println("\n[AudioSphere] Next track");
+                    }
                     case 'q', 'Q' -> {
-                        stopPlayback.set(true);
+                        renderer.stop();
                         System.out.println("\n[AudioSphere] Stopping playback.");
+                        return;
                     }
                     default -> {
                         // ignore
@@ -203,7 +156,14 @@ public final class AudioSpherePlayer {
         }
     }
 
-    private static void printProgress(int position, int totalBytes, long elapsedMillis, long remainingMillis, boolean loop) {
+    private static void printProgress(PlaybackRenderer renderer, PlaybackQueue.Track track, boolean loop) {
+        float bytesPerSecond = track.bytesPerSecond();
+        long totalBytes = track.totalBytes();
+        long totalMillis = Math.round((totalBytes / bytesPerSecond) * 1000);
+        long position = Math.min(renderer.position(), totalBytes);
+        long elapsedMillis = Math.round(position / bytesPerSecond * 1000);
+        long remainingMillis = Math.max(0, totalMillis - elapsedMillis);
+
         int totalBlocks = 50;
         double progress = (double) position / Math.max(1, totalBytes);
         int filled = (int) (progress * totalBlocks);
@@ -214,12 +174,14 @@ public final class AudioSpherePlayer {
                 "]";
         String elapsedStr = formatTime(elapsedMillis);
         String remainingStr = formatTime(remainingMillis);
+        long underruns = renderer.underruns();
 
-        System.out.print("\r" + bar + String.format(" %3.0f%% | Elapsed: %s | Remaining: %s | Loop: %s",
+        System.out.print("\r" + bar + String.format(" %3.0f%% | Elapsed: %s | Remaining: %s | Loop: %s%s",
                 progress * 100,
                 elapsedStr,
                 remainingStr,
-                loop ? "On" : "Off"
+                loop ? "On" : "Off",
+                underruns > 0 ? " | Underruns: " + underruns : ""
         ));
         System.out.flush();
     }
@@ -230,11 +192,4 @@ public final class AudioSpherePlayer {
         long s = sec % 60;
         return "%02d:%02d".formatted(m, s);
     }
-
-    private static int littleEndianToInt(byte[] data, int offset) {
-        return (data[offset] & 0xFF)
-                | ((data[offset + 1] & 0xFF) << 8)
-                | ((data[offset + 2] & 0xFF) << 16)
-                | ((data[offset + 3] & 0xFF) << 24);
-    }
 }
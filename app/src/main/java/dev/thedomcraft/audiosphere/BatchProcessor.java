@@ -0,0 +1,219 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Directory-level encode/decode, so a whole library converts in one JVM.
+ *
+ * Files run on a work-stealing pool, largest first. Before starting, every job
+ * reserves its estimated working memory from a shared budget. Jobs stream, so
+ * the estimate does not grow with the track length; it comes from the file's
+ * header and the options (block size, blocks in flight per encode thread,
+ * resampler filter), and a small budget makes wide or resampled files queue
+ * behind each other instead of running the heap out together.
+ * Outputs at least as new as their input are skipped, and results are written
+ * to a temporary file and moved into place so an interrupted run never leaves a
+ * partial output that looks up to date.
+ */
+public final class BatchProcessor {
+
+    private BatchProcessor() {}
+
+    private static final long MIB = 1024 * 1024;
+
+    // part of every job the header does not tell: cipher, inflater/deflater and I/O buffers
+    private static final long JOB_OVERHEAD_BYTES = 8 * MIB;
+
+    /**
+     * @param jobs         files converted concurrently
+     * @param memoryBudget bytes all in-flight jobs may reserve together
+     */
+    public record BatchOptions(int jobs, long memoryBudget) {
+
+        public BatchOptions {
+            if (jobs < 1) {
+                throw new IllegalArgumentException("jobs must be >= 1, got " + jobs);
+            }
+            if (memoryBudget < MIB) {
+                throw new IllegalArgumentException("memory budget must be at least 1 MB");
+            }
+        }
+
+        public static BatchOptions defaults() {
+            return new BatchOptions(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 2);
+        }
+
+        public BatchOptions withJobs(int jobs) {
+            return new BatchOptions(jobs, memoryBudget);
+        }
+
+        public BatchOptions withMemoryBudget(long memoryBudget) {
+            return new BatchOptions(jobs, memoryBudget);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Converter {
+        void convert(Path input, Path output) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface MemoryEstimate {
+        long bytes(Path input) throws IOException;
+    }
+
+    /**
+     * Encode every .wav below inputDir into outputDir, mirroring the tree.
+     */
+    public static void encodeDirectory(String inputDir, String outputDir, EncodeOptions options, BatchOptions batch) {
+        run(Path.of(inputDir), Path.of(outputDir), ".wav", ".asph", "Encoded",
+                (in, out) -> AudioSphereEncoder.encodeFile(in.toString(), out.toString(), options),
+                in -> JOB_OVERHEAD_BYTES + AudioSphereEncoder.encodeWorkingSetBytes(in, options),
+                batch);
+    }
+
+    /**
+     * Decode every .asph below inputDir into WAV files in outputDir, mirroring the tree.
+     */
+    public static void decodeDirectory(String inputDir, String outputDir, BatchOptions batch) {
+        run(Path.of(inputDir), Path.of(outputDir), ".asph", ".wav", "Decoded",
+                (in, out) -> AudioSphereEncoder.decodeFile(in.toString(), out.toString()),
+                in -> JOB_OVERHEAD_BYTES + AudioSphereEncoder.decodeWorkingSetBytes(in),
+                batch);
+    }
+
+    private record Job(Path input, Path output, long size) {}
+
+    private static void run(Path inRoot, Path outRoot, String inExt, String outExt, String verb,
+                            Converter converter, MemoryEstimate estimate, BatchOptions batch) {
+        long started = System.nanoTime();
+        List<Job> jobs;
+        try {
+            jobs = collectJobs(inRoot, outRoot, inExt, outExt);
+        } catch (IOException ex) {
+            System.out.println("[AudioSphere] Error scanning " + inRoot + ": " + ex.getMessage());
+            return;
+        }
+
+        // permits are KiB so large budgets fit in an int
+        int budgetKiB = (int) Math.min(Integer.MAX_VALUE, batch.memoryBudget() / 1024);
+        Semaphore budget = new Semaphore(budgetKiB, true);
+        AtomicInteger converted = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong bytesIn = new AtomicLong();
+        AtomicInteger done = new AtomicInteger();
+        int total = jobs.size();
+
+        System.out.printf("[AudioSphere] %d file(s) found, %d job(s), memory budget %,d MB%n",
+                total, batch.jobs(), batch.memoryBudget() / MIB);
+
+        try (ForkJoinPool pool = new ForkJoinPool(batch.jobs())) {
+            List<Future<?>> futures = new ArrayList<>(total);
+            for (Job job : jobs) {
+                futures.add(pool.submit(() -> {
+                    String name = inRoot.relativize(job.input()).toString();
+                    try {
+                        if (isUpToDate(job.input(), job.output())) {
+                            skipped.incrementAndGet();
+                            done.incrementAndGet();
+                            return;
+                        }
+
+                        // a single file bigger than the whole budget still runs, just alone
+                        int permits = (int) Math.max(1, Math.min(budgetKiB, estimate.bytes(job.input()) / 1024));
+                        budget.acquire(permits);
+                        try {
+                            convertAtomically(converter, job);
+                        } finally {
+                            budget.release(permits);
+                        }
+
+                        converted.incrementAndGet();
+                        bytesIn.addAndGet(job.size());
+                        System.out.printf("[AudioSphere] [%d/%d] %s %s (%.1f MB)%n",
+                                done.incrementAndGet(), total, verb, name, job.size() / (double) MIB);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception ex) {
+                        failed.incrementAndGet();
+                        System.out.printf("[AudioSphere] [%d/%d] Failed %s: %s%n",
+                                done.incrementAndGet(), total, name, ex.getMessage());
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) { // an Error such as OutOfMemoryError; exceptions are counted by the job
+                    failed.incrementAndGet();
+                    System.out.printf("[AudioSphere] [%d/%d] Failed %s: %s%n", done.incrementAndGet(), total,
+                            inRoot.relativize(jobs.get(i).input()), ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        System.out.println("[AudioSphere] Batch summary:");
+        System.out.printf("[AudioSphere] - %s: %d, Skipped (up to date): %d, Failed: %d%n",
+                verb, converted.get(), skipped.get(), failed.get());
+        System.out.printf(Locale.ROOT, "[AudioSphere] - Input: %.1f MB in %.2f s%n", bytesIn.get() / (double) MIB, seconds);
+        System.out.printf(Locale.ROOT, "[AudioSphere] - Throughput: %.1f files/s, %.1f MB/s%n",
+                converted.get() / seconds, bytesIn.get() / (double) MIB / seconds);
+    }
+
+    /**
+     * All files below inRoot with the given extension, largest first so the long
+     * jobs start early and the pool drains evenly.
+     */
+    private static List<Job> collectJobs(Path inRoot, Path outRoot, String inExt, String outExt) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(inRoot)) {
+            for (Path input : (Iterable<Path>) files::iterator) {
+                String name = input.getFileName().toString();
+                if (!Files.isRegularFile(input) || !name.toLowerCase(Locale.ROOT).endsWith(inExt)) {
+                    continue;
+                }
+                Path relative = inRoot.relativize(input);
+                String outName = name.substring(0, name.length() - inExt.length()) + outExt;
+                Path output = outRoot.resolve(relative).resolveSibling(outName);
+                jobs.add(new Job(input, output, Files.size(input)));
+            }
+        }
+        jobs.sort(Comparator.comparingLong(Job::size).reversed());
+        return jobs;
+    }
+
+    private static boolean isUpToDate(Path input, Path output) throws IOException {
+        return Files.exists(output)
+                && Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(input)) >= 0;
+    }
+
+    private static void convertAtomically(Converter converter, Job job) throws Exception {
+        Path parent = job.output().toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, ".asph-", ".part");
+        try {
+            converter.convert(job.input(), temp);
+            Files.move(temp, job.output(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-thread working state for compressing/encrypting and decrypting/inflating
+ * ASPH v5 blocks: ciphers, a Deflater, Inflater and CRC32 plus scratch arrays
+ * that only grow. After the first block of a given size, encoding and decoding
+ * a block allocate nothing beyond the cipher's IV setup.
+ *
+ * GZip framing is done by hand around the raw Deflater/Inflater instead of going
+ * through GZIP streams, which would allocate a new native zlib context per block.
+ * The bytes are the same as GZIPOutputStream writes.
+ *
+ * Blocks are encrypted with AES-CBC or, for {@link AsphFormat#CIPHER_GCM} files,
+ * AES-GCM with a random nonce per block drawn from this instance's SecureRandom.
+ * In files with {@link AsphFormat#FLAG_CONSTANT_RUNS}, runs of identical frames
+ * skip the codec and are stored as markers (see {@link ConstantRuns}).
+ *
+ * Not thread-safe. Each method call is self-contained, so one instance may serve
+ * any number of files as long as it is used by one thread at a time.
+ */
+final class BlockCodec implements AutoCloseable {
+
+    private static final ThreadLocal<BlockCodec> LOCAL = ThreadLocal.withInitial(BlockCodec::new);
+
+    // GZIPOutputStream's fixed header: magic, CM=deflate, no flags, no mtime, XFL=0, OS=unknown
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+    private static final int AES_BLOCK = 16;
+
+    /** Checksum argument for blocks whose CRC32C is not known. */
+    static final long NO_CHECKSUM = -1;
+
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+    private final Cipher gcmCipher;
+    private SecureRandom nonces; // created on the first GCM encode
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final CRC32C blockCrc = new CRC32C();
+    private final ByteBuffer lengthPrefix = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] overflowProbe = new byte[1];
+    private final byte[] nonce = new byte[Utilities.GCM_NONCE_SIZE];
+
+    private byte[] encrypted = new byte[0];
+    private ByteBuffer encryptedView = ByteBuffer.wrap(encrypted);
+    private byte[] plain = new byte[0];
+    private int[][] samples = new int[0][];
+    private byte[] literal = new byte[0];  // frames outside constant runs
+    private byte[] runMap = new byte[0];
+    private int[] runs = new int[0];
+
+    BlockCodec() {
+        try {
+            encryptCipher = Utilities.newBlockCipher();
+            decryptCipher = Utilities.newUnpaddedBlockCipher();
+            gcmCipher = Utilities.newGcmBlockCipher();
+        } catch (Exception ex) {
+            throw new IllegalStateException("AES not available: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * The calling thread's instance, for code that does not carry a session around.
+     */
+    static BlockCodec local() {
+        return LOCAL.get();
+    }
+
+    // --------- encoding ---------
+
+    /**
+     * Compress and encrypt one block. The ciphertext is left in {@link #encrypted()}
+     * and its length returned; it stays valid until the next call.
+     */
+    int encode(AsphFormat.Header header, byte[] pcm, int length, long blockIndex) throws AsphException {
+        StageEvent compressTimer = StageEvent.begin(PipelineStats.Stage.COMPRESS);
+        byte[] source = pcm;
+        int sourceLength = length;
+        int mapLength = 0;
+        if (header.hasConstantRuns()) {
+            int frameSize = header.frameSize();
+            if (runs.length < ConstantRuns.newRunArray(length / frameSize).length) {
+                runs = ConstantRuns.newRunArray(length / frameSize);
+            }
+            int mapCapacity = runs.length / 2 * ConstantRuns.entrySize(frameSize) + ConstantRuns.COUNT_SIZE;
+            if (runMap.length < mapCapacity) {
+                runMap = new byte[mapCapacity];
+            }
+            int count = ConstantRuns.find(pcm, length, frameSize, runs);
+            if (count > 0) {
+                ensureLiteral(length);
+                sourceLength = ConstantRuns.gatherLiterals(pcm, length, frameSize, runs, count, literal);
+                source = literal;
+            }
+            mapLength = ConstantRuns.writeMap(pcm, frameSize, runs, count, runMap);
+        }
+
+        byte[] compressed;
+        int compressedLength;
+        if (sourceLength == 0) {
+            compressed = plain; // the whole block is runs
+            compressedLength = 0;
+        } else if (header.codec() == AsphFormat.CODEC_LOSSLESS) {
+            compressed = LosslessCodec.encode(source, sourceLength, header.bitsPerSample(), header.channels());
+            compressedLength = compressed.length;
+        } else {
+            compressedLength = gzip(source, sourceLength);
+            compressed = plain;
+        }
+        compressTimer.end(length);
+
+        StageEvent encryptTimer = StageEvent.begin(PipelineStats.Stage.ENCRYPT);
+        int encryptedLength;
+        try {
+            if (header.cipher() == AsphFormat.CIPHER_GCM) {
+                ensureEncrypted(Utilities.GCM_NONCE_SIZE + compressedLength + mapLength + AES_BLOCK
+                        + Utilities.GCM_TAG_SIZE);
+                if (nonces == null) {
+                    nonces = new SecureRandom();
+                }
+                nonces.nextBytes(nonce);
+                System.arraycopy(nonce, 0, encrypted, 0, Utilities.GCM_NONCE_SIZE);
+                Utilities.initGcmBlockCipher(gcmCipher, Cipher.ENCRYPT_MODE, encrypted, 0, blockIndex);
+                int n = Utilities.GCM_NONCE_SIZE
+                        + gcmCipher.update(compressed, 0, compressedLength, encrypted, Utilities.GCM_NONCE_SIZE);
+                encryptedLength = n + gcmCipher.doFinal(runMap, 0, mapLength, encrypted, n);
+            } else {
+                ensureEncrypted(compressedLength + mapLength + AES_BLOCK);
+                Utilities.initBlockCipher(encryptCipher, Cipher.ENCRYPT_MODE, blockIndex);
+                int n = encryptCipher.update(compressed, 0, compressedLength, encrypted, 0);
+                encryptedLength = n + encryptCipher.doFinal(runMap, 0, mapLength, encrypted, n);
+            }
+        } catch (Exception ex) {
+            throw new AsphException("Failed to encrypt block " + blockIndex + ": " + ex.getMessage(), ex);
+        }
+        encryptTimer.end(compressedLength + mapLength);
+        return encryptedLength;
+    }
+
+    byte[] encrypted() {
+        return encrypted;
+    }
+
+    private int gzip(byte[] pcm, int length) {
+        ensurePlain(GZIP_HEADER.length + length + (length >>> 10) + 64);
+        System.arraycopy(GZIP_HEADER, 0, plain, 0, GZIP_HEADER.length);
+        int pos = GZIP_HEADER.length;
+
+        deflater.reset();
+        deflater.setInput(pcm, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (pos == plain.length - GZIP_TRAILER_SIZE) {
+                growPlain(pos);
+            }
+            pos += deflater.deflate(plain, pos, plain.length - GZIP_TRAILER_SIZE - pos);
+        }
+
+        crc.reset();
+        crc.update(pcm, 0, length);
+        putIntLE(plain, pos, (int) crc.getValue());
+        putIntLE(plain, pos + 4, length);
+        return pos + GZIP_TRAILER_SIZE;
+    }
+
+    // --------- decoding ---------
+
+    /**
+     * Read the block at {@code position}, then decrypt and decompress it into
+     * {@code pcm[0, expected)}. The block must end by {@code end}, the offset of the
+     * next block (or of the seek index) as far as the caller knows it. Returns the
+     * number of file bytes the block occupies (length prefix included), i.e. the
+     * distance to the next block.
+     */
+    int decode(FileChannel channel, long position, long end, AsphFormat.Header header, long blockIndex,
+               byte[] pcm, int expected) throws IOException {
+        return decode(channel, position, end, header, blockIndex, pcm, expected, NO_CHECKSUM);
+    }
+
+    /**
+     * As above, but first checks the stored block against {@code checksum}, its
+     * CRC32C from the seek index as an unsigned value ({@link #NO_CHECKSUM} to skip
+     * the check).
+     */
+    int decode(FileChannel channel, long position, long end, AsphFormat.Header header, long blockIndex,
+               byte[] pcm, int expected, long checksum) throws IOException {
+        int encryptedLength = read(channel, position, end, blockIndex, checksum);
+        decodeRead(header, encryptedLength, blockIndex, pcm, expected);
+        return 4 + encryptedLength;
+    }
+
+    /**
+     * As above for a block that is already in memory: {@code stored[0, length)} is
+     * the block as on disk, length prefix included.
+     */
+    void decode(byte[] stored, int length, AsphFormat.Header header, long blockIndex,
+                byte[] pcm, int expected, long checksum) throws AsphCorruptDataException {
+        int encryptedLength = length - 4;
+        if (length < 4 || getIntLE(stored, 0) != encryptedLength || encryptedLength <= 0) {
+            throw corrupt(blockIndex, "has a length prefix that does not match the seek index");
+        }
+        if (checksum != NO_CHECKSUM) {
+            blockCrc.reset();
+            checkCrc(stored, 0, length, checksum, blockIndex);
+        }
+        ensureEncrypted(encryptedLength);
+        System.arraycopy(stored, 4, encrypted, 0, encryptedLength);
+        decodeRead(header, encryptedLength, blockIndex, pcm, expected);
+    }
+
+    /**
+     * Decrypts and decompresses the ciphertext scratch into {@code pcm[0, expected)}.
+     */
+    private void decodeRead(AsphFormat.Header header, int encryptedLength, long blockIndex, byte[] pcm, int expected)
+            throws AsphCorruptDataException {
+        StageEvent decryptTimer = StageEvent.begin(PipelineStats.Stage.DECRYPT);
+        int compressedLength = header.cipher() == AsphFormat.CIPHER_GCM
+                ? decryptGcm(encryptedLength, blockIndex)
+                : decryptCbc(encryptedLength, blockIndex);
+        decryptTimer.end(encryptedLength);
+
+        StageEvent decompressTimer = StageEvent.begin(PipelineStats.Stage.DECOMPRESS);
+        if (header.hasConstantRuns()) {
+            int frameSize = header.frameSize();
+            int count = ConstantRuns.readCount(plain, compressedLength, blockIndex);
+            int mapStart = compressedLength - ConstantRuns.COUNT_SIZE - count * ConstantRuns.entrySize(frameSize);
+            if (mapStart < 0) {
+                throw corrupt(blockIndex, "has a corrupt run map");
+            }
+            if (count == 0) {
+                decompress(header, mapStart, pcm, expected, blockIndex);
+            } else {
+                int literalLength = ConstantRuns.literalLength(plain, mapStart, count, frameSize, expected, blockIndex);
+                if (literalLength > 0) {
+                    ensureLiteral(literalLength);
+                    decompress(header, mapStart, literal, literalLength, blockIndex);
+                } else if (mapStart != 0) {
+                    throw corrupt(blockIndex, "has data after its runs");
+                }
+                ConstantRuns.expand(plain, mapStart, count, frameSize, literal, pcm, expected);
+            }
+        } else {
+            decompress(header, compressedLength, pcm, expected, blockIndex);
+        }
+        decompressTimer.end(expected);
+    }
+
+    /**
+     * Decodes {@code plain[0, compressedLength)} with the file's codec into
+     * {@code out[0, expected)}.
+     */
+    private void decompress(AsphFormat.Header header, int compressedLength, byte[] out, int expected, long blockIndex)
+            throws AsphCorruptDataException {
+        if (header.codec() == AsphFormat.CODEC_LOSSLESS) {
+            int n = expected / header.frameSize();
+            ensureSamples(header.channels(), n);
+            try {
+                LosslessCodec.decode(plain, compressedLength, out, expected,
+                        header.bitsPerSample(), header.channels(), samples);
+            } catch (IOException ex) {
+                throw new AsphCorruptDataException("Block " + blockIndex + ": " + ex.getMessage(), blockIndex, ex);
+            }
+        } else {
+            gunzip(compressedLength, out, expected, blockIndex);
+        }
+    }
+
+    /**
+     * Reads the block at {@code position} into the ciphertext scratch and checks its
+     * length and (unless {@code checksum} is {@link #NO_CHECKSUM}) its CRC32C.
+     * A length prefix that runs past {@code end} is reported as corrupt before
+     * anything is allocated for it. Returns the ciphertext length; the block
+     * occupies 4 more bytes on disk.
+     */
+    int read(FileChannel channel, long position, long end, long blockIndex, long checksum) throws IOException {
+        StageEvent readTimer = StageEvent.begin(PipelineStats.Stage.READ);
+        lengthPrefix.clear();
+        readFully(channel, position, lengthPrefix, blockIndex);
+        int encryptedLength = lengthPrefix.getInt(0);
+        if (encryptedLength <= 0) {
+            throw new AsphCorruptDataException("Corrupt block length " + encryptedLength + " in block " + blockIndex + ".",
+                    blockIndex, null);
+        }
+        if (encryptedLength > end - position - 4) {
+            throw corrupt(blockIndex, "has a length prefix (" + encryptedLength + ") that runs past the next block");
+        }
+        ensureEncrypted(encryptedLength);
+        encryptedView.clear().limit(encryptedLength);
+        readFully(channel, position + 4, encryptedView, blockIndex);
+        readTimer.end(4 + encryptedLength);
+
+        if (checksum != NO_CHECKSUM) {
+            blockCrc.reset();
+            blockCrc.update(lengthPrefix.array(), 0, 4);
+            checkCrc(encrypted, 0, encryptedLength, checksum, blockIndex);
+        }
+        return encryptedLength;
+    }
+
+    /**
+     * Adds {@code b[off, off + len)} to the block CRC32C the caller has started and
+     * compares the result with {@code checksum}.
+     */
+    private void checkCrc(byte[] b, int off, int len, long checksum, long blockIndex)
+            throws AsphCorruptDataException {
+        blockCrc.update(b, off, len);
+        if (blockCrc.getValue() != checksum) {
+            throw corrupt(blockIndex, String.format("fails its CRC32C checksum (stored %08x, computed %08x)",
+                    (int) checksum, (int) blockCrc.getValue()));
+        }
+    }
+
+    /**
+     * Decrypts the CBC block in the ciphertext scratch into {@link #plain} and
+     * returns the compressed length (padding stripped).
+     */
+    private int decryptCbc(int encryptedLength, long blockIndex) throws AsphCorruptDataException {
+        if (encryptedLength % AES_BLOCK != 0) {
+            throw corrupt(blockIndex, "has a corrupt length (" + encryptedLength + ")");
+        }
+        ensurePlain(encryptedLength);
+        try {
+            Utilities.initBlockCipher(decryptCipher, Cipher.DECRYPT_MODE, blockIndex);
+            decryptCipher.doFinal(encrypted, 0, encryptedLength, plain, 0);
+        } catch (Exception ex) {
+            throw new AsphCorruptDataException("Failed to decrypt block " + blockIndex + ": " + ex.getMessage(),
+                    blockIndex, ex);
+        }
+        return encryptedLength - paddingLength(encryptedLength, blockIndex);
+    }
+
+    /**
+     * Checks the tag of the GCM block in the ciphertext scratch and decrypts it into
+     * {@link #plain}; returns the compressed length.
+     */
+    private int decryptGcm(int encryptedLength, long blockIndex) throws AsphCorruptDataException {
+        if (encryptedLength < Utilities.GCM_NONCE_SIZE + Utilities.GCM_TAG_SIZE) {
+            throw corrupt(blockIndex, "has a corrupt length (" + encryptedLength + ")");
+        }
+        ensurePlain(encryptedLength);
+        try {
+            Utilities.initGcmBlockCipher(gcmCipher, Cipher.DECRYPT_MODE, encrypted, 0, blockIndex);
+            return gcmCipher.doFinal(encrypted, Utilities.GCM_NONCE_SIZE, encryptedLength - Utilities.GCM_NONCE_SIZE,
+                    plain, 0);
+        } catch (AEADBadTagException ex) {
+            throw corrupt(blockIndex, "fails authentication (GCM tag mismatch)");
+        } catch (Exception ex) {
+            throw new AsphCorruptDataException("Failed to decrypt block " + blockIndex + ": " + ex.getMessage(),
+                    blockIndex, ex);
+        }
+    }
+
+    private void gunzip(int compressedLength, byte[] pcm, int expected, long blockIndex) throws AsphCorruptDataException {
+        int pos = skipGzipHeader(compressedLength, blockIndex);
+
+        inflater.reset();
+        inflater.setInput(plain, pos, compressedLength - pos);
+        int total = 0;
+        try {
+            while (!inflater.finished()) {
+                int n = total < expected
+                        ? inflater.inflate(pcm, total, expected - total)
+                        : inflater.inflate(overflowProbe);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                if (total == expected && n > 0) {
+                    throw corrupt(blockIndex, "inflates to more than " + expected + " bytes");
+                }
+                total += n;
+            }
+        } catch (DataFormatException ex) {
+            throw new AsphCorruptDataException("Block " + blockIndex + " does not inflate: " + ex.getMessage(),
+                    blockIndex, ex);
+        }
+        if (!inflater.finished() || total != expected) {
+            throw corrupt(blockIndex, "is truncated (" + total + " of " + expected + " bytes)");
+        }
+
+        int trailer = compressedLength - inflater.getRemaining();
+        if (trailer + GZIP_TRAILER_SIZE > compressedLength) {
+            throw corrupt(blockIndex, "has no GZip trailer");
+        }
+        crc.reset();
+        crc.update(pcm, 0, total);
+        if (getIntLE(plain, trailer) != (int) crc.getValue() || getIntLE(plain, trailer + 4) != total) {
+            throw corrupt(blockIndex, "fails its GZip checksum");
+        }
+    }
+
+    /**
+     * Checks the PKCS#5 padding the unpadded decrypt cipher leaves in place.
+     */
+    private int paddingLength(int length, long blockIndex) throws AsphCorruptDataException {
+        int padding = plain[length - 1] & 0xFF;
+        if (padding < 1 || padding > AES_BLOCK) {
+            throw corrupt(blockIndex, "fails to decrypt (bad padding)");
+        }
+        for (int i = length - padding; i < length - 1; i++) {
+            if ((plain[i] & 0xFF) != padding) {
+                throw corrupt(blockIndex, "fails to decrypt (bad padding)");
+            }
+        }
+        return padding;
+    }
+
+    private int skipGzipHeader(int length, long blockIndex) throws AsphCorruptDataException {
+        if (length < GZIP_HEADER.length + GZIP_TRAILER_SIZE
+                || plain[0] != GZIP_HEADER[0] || plain[1] != GZIP_HEADER[1] || plain[2] != GZIP_HEADER[2]) {
+            throw corrupt(blockIndex, "has no GZip header");
+        }
+        int flags = plain[3] & 0xFF;
+        int pos = GZIP_HEADER.length;
+        if ((flags & FEXTRA) != 0) {
+            pos += 2 + ((plain[pos] & 0xFF) | (plain[pos + 1] & 0xFF) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(pos, length);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(pos, length);
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        if (pos > length - GZIP_TRAILER_SIZE) {
+            throw corrupt(blockIndex, "has a malformed GZip header");
+        }
+        return pos;
+    }
+
+    private int skipZeroTerminated(int pos, int length) {
+        while (pos < length && plain[pos] != 0) {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    private static AsphCorruptDataException corrupt(long blockIndex, String what) {
+        return new AsphCorruptDataException("Block " + blockIndex + " " + what + ".", blockIndex, null);
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+
+    // --------- scratch management ---------
+
+    private void ensureEncrypted(int size) {
+        if (encrypted.length < size) {
+            encrypted = new byte[size];
+            encryptedView = ByteBuffer.wrap(encrypted);
+        }
+    }
+
+    private void ensureLiteral(int size) {
+        if (literal.length < size) {
+            literal = new byte[size];
+        }
+    }
+
+    private void ensurePlain(int size) {
+        if (plain.length < size) {
+            plain = new byte[size];
+        }
+    }
+
+    private void growPlain(int used) {
+        byte[] grown = new byte[plain.length * 2];
+        System.arraycopy(plain, 0, grown, 0, used);
+        plain = grown;
+    }
+
+    private void ensureSamples(int channels, int n) {
+        if (samples.length < channels || samples[0].length < n) {
+            samples = new int[channels][n];
+        }
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buf, long blockIndex) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new AsphCorruptDataException("Unexpected end of file in block " + blockIndex + ".", blockIndex, null);
+            }
+        }
+    }
+
+    private static void putIntLE(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    private static int getIntLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+}
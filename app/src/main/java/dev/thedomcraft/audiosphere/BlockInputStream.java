@@ -0,0 +1,183 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the PCM of an ASPH v5 file, decrypting and inflating one block at a
+ * time. Only the current block is held in memory, and the cipher, inflater and
+ * scratch buffers in the BlockCodec are reused from block to block.
+ *
+ * seek() uses the seek index to jump straight to the block holding the target
+ * sample, so nothing before it is read or decrypted.
+ *
+ * Streams opened with a {@link PcmCache.FileKey} read blocks through a
+ * {@link PcmCache} (the shared one unless a session brings its own); a cached
+ * block costs a copy instead of a read, decrypt and inflate.
+ *
+ * The seek index is loaded with the first decoded block. Each block is read only
+ * up to the offset of the next one, so a damaged length prefix is reported as
+ * corruption instead of sizing a buffer. When the file carries block checksums,
+ * every block is also checked against its CRC32C before it is decrypted, so
+ * damage is reported as a checksum failure in that block. Files without a seek
+ * index (an unfinished encode) can only be read from the start, block after block.
+ */
+final class BlockInputStream extends InputStream implements PcmSource {
+
+    private final FileChannel channel;
+    private final AsphFormat.Header header;
+    private final BlockCodec codec;
+    private final boolean ownsCodec;
+    private final byte[] block;
+    private final PcmCache cache;
+    private final PcmCache.FileKey fileKey; // null = no caching
+    private AsphFormat.SeekIndex seekIndex; // read with the first decoded block; stays null without a seek index
+
+    private long position = AsphFormat.V5_HEADER_SIZE; // file offset of block positionBlock, without a seek index
+    private long positionBlock;
+    private long blockIndex;
+    private int blockLength;
+    private int blockPos;
+
+    BlockInputStream(FileChannel channel, AsphFormat.Header header) {
+        this(channel, header, null);
+    }
+
+    /**
+     * Reads through the shared PcmCache when {@code fileKey} is non-null.
+     */
+    BlockInputStream(FileChannel channel, AsphFormat.Header header, PcmCache.FileKey fileKey) {
+        this(channel, header, new BlockCodec(), new byte[header.blockBytes()], true, PcmCache.shared(), fileKey);
+    }
+
+    /**
+     * Decodes through a borrowed codec and block buffer (at least one block long),
+     * e.g. the ones held by an {@link AsphCodec} session, and reads through
+     * {@code cache} when {@code fileKey} is non-null.
+     */
+    BlockInputStream(FileChannel channel, AsphFormat.Header header, BlockCodec codec, byte[] block,
+                     PcmCache cache, PcmCache.FileKey fileKey) {
+        this(channel, header, codec, block, false, cache, fileKey);
+    }
+
+    private BlockInputStream(FileChannel channel, AsphFormat.Header header, BlockCodec codec, byte[] block,
+                             boolean ownsCodec, PcmCache cache, PcmCache.FileKey fileKey) {
+        this.channel = channel;
+        this.header = header;
+        this.codec = codec;
+        this.block = block;
+        this.ownsCodec = ownsCodec;
+        this.cache = cache;
+        this.fileKey = fileKey;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBlock()) {
+            return -1;
+        }
+        return block[blockPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, blockLength - blockPos);
+        System.arraycopy(block, blockPos, b, off, n);
+        blockPos += n;
+        return n;
+    }
+
+    @Override
+    public void seek(long sample) throws IOException {
+        long target = Math.max(0, Math.min(sample, header.totalSamples()));
+        long block = target / header.samplesPerBlock();
+        if (block >= header.blockCount()) {
+            blockIndex = header.blockCount();
+            blockLength = 0;
+            blockPos = 0;
+            return;
+        }
+
+        blockIndex = block;
+        loadBlock();
+        blockPos = (int) (target - block * header.samplesPerBlock()) * header.frameSize();
+    }
+
+    @Override
+    public long position() {
+        long blockStart = (blockIndex - (blockLength > 0 ? 1 : 0)) * header.samplesPerBlock();
+        return Math.min(header.totalSamples(), blockStart + blockPos / header.frameSize());
+    }
+
+    @Override
+    public AsphFormat.Header header() {
+        return header;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (ownsCodec) {
+                codec.close();
+            }
+        }
+    }
+
+    private boolean ensureBlock() throws IOException {
+        while (blockPos >= blockLength) {
+            if (blockIndex >= header.blockCount()) {
+                return false;
+            }
+            loadBlock();
+        }
+        return true;
+    }
+
+    private void loadBlock() throws IOException {
+        long remainingSamples = header.totalSamples() - blockIndex * header.samplesPerBlock();
+        int expected = (int) Math.min(header.blockBytes(), remainingSamples * header.frameSize());
+
+        long index = blockIndex;
+        if (fileKey != null) {
+            cache.read(fileKey, index, block, expected, dst -> decodeBlock(index, dst, expected));
+        } else {
+            decodeBlock(index, block, expected);
+        }
+        blockLength = expected;
+        blockPos = 0;
+        blockIndex++;
+    }
+
+    private void decodeBlock(long index, byte[] dst, int expected) throws IOException {
+        if (seekIndex == null && header.indexOffset() != 0) {
+            seekIndex = AsphFormat.readSeekIndex(channel, header);
+        }
+        if (seekIndex == null) {
+            if (positionBlock != index) {
+                throw new AsphFormatException("File has no seek index.");
+            }
+            position += codec.decode(channel, position, channel.size(), header, index, dst, expected);
+            positionBlock = index + 1;
+            return;
+        }
+        long[] offsets = seekIndex.offsets();
+        int i = (int) index;
+        long end = i + 1 < offsets.length ? offsets[i + 1] : header.indexOffset();
+        int[] checksums = seekIndex.checksums();
+        long checksum = checksums != null ? Integer.toUnsignedLong(checksums[i]) : BlockCodec.NO_CHECKSUM;
+        codec.decode(channel, offsets[i], end, header, index, dst, expected, checksum);
+    }
+
+    static BlockInputStream open(FileChannel channel, PcmCache.FileKey fileKey) throws IOException {
+        return new BlockInputStream(channel, AsphFormat.readV5Header(channel), fileKey);
+    }
+}
@@ -0,0 +1,192 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes an ASPH v5 file block by block. Each PCM block is compressed (GZip or
+ * the lossless codec, per the header) and AES encrypted on its own and goes to
+ * disk before the next one is read, so memory use is bounded by the block size
+ * rather than the track length.
+ *
+ * encodeBlock() only depends on the PCM and the block index, so blocks can be
+ * encoded on any thread and handed to appendBlock() in order; the output is the
+ * same as a single-threaded run.
+ *
+ * The header is written up front with totalSamples = 0 and patched by finish(),
+ * which also appends the seek index. When the header has FLAG_BLOCK_CRC32C set,
+ * the CRC32C of each block as written is kept and stored with the index. An
+ * analysis chunk handed to finish() goes right after the index. The offsets and
+ * checksums are kept by a {@link Layout}.
+ */
+final class BlockWriter {
+
+    private final FileChannel channel;
+    private final AsphFormat.Header header;
+    private final BlockCodec codec;
+    private final ByteBuffer lengthPrefix = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private final Layout layout;
+
+    BlockWriter(FileChannel channel, AsphFormat.Header header) throws IOException {
+        this(channel, header, BlockCodec.local());
+    }
+
+    /**
+     * Writes through {@code codec}, which the single-threaded writeBlock() path uses
+     * for its compression and cipher state.
+     */
+    BlockWriter(FileChannel channel, AsphFormat.Header header, BlockCodec codec) throws IOException {
+        this.channel = channel;
+        this.header = header;
+        this.codec = codec;
+        this.layout = new Layout(header);
+
+        channel.truncate(0);
+        AsphFormat.writeV5Header(channel, header);
+    }
+
+    /**
+     * Compress, encrypt and append one block. {@code length} must be a whole number
+     * of sample frames and at most one block.
+     */
+    void writeBlock(byte[] pcm, int length) throws IOException {
+        checkLength(length);
+        int encryptedLength = codec.encode(header, pcm, length, layout.blockCount());
+        appendBlock(codec.encrypted(), encryptedLength, length / header.frameSize());
+    }
+
+    /**
+     * Compress and encrypt one block into a new array. Thread-safe; each thread
+     * uses its own BlockCodec.
+     */
+    static byte[] encodeBlock(AsphFormat.Header header, byte[] pcm, int length, long blockIndex) throws IOException {
+        BlockCodec codec = BlockCodec.local();
+        int encryptedLength = codec.encode(header, pcm, length, blockIndex);
+        return Arrays.copyOf(codec.encrypted(), encryptedLength);
+    }
+
+    /**
+     * Append a block produced by encodeBlock(). Blocks must arrive in index order.
+     */
+    void appendBlock(byte[] encrypted, int samples) throws IOException {
+        appendBlock(encrypted, encrypted.length, samples);
+    }
+
+    private void appendBlock(byte[] encrypted, int length, int samples) throws IOException {
+        StageEvent timer = StageEvent.begin(PipelineStats.Stage.WRITE);
+        lengthPrefix.clear();
+        lengthPrefix.putInt(length).flip();
+        long position = layout.add(lengthPrefix.array(), encrypted, 0, length, samples);
+        AsphFormat.writeFully(channel, position, lengthPrefix);
+        AsphFormat.writeFully(channel, position + 4, ByteBuffer.wrap(encrypted, 0, length));
+        timer.end(4 + length);
+    }
+
+    void checkLength(int length) {
+        if (length % header.frameSize() != 0 || length > header.blockBytes()) {
+            throw new IllegalArgumentException("Block length " + length + " is not a whole number of frames.");
+        }
+    }
+
+    /**
+     * Append the seek index and patch the final sample count and index offset
+     * into the header.
+     */
+    void finish() throws IOException {
+        finish(null);
+    }
+
+    /**
+     * As above, followed by {@code analysis} (a complete chunk from
+     * {@link AudioAnalysis.Builder#finish()}). Without one, FLAG_ANALYSIS is cleared.
+     */
+    void finish(ByteBuffer analysis) throws IOException {
+        StageEvent timer = StageEvent.begin(PipelineStats.Stage.WRITE);
+        AsphFormat.Header done = layout.finished(analysis != null);
+        AsphFormat.writeFully(channel, done.indexOffset(), layout.seekIndex());
+        if (analysis != null) {
+            AsphFormat.writeFully(channel, done.seekIndexEnd(), analysis);
+        }
+        AsphFormat.writeV5Header(channel, done);
+        timer.end(channel.size() - done.indexOffset() + AsphFormat.V5_HEADER_SIZE);
+    }
+
+    long totalSamples() {
+        return layout.totalSamples();
+    }
+
+    /**
+     * Where each block goes and what the index will say about it: the bookkeeping
+     * half of the writer, for callers that do their own (asynchronous) I/O. Blocks
+     * are laid out back to back after the header, in the order add() is called.
+     */
+    static final class Layout {
+        private final AsphFormat.Header header;
+        private final CRC32C crc = new CRC32C();
+
+        private long[] blockOffsets = new long[64];
+        private int[] blockChecksums; // null when the header has no FLAG_BLOCK_CRC32C
+        private int blockIndex;
+        private long totalSamples;
+        private long position = AsphFormat.V5_HEADER_SIZE;
+
+        Layout(AsphFormat.Header header) {
+            this.header = header;
+            this.blockChecksums = header.hasBlockChecksums() ? new int[blockOffsets.length] : null;
+        }
+
+        /**
+         * Records the next block, stored as the 4-byte length prefix at
+         * {@code prefix[0]} followed by {@code encrypted[offset, offset + length)},
+         * and returns the file offset it has to be written at.
+         */
+        long add(byte[] prefix, byte[] encrypted, int offset, int length, int samples) {
+            if (blockIndex == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+                if (blockChecksums != null) {
+                    blockChecksums = Arrays.copyOf(blockChecksums, blockOffsets.length);
+                }
+            }
+            long blockPosition = position;
+            blockOffsets[blockIndex] = blockPosition;
+            if (blockChecksums != null) {
+                crc.reset();
+                crc.update(prefix, 0, 4);
+                crc.update(encrypted, offset, length);
+                blockChecksums[blockIndex] = (int) crc.getValue();
+            }
+            position += 4 + length;
+            totalSamples += samples;
+            blockIndex++;
+            return blockPosition;
+        }
+
+        int blockCount() {
+            return blockIndex;
+        }
+
+        long totalSamples() {
+            return totalSamples;
+        }
+
+        /**
+         * The seek index of the blocks added so far; it goes right after the last one.
+         */
+        ByteBuffer seekIndex() {
+            return AsphFormat.seekIndexBytes(blockOffsets, blockChecksums, blockIndex);
+        }
+
+        /**
+         * The header to patch in once every block is written, with the totals and
+         * the index offset; FLAG_ANALYSIS is cleared when no chunk follows the index.
+         */
+        AsphFormat.Header finished(boolean withAnalysis) {
+            AsphFormat.Header done = header.withTotals(totalSamples, position);
+            return withAnalysis ? done : done.withFlags(header.flags() & ~AsphFormat.FLAG_ANALYSIS);
+        }
+    }
+}
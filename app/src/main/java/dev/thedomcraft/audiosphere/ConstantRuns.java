@@ -0,0 +1,202 @@
+package dev.thedomcraft.audiosphere;
+
+import java.util.Arrays;
+
+/**
+ * Runs of identical sample frames inside one ASPH v5 block (digital silence, or
+ * a constant DC value), for files with {@link AsphFormat#FLAG_CONSTANT_RUNS}.
+ *
+ * With the flag, a block's plaintext (what is encrypted) is
+ *
+ *   codec(literal frames) | run * R | uint16 LE R
+ *
+ * where a run is int32 LE first frame | int32 LE frame count | the repeated frame
+ * (frameSize bytes), in block order, and the literal frames are all frames not
+ * covered by a run, concatenated. The count sits at the end so the codec data
+ * still starts at offset 0. R = 0 is a block without runs; a block that is one
+ * run has no codec data at all.
+ *
+ * Only runs of at least MIN_RUN_FRAMES are marked: shorter ones compress well
+ * enough, and finding them would mean comparing every frame. Candidates are found
+ * by probing every PROBE_FRAMES-th frame (any run of MIN_RUN_FRAMES covers two
+ * neighbouring probes with equal frames) and are then extended frame by frame,
+ * so music without runs costs a few hundred comparisons per block.
+ */
+final class ConstantRuns {
+
+    private ConstantRuns() {}
+
+    static final int MIN_RUN_FRAMES = 256;
+    private static final int PROBE_FRAMES = MIN_RUN_FRAMES / 2;
+
+    static final int COUNT_SIZE = 2;
+    private static final int RUN_HEADER_SIZE = 8;
+
+    /**
+     * Room for the runs of a block of {@code frames} frames, as {first, count} pairs.
+     */
+    static int[] newRunArray(int frames) {
+        return new int[2 * (frames / MIN_RUN_FRAMES + 1)];
+    }
+
+    static int entrySize(int frameSize) {
+        return RUN_HEADER_SIZE + frameSize;
+    }
+
+    /**
+     * Finds the runs of {@code pcm[0, length)} and stores them as {first frame,
+     * frame count} pairs in {@code runs} (from {@link #newRunArray}). Returns the
+     * number of runs.
+     */
+    static int find(byte[] pcm, int length, int frameSize, int[] runs) {
+        int frames = length / frameSize;
+        int count = 0;
+        int searchFrom = 0; // frames before this are already in a run
+        for (int probe = 0; probe + PROBE_FRAMES < frames; probe += PROBE_FRAMES) {
+            if (probe + PROBE_FRAMES <= searchFrom
+                    || !sameFrame(pcm, probe * frameSize, (probe + PROBE_FRAMES) * frameSize, frameSize)) {
+                continue;
+            }
+            int first = Math.max(probe, searchFrom);
+            if (!sameFrame(pcm, first * frameSize, probe * frameSize, frameSize)) {
+                continue;
+            }
+            while (first > searchFrom && sameFrame(pcm, (first - 1) * frameSize, probe * frameSize, frameSize)) {
+                first--;
+            }
+            // frames [first, end) equal frame 'first' where pcm[i] == pcm[i + frameSize] up to the mismatch
+            int from = first * frameSize;
+            int mismatch = Arrays.mismatch(pcm, from, length - frameSize, pcm, from + frameSize, length);
+            int end = mismatch < 0 ? frames : first + mismatch / frameSize + 1;
+            if (end - first >= MIN_RUN_FRAMES) {
+                runs[2 * count] = first;
+                runs[2 * count + 1] = end - first;
+                count++;
+                searchFrom = end;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the frames of {@code pcm[0, length)} not covered by a run to
+     * {@code literal} and returns their length in bytes.
+     */
+    static int gatherLiterals(byte[] pcm, int length, int frameSize, int[] runs, int count, byte[] literal) {
+        int pos = 0;
+        int from = 0;
+        for (int r = 0; r <= count; r++) {
+            int to = r < count ? runs[2 * r] * frameSize : length;
+            System.arraycopy(pcm, from, literal, pos, to - from);
+            pos += to - from;
+            if (r < count) {
+                from = to + runs[2 * r + 1] * frameSize;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Writes the runs and the count (the tail of the plaintext) to {@code out} and
+     * returns its length.
+     */
+    static int writeMap(byte[] pcm, int frameSize, int[] runs, int count, byte[] out) {
+        int pos = 0;
+        for (int r = 0; r < count; r++) {
+            putIntLE(out, pos, runs[2 * r]);
+            putIntLE(out, pos + 4, runs[2 * r + 1]);
+            System.arraycopy(pcm, runs[2 * r] * frameSize, out, pos + RUN_HEADER_SIZE, frameSize);
+            pos += entrySize(frameSize);
+        }
+        out[pos] = (byte) count;
+        out[pos + 1] = (byte) (count >>> 8);
+        return pos + COUNT_SIZE;
+    }
+
+    /**
+     * The number of runs stored at the end of {@code plain[0, length)}.
+     */
+    static int readCount(byte[] plain, int length, long blockIndex) throws AsphCorruptDataException {
+        if (length < COUNT_SIZE) {
+            throw corrupt(blockIndex, "has no run map");
+        }
+        return (plain[length - 2] & 0xFF) | (plain[length - 1] & 0xFF) << 8;
+    }
+
+    /**
+     * Checks the {@code count} runs starting at {@code plain[mapStart]} against a
+     * block of {@code expected} bytes and returns the number of literal bytes.
+     */
+    static int literalLength(byte[] plain, int mapStart, int count, int frameSize, int expected, long blockIndex)
+            throws AsphCorruptDataException {
+        int frames = expected / frameSize;
+        long covered = 0;
+        int next = 0;
+        for (int r = 0, pos = mapStart; r < count; r++, pos += entrySize(frameSize)) {
+            int first = getIntLE(plain, pos);
+            int length = getIntLE(plain, pos + 4);
+            if (first < next || length <= 0 || (long) first + length > frames) {
+                throw corrupt(blockIndex, "has a corrupt run map");
+            }
+            covered += length;
+            next = first + length;
+        }
+        return (int) (expected - covered * frameSize);
+    }
+
+    /**
+     * Rebuilds the block in {@code pcm[0, expected)} from the decoded literal frames
+     * and the runs (checked by {@link #literalLength}).
+     */
+    static void expand(byte[] plain, int mapStart, int count, int frameSize, byte[] literal, byte[] pcm, int expected) {
+        int pos = 0;
+        int from = 0;
+        for (int r = 0, entry = mapStart; r < count; r++, entry += entrySize(frameSize)) {
+            int start = getIntLE(plain, entry) * frameSize;
+            int end = start + getIntLE(plain, entry + 4) * frameSize;
+            System.arraycopy(literal, from, pcm, pos, start - pos);
+            from += start - pos;
+            fill(pcm, start, end, plain, entry + RUN_HEADER_SIZE, frameSize);
+            pos = end;
+        }
+        System.arraycopy(literal, from, pcm, pos, expected - pos);
+    }
+
+    /**
+     * Repeats the frame at {@code frame[offset]} over {@code pcm[from, to)},
+     * doubling the copied span each time.
+     */
+    private static void fill(byte[] pcm, int from, int to, byte[] frame, int offset, int frameSize) {
+        boolean zero = true;
+        for (int i = 0; i < frameSize; i++) {
+            zero &= frame[offset + i] == 0;
+        }
+        if (zero) {
+            Arrays.fill(pcm, from, to, (byte) 0);
+            return;
+        }
+        System.arraycopy(frame, offset, pcm, from, frameSize);
+        for (int filled = frameSize; filled < to - from; filled *= 2) {
+            System.arraycopy(pcm, from, pcm, from + filled, Math.min(filled, to - from - filled));
+        }
+    }
+
+    private static boolean sameFrame(byte[] pcm, int a, int b, int frameSize) {
+        return Arrays.equals(pcm, a, a + frameSize, pcm, b, b + frameSize);
+    }
+
+    private static AsphCorruptDataException corrupt(long blockIndex, String what) {
+        return new AsphCorruptDataException("Block " + blockIndex + " " + what + ".", blockIndex, null);
+    }
+
+    private static void putIntLE(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    private static int getIntLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,180 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Presents a PCM stream in the encoder's target layout (PCM_SIGNED little-endian,
+ * 8–96 kHz, at most 2 channels and 24 bits) by running it through {@link PcmDsp}
+ * and {@link Resampler}: unpack, mix down, resample, requantise and pack, one
+ * chunk of frames at a time.
+ *
+ * Extra channels are folded in with {@link PcmDsp#mixdownWeights} instead of being
+ * dropped (before resampling, so fewer channels are filtered), and reducing the bit
+ * depth (judged by valid bits, not container size) or resampling adds TPDF dither
+ * instead of truncating. Same-rate, same-depth conversions (unsigned 8-bit,
+ * big-endian input, 24 valid bits in a 32-bit container) are exact.
+ */
+final class ConvertingPcmStream extends InputStream {
+
+    private static final int CHUNK_FRAMES = 4096;
+    private static final int RESAMPLE_CHUNK_FRAMES = 65536; // enough output per chunk to split across cores
+
+    private final InputStream source;
+    private final int srcBits;
+    private final int srcChannels;
+    private final int srcFrameSize;
+    private final boolean srcSigned;
+    private final boolean srcBigEndian;
+    private final boolean srcFloat;
+    private final int outBits;
+    private final int outChannels;
+    private final boolean dither;
+    private final float[] weights;
+    private final Resampler resampler; // null when the rate is unchanged
+
+    private final byte[] in;
+    private final float[] samples;
+    private final float[] mixed;
+    private final float[] resampled;
+    private final int[] quantized;
+    private final byte[] out;
+    private int outPos;
+    private int outLength;
+    private int ditherIndex;
+    private boolean eof;
+    private boolean finished;
+
+    private ConvertingPcmStream(InputStream source, AudioFormat format, int srcBits, int outRate, int outBits,
+                                int outChannels, ResampleQuality quality, int threads) {
+        this.source = source;
+        this.srcBits = srcBits;
+        this.srcChannels = format.getChannels();
+        this.srcFrameSize = srcChannels * (srcBits / 8);
+        this.srcSigned = !AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+        this.srcBigEndian = format.isBigEndian();
+        this.srcFloat = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        this.outBits = outBits;
+        this.outChannels = outChannels;
+        int srcRate = Math.round(format.getSampleRate());
+        this.resampler = srcRate != outRate ? new Resampler(outChannels, srcRate, outRate, quality, threads) : null;
+        this.dither = srcFloat || format.getSampleSizeInBits() > outBits || resampler != null;
+        this.weights = srcChannels != outChannels ? PcmDsp.mixdownWeights(srcChannels, outChannels) : null;
+
+        int chunkFrames = resampler != null ? RESAMPLE_CHUNK_FRAMES : CHUNK_FRAMES;
+        int outFrames = resampler != null ? resampler.maxOutputFrames(chunkFrames) : chunkFrames;
+        this.in = new byte[chunkFrames * srcFrameSize];
+        this.samples = new float[chunkFrames * srcChannels];
+        this.mixed = weights != null ? new float[chunkFrames * outChannels] : samples;
+        this.resampled = resampler != null ? new float[outFrames * outChannels] : mixed;
+        this.quantized = new int[outFrames * outChannels];
+        this.out = new byte[outFrames * outChannels * (outBits / 8)];
+    }
+
+    /**
+     * Returns {@code source} unchanged when it already is PCM_SIGNED little-endian
+     * with the target rate, depth and channel count, a converting stream otherwise.
+     * {@code quality} and {@code threads} only matter when the rate changes.
+     */
+    static InputStream open(InputStream source, AudioFormat format, int outRate, int outBits, int outChannels,
+                            ResampleQuality quality, int threads) throws AsphFormatException {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        boolean integer = AudioFormat.Encoding.PCM_SIGNED.equals(encoding)
+                || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+        // odd depths (12, 20 bit) sit left-justified in whole-byte containers; read the container
+        int bits = format.getFrameSize() > 0 && format.getChannels() > 0
+                ? format.getFrameSize() / format.getChannels() * 8
+                : format.getSampleSizeInBits();
+        boolean floatingPoint = AudioFormat.Encoding.PCM_FLOAT.equals(encoding) && (bits == 32 || bits == 64);
+        if (!floatingPoint && !(integer && bits % 8 == 0 && bits >= 8 && bits <= 32)) {
+            throw new AsphFormatException("Unsupported WAV sample format: " + encoding + ", " + bits + "-bit.");
+        }
+
+        boolean passThrough = AudioFormat.Encoding.PCM_SIGNED.equals(encoding)
+                && (!format.isBigEndian() || bits == 8)
+                && bits == outBits && format.getChannels() == outChannels
+                && Math.round(format.getSampleRate()) == outRate;
+        return passThrough
+                ? source
+                : new ConvertingPcmStream(source, format, bits, outRate, outBits, outChannels, quality, threads);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return out[outPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, outLength - outPos);
+        System.arraycopy(out, outPos, b, off, n);
+        outPos += n;
+        return n;
+    }
+
+    private boolean fill() throws IOException {
+        if (outPos < outLength) {
+            return true;
+        }
+        int outFrames = 0;
+        while (outFrames == 0) { // a resampler may need more input before it emits anything
+            if (finished) {
+                return false;
+            }
+            int read = 0;
+            if (!eof) {
+                read = source.readNBytes(in, 0, in.length);
+                if (read < in.length) {
+                    eof = true;
+                    finished = resampler == null;
+                }
+            } else {
+                // source drained: flush the resampler's tail once
+                finished = true;
+            }
+
+            StageEvent timer = StageEvent.begin(PipelineStats.Stage.CONVERT);
+            if (finished && resampler != null) {
+                outFrames = resampler.finish(resampled);
+            } else {
+                int frames = read / srcFrameSize; // a trailing partial frame is dropped
+                PcmDsp.toFloat(in, 0, frames * srcChannels, srcBits, srcSigned, srcBigEndian, srcFloat, samples);
+                if (weights != null) {
+                    PcmDsp.KERNELS.mix(samples, frames, srcChannels, weights, mixed, outChannels);
+                }
+                outFrames = resampler == null ? frames : resampler.process(mixed, frames, resampled);
+            }
+
+            int outSamples = outFrames * outChannels;
+            PcmDsp.quantize(resampled, outSamples, outBits, dither, ditherIndex, quantized);
+            ditherIndex += outSamples;
+            PcmDsp.pack(quantized, outSamples, outBits, out, 0);
+            timer.end(read);
+        }
+
+        outPos = 0;
+        outLength = outFrames * outChannels * (outBits / 8);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+        } finally {
+            if (resampler != null) {
+                resampler.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package dev.thedomcraft.audiosphere;
+
+/**
+ * Tuning knobs for {@link AudioSphereEncoder#encodeToAudioSphere(String, String, EncodeOptions)}.
+ *
+ * @param threads number of worker threads compressing/encrypting blocks; 1 encodes
+ *                on the calling thread. The output is identical for any value
+ *                (except for GCM nonces, which are random anyway).
+ * @param codec   block codec, {@link AsphFormat#CODEC_GZIP} or {@link AsphFormat#CODEC_LOSSLESS}
+ * @param resampleQuality filter preset used when the WAV's sample rate has to be
+ *                converted; the converter also uses {@code threads} cores
+ * @param cipher  block encryption, {@link AsphFormat#CIPHER_CBC} (default, readable by
+ *                older builds) or {@link AsphFormat#CIPHER_GCM} (authenticated per block)
+ * @param constantRuns store silence and other runs of identical frames as run
+ *                markers instead of compressing them; off by default, since
+ *                older builds cannot decode such files
+ */
+public record EncodeOptions(int threads, int codec, ResampleQuality resampleQuality, int cipher,
+                            boolean constantRuns) {
+
+    public EncodeOptions(int threads, int codec, ResampleQuality resampleQuality) {
+        this(threads, codec, resampleQuality, AsphFormat.CIPHER_CBC);
+    }
+
+    public EncodeOptions(int threads, int codec, ResampleQuality resampleQuality, int cipher) {
+        this(threads, codec, resampleQuality, cipher, false);
+    }
+
+    public EncodeOptions {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1, got " + threads);
+        }
+        if (codec != AsphFormat.CODEC_GZIP && codec != AsphFormat.CODEC_LOSSLESS) {
+            throw new IllegalArgumentException("Unknown codec " + codec);
+        }
+        if (resampleQuality == null) {
+            throw new IllegalArgumentException("resampleQuality must not be null");
+        }
+        if (cipher != AsphFormat.CIPHER_CBC && cipher != AsphFormat.CIPHER_GCM) {
+            throw new IllegalArgumentException("Unknown cipher " + cipher);
+        }
+    }
+
+    public static EncodeOptions defaults() {
+        return new EncodeOptions(1, AsphFormat.CODEC_GZIP, ResampleQuality.STANDARD);
+    }
+
+    public EncodeOptions withThreads(int threads) {
+        return new EncodeOptions(threads, codec, resampleQuality, cipher, constantRuns);
+    }
+
+    public EncodeOptions withCodec(int codec) {
+        return new EncodeOptions(threads, codec, resampleQuality, cipher, constantRuns);
+    }
+
+    public EncodeOptions withResampleQuality(ResampleQuality resampleQuality) {
+        return new EncodeOptions(threads, codec, resampleQuality, cipher, constantRuns);
+    }
+
+    public EncodeOptions withCipher(int cipher) {
+        return new EncodeOptions(threads, codec, resampleQuality, cipher, constantRuns);
+    }
+
+    public EncodeOptions withConstantRuns(boolean constantRuns) {
+        return new EncodeOptions(threads, codec, resampleQuality, cipher, constantRuns);
+    }
+}
@@ -0,0 +1,462 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * On-disk catalog of a music directory, so listing by artist, album or title
+ * never opens an .asph file.
+ *
+ * {@code index} walks the directory and writes {@value #CATALOG_NAME} at its root.
+ * Files whose size and modification time match the previous catalog are taken
+ * from it; only new or changed files are opened (header plus metadata trailer,
+ * see {@link MetadataHandler}). The catalog is written to a temporary file and
+ * renamed into place, so a reader never sees half of it.
+ *
+ * {@code query} memory-maps the catalog and binary-searches one of three sorted
+ * orders for a case-insensitive prefix; nothing is parsed up front, and only the
+ * matching records are decoded.
+ *
+ * Layout (little-endian):
+ *   0    4    magic "ASPC"
+ *   4    4    format version (1)
+ *   8    4    track count n
+ *   12   4    reserved, zero
+ *   16   n*48 records: mtime(8) size(8) totalSamples(8) path title artist album
+ *             (4 each, string offsets) sampleRate(4) bits(1) channels(1)
+ *             version(1) codec(1)
+ *   ...  3*n*4 record numbers sorted by artist, album and title (each then by
+ *             the other two and the path)
+ *   ...       string pool: int32 length + UTF-8, shared by equal strings
+ */
+public final class LibraryCatalog {
+
+    private LibraryCatalog() {}
+
+    public static final String CATALOG_NAME = ".asph-catalog";
+
+    private static final byte[] MAGIC = "ASPC".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 48;
+
+    /** Sort orders a query can search. */
+    public enum Field { ARTIST, ALBUM, TITLE }
+
+    /**
+     * One catalogued file; {@code path} is relative to the catalogued directory,
+     * with '/' separators, and missing tags are empty strings.
+     */
+    public record Track(String path, long modified, long size, String title, String artist, String album,
+                        int version, int codec, int sampleRate, int bitsPerSample, int channels, long totalSamples) {
+
+        public double durationSeconds() {
+            return sampleRate == 0 ? 0 : (double) totalSamples / sampleRate;
+        }
+
+        String key(Field field) {
+            return switch (field) {
+                case ARTIST -> artist;
+                case ALBUM -> album;
+                case TITLE -> title;
+            };
+        }
+    }
+
+    /**
+     * @param unchanged tracks reused from the previous catalog
+     * @param scanned   new or modified files that were opened
+     * @param removed   tracks of the previous catalog that no longer exist
+     * @param failed    files that could not be read and were left out
+     */
+    record IndexSummary(int tracks, int unchanged, int scanned, int removed, int failed) {}
+
+    // --------- index ---------
+
+    /**
+     * Creates or updates the catalog of {@code dir} and prints a summary.
+     */
+    public static void index(String dir) {
+        long started = System.nanoTime();
+        try {
+            IndexSummary summary = update(Path.of(dir));
+            System.out.printf(Locale.ROOT, "[AudioSphere] Catalogued %d track(s) in %.2f s: %d unchanged, %d scanned, %d removed, %d unreadable%n",
+                    summary.tracks(), (System.nanoTime() - started) / 1e9,
+                    summary.unchanged(), summary.scanned(), summary.removed(), summary.failed());
+        } catch (Exception ex) {
+            System.out.println("[AudioSphere] Error indexing " + dir + ": " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Does the work of index without printing (apart from unreadable files).
+     */
+    static IndexSummary update(Path dir) throws IOException {
+        Path root = dir.toRealPath();
+        Path catalogFile = root.resolve(CATALOG_NAME);
+
+        Map<String, Track> previous = new HashMap<>();
+        if (Files.exists(catalogFile)) {
+            try (Catalog old = Catalog.open(catalogFile)) {
+                for (int i = 0; i < old.size(); i++) {
+                    Track track = old.track(i);
+                    previous.put(track.path(), track);
+                }
+            } catch (AsphFormatException ex) {
+                // unreadable or older layout: rebuild from scratch
+            }
+        }
+
+        List<Track> tracks = new ArrayList<>();
+        List<Path> changed = new ArrayList<>();
+        int unchanged = 0;
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) walk::iterator) {
+                if (!file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".asph")) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                Track known = previous.remove(relative(root, file));
+                if (known != null && known.size() == attributes.size()
+                        && known.modified() == attributes.lastModifiedTime().toMillis()) {
+                    tracks.add(known);
+                    unchanged++;
+                } else {
+                    changed.add(file);
+                }
+            }
+        }
+
+        // opening files is the slow part; do it on all cores
+        int failed = 0;
+        try (ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors())) {
+            List<Future<Track>> scans = new ArrayList<>(changed.size());
+            for (Path file : changed) {
+                scans.add(pool.submit(() -> {
+                    try {
+                        return scan(root, file);
+                    } catch (Exception ex) {
+                        System.out.println("[AudioSphere] Skipping " + relative(root, file) + ": " + ex.getMessage());
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Track> scan : scans) {
+                Track track;
+                try {
+                    track = scan.get();
+                } catch (Exception ex) {
+                    track = null;
+                }
+                if (track != null) {
+                    tracks.add(track);
+                } else {
+                    failed++;
+                }
+            }
+        }
+
+        write(catalogFile, tracks);
+        return new IndexSummary(tracks.size(), unchanged, changed.size() - failed, previous.size(), failed);
+    }
+
+    private static Track scan(Path root, Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        AsphFormat.Header header;
+        Map<String, String> tags;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             PcmSource source = PcmSource.open(file.toString())) {
+            header = source.header();
+            tags = MetadataHandler.readMetadata(channel);
+        }
+        return new Track(relative(root, file), attributes.lastModifiedTime().toMillis(), attributes.size(),
+                tags.getOrDefault("Title", ""), tags.getOrDefault("Artist", ""), tags.getOrDefault("Album", ""),
+                header.version(), header.codec(), header.sampleRate(), header.bitsPerSample(), header.channels(),
+                header.totalSamples());
+    }
+
+    private static String relative(Path root, Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static void write(Path catalogFile, List<Track> tracks) throws IOException {
+        int n = tracks.size();
+        Map<String, Integer> pool = new HashMap<>();
+        ByteArrayBuilder strings = new ByteArrayBuilder();
+        long stringsStart = HEADER_SIZE + (long) n * RECORD_SIZE + 3L * n * 4;
+
+        ByteBuffer records = ByteBuffer.allocate(n * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (Track t : tracks) {
+            records.putLong(t.modified()).putLong(t.size()).putLong(t.totalSamples());
+            for (String s : new String[]{t.path(), t.title(), t.artist(), t.album()}) {
+                records.putInt(pool.computeIfAbsent(s, strings::add));
+            }
+            records.putInt(t.sampleRate())
+                    .put((byte) t.bitsPerSample()).put((byte) t.channels())
+                    .put((byte) t.version()).put((byte) t.codec());
+        }
+        if (stringsStart + strings.size() > Integer.MAX_VALUE) {
+            throw new IOException("Catalog would exceed 2 GB.");
+        }
+
+        ByteBuffer orders = ByteBuffer.allocate(3 * n * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (Field field : Field.values()) {
+            for (int i : sortedBy(tracks, field)) {
+                orders.putInt(i);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(FORMAT_VERSION).putInt(n).putInt(0);
+
+        Path temp = Files.createTempFile(catalogFile.getParent(), ".asph-catalog-", ".part");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer[] parts = {header.flip(), records.flip(), orders.flip(), strings.buffer()};
+                long total = 0;
+                for (ByteBuffer part : parts) {
+                    total += part.remaining();
+                }
+                for (long written = 0; written < total; ) {
+                    written += out.write(parts);
+                }
+            }
+            Files.move(temp, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static int[] sortedBy(List<Track> tracks, Field field) {
+        Field[] keys = switch (field) {
+            case ARTIST -> new Field[]{Field.ARTIST, Field.ALBUM, Field.TITLE};
+            case ALBUM -> new Field[]{Field.ALBUM, Field.ARTIST, Field.TITLE};
+            case TITLE -> new Field[]{Field.TITLE, Field.ARTIST, Field.ALBUM};
+        };
+        // fold once per track, not once per comparison
+        String[][] folded = new String[keys.length][tracks.size()];
+        for (int k = 0; k < keys.length; k++) {
+            for (int i = 0; i < tracks.size(); i++) {
+                folded[k][i] = fold(tracks.get(i).key(keys[k]));
+            }
+        }
+        Integer[] ids = new Integer[tracks.size()];
+        Arrays.setAll(ids, i -> i);
+        Arrays.sort(ids, (a, b) -> {
+            for (String[] key : folded) {
+                int c = key[a].compareTo(key[b]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return tracks.get(a).path().compareTo(tracks.get(b).path());
+        });
+        return Arrays.stream(ids).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Sort and search key: lower case, so "the" finds "The Beatles".
+     */
+    private static String fold(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Append-only byte array for the string pool; add() returns the entry's offset
+     * within the pool.
+     */
+    private static final class ByteArrayBuilder {
+        private byte[] bytes = new byte[4096];
+        private int size;
+
+        int add(String s) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            if (size + 4 + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + 4 + utf8.length));
+            }
+            int offset = size;
+            ByteBuffer.wrap(bytes, size, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size + 4, utf8.length);
+            size += 4 + utf8.length;
+            return offset;
+        }
+
+        int size() {
+            return size;
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+    }
+
+    // --------- query ---------
+
+    /**
+     * Prints the tracks of {@code dir}'s catalog whose {@code field} starts with
+     * {@code prefix} (case-insensitive), in that field's order. A null field lists
+     * everything by artist.
+     */
+    public static void query(String dir, Field field, String prefix) {
+        try {
+            long started = System.nanoTime();
+            List<Track> tracks = query(Path.of(dir).resolve(CATALOG_NAME), field, prefix);
+            long elapsed = System.nanoTime() - started;
+            for (Track t : tracks) {
+                long seconds = Math.round(t.durationSeconds());
+                System.out.printf("[AudioSphere] %s - %s - %s (%d:%02d, %d Hz/%d-bit/%dch) %s%n",
+                        orUnknown(t.artist()), orUnknown(t.album()), orUnknown(t.title()),
+                        seconds / 60, seconds % 60, t.sampleRate(), t.bitsPerSample(), t.channels(), t.path());
+            }
+            System.out.printf(Locale.ROOT, "[AudioSphere] %d track(s) found in %.2f ms%n", tracks.size(), elapsed / 1e6);
+        } catch (Exception ex) {
+            System.out.println("[AudioSphere] Error querying " + dir + ": " + ex.getMessage()
+                    + " (run 'index " + dir + "' first?)");
+        }
+    }
+
+    private static String orUnknown(String s) {
+        return s.isEmpty() ? "?" : s;
+    }
+
+    /**
+     * Does the work of query without printing.
+     */
+    static List<Track> query(Path catalogFile, Field field, String prefix) throws IOException {
+        try (Catalog catalog = Catalog.open(catalogFile)) {
+            Field order = field != null ? field : Field.ARTIST;
+            String key = field != null ? fold(prefix) : "";
+            int from = catalog.lowerBound(order, key);
+            List<Track> matches = new ArrayList<>();
+            for (int i = from; i < catalog.size(); i++) {
+                Track track = catalog.track(catalog.sorted(order, i));
+                if (!fold(track.key(order)).startsWith(key)) {
+                    break;
+                }
+                matches.add(track);
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * Read-only view of a mapped catalog file.
+     */
+    private static final class Catalog implements Closeable {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer map;
+        private final int size;
+        private final int ordersStart;
+        private final int stringsStart;
+
+        private Catalog(FileChannel channel, MappedByteBuffer map, int size) {
+            this.channel = channel;
+            this.map = map;
+            this.size = size;
+            this.ordersStart = HEADER_SIZE + size * RECORD_SIZE;
+            this.stringsStart = ordersStart + 3 * size * 4;
+        }
+
+        static Catalog open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long length = channel.size();
+                if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                    throw new AsphFormatException("Not a catalog file: " + file);
+                }
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                byte[] magic = new byte[4];
+                map.get(0, magic);
+                int n = map.getInt(8);
+                if (!Arrays.equals(magic, MAGIC) || map.getInt(4) != FORMAT_VERSION
+                        || n < 0 || HEADER_SIZE + (long) n * (RECORD_SIZE + 12) > length) {
+                    throw new AsphFormatException("Not a catalog file (or an unsupported version): " + file);
+                }
+                return new Catalog(channel, map, n);
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** Record number at position {@code i} of the given order. */
+        int sorted(Field field, int i) {
+            return map.getInt(ordersStart + (field.ordinal() * size + i) * 4);
+        }
+
+        /** First position in the order whose folded key is >= {@code key}. */
+        int lowerBound(Field field, String key) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int record = sorted(field, mid);
+                String value = string(HEADER_SIZE + record * RECORD_SIZE + keyOffset(field));
+                if (fold(value).compareTo(key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static int keyOffset(Field field) {
+            return switch (field) {
+                case TITLE -> 28;
+                case ARTIST -> 32;
+                case ALBUM -> 36;
+            };
+        }
+
+        Track track(int record) {
+            int at = HEADER_SIZE + record * RECORD_SIZE;
+            return new Track(string(at + 24), map.getLong(at), map.getLong(at + 8),
+                    string(at + 28), string(at + 32), string(at + 36),
+                    map.get(at + 46) & 0xFF, map.get(at + 47) & 0xFF, map.getInt(at + 40),
+                    map.get(at + 44) & 0xFF, map.get(at + 45) & 0xFF, map.getLong(at + 16));
+        }
+
+        /** The pooled string whose offset is stored at {@code at}. */
+        private String string(int at) {
+            int offset = stringsStart + map.getInt(at);
+            byte[] utf8 = new byte[map.getInt(offset)];
+            map.get(offset + 4, utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,666 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * FLAC-style lossless coding of one ASPH v5 block (codec id {@link AsphFormat#CODEC_LOSSLESS}).
+ *
+ * Block layout (MSB-first bit stream, byte padded at the end):
+ *   channel mode   2 bits   0 independent, 1 left/side, 2 right/side, 3 mid/side (stereo only)
+ *   one subframe per channel:
+ *     type         2 bits   0 constant, 1 verbatim, 2 fixed, 3 lpc
+ *     constant:    value
+ *     verbatim:    n values
+ *     fixed:       order (3 bits), order warm-up values, residual
+ *     lpc:         order-1 (5 bits), precision-1 (4 bits), shift (4 bits),
+ *                  order coefficients (precision bits each), order warm-up values, residual
+ *   residual:      partition order (4 bits), then per partition a 5-bit Rice
+ *                  parameter followed by the Rice-coded, zigzagged residuals
+ *
+ * Values are signed and sampleBits wide (bits per sample, +1 for a side channel).
+ * The sample count is not stored; the reader knows it from the block's position.
+ * Decoding uses the same integer arithmetic as encoding, so the round trip is
+ * bit-exact.
+ */
+final class LosslessCodec {
+
+    private LosslessCodec() {}
+
+    private static final int SUBFRAME_CONSTANT = 0;
+    private static final int SUBFRAME_VERBATIM = 1;
+    private static final int SUBFRAME_FIXED = 2;
+    private static final int SUBFRAME_LPC = 3;
+
+    private static final int MODE_INDEPENDENT = 0;
+    private static final int MODE_LEFT_SIDE = 1;
+    private static final int MODE_RIGHT_SIDE = 2;
+    private static final int MODE_MID_SIDE = 3;
+
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int[][] FIXED_COEFFS = {
+            {},
+            {1},
+            {2, -1},
+            {3, -3, 1},
+            {4, -6, 4, -1}
+    };
+    private static final int[] LPC_ORDERS = {2, 4, 8, 12};
+    private static final int MAX_LPC_ORDER = 12;
+    private static final int LPC_PRECISION = 15;
+    private static final int MAX_LPC_SHIFT = 15;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int MAX_RICE_PARAM = 30;
+    // residuals are kept within +-2^30 so their zigzag fits an int
+    private static final long RESIDUAL_LIMIT = 1L << 30;
+
+    // --------- encoding ---------
+
+    /**
+     * Encode {@code length} bytes of interleaved PCM_SIGNED little-endian samples.
+     */
+    static byte[] encode(byte[] pcm, int length, int bitsPerSample, int channels) {
+        int bytesPerSample = bitsPerSample / 8;
+        int n = length / (bytesPerSample * channels);
+        int[][] samples = new int[channels][n];
+        unpack(pcm, samples, n, bytesPerSample, channels);
+
+        int mode = MODE_INDEPENDENT;
+        int[][] coded = samples;
+        int[] sampleBits = new int[channels];
+        Arrays.fill(sampleBits, bitsPerSample);
+
+        if (channels == 2 && n > 0) {
+            int[] left = samples[0];
+            int[] right = samples[1];
+            int[] mid = new int[n];
+            int[] side = new int[n];
+            for (int i = 0; i < n; i++) {
+                mid[i] = (left[i] + right[i]) >> 1;
+                side[i] = left[i] - right[i];
+            }
+
+            long l = roughCost(left, n);
+            long r = roughCost(right, n);
+            long m = roughCost(mid, n);
+            long s = roughCost(side, n);
+            long best = l + r;
+            if (l + s < best) { best = l + s; mode = MODE_LEFT_SIDE; }
+            if (s + r < best) { best = s + r; mode = MODE_RIGHT_SIDE; }
+            if (m + s < best) { mode = MODE_MID_SIDE; }
+
+            switch (mode) {
+                case MODE_LEFT_SIDE -> { coded = new int[][]{left, side}; sampleBits[1]++; }
+                case MODE_RIGHT_SIDE -> { coded = new int[][]{side, right}; sampleBits[0]++; }
+                case MODE_MID_SIDE -> { coded = new int[][]{mid, side}; sampleBits[1]++; }
+                default -> { }
+            }
+        }
+
+        BitWriter out = new BitWriter(length / 2 + 64);
+        out.write(2, mode);
+        int[] residual = new int[n];
+        for (int c = 0; c < channels; c++) {
+            encodeSubframe(out, coded[c], n, sampleBits[c], residual);
+        }
+        return out.toByteArray();
+    }
+
+    private static void encodeSubframe(BitWriter out, int[] x, int n, int sampleBits, int[] residual) {
+        if (isConstant(x, n)) {
+            out.write(2, SUBFRAME_CONSTANT);
+            out.write(sampleBits, n > 0 ? x[0] : 0);
+            return;
+        }
+
+        long bestCost = 2L + (long) n * sampleBits; // verbatim
+        int bestType = SUBFRAME_VERBATIM;
+        int[] bestCoeffs = null;
+        int bestShift = 0;
+
+        for (int order = 0; order <= Math.min(MAX_FIXED_ORDER, n); order++) {
+            int[] coeffs = FIXED_COEFFS[order];
+            if (!computeResidual(x, n, coeffs, 0, residual)) {
+                continue;
+            }
+            long cost = 2 + 3 + (long) order * sampleBits + RiceParams.choose(residual, n, order).cost;
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestType = SUBFRAME_FIXED;
+                bestCoeffs = coeffs;
+            }
+        }
+
+        if (n > 2 * MAX_LPC_ORDER) {
+            double[][] lpc = lpcCoefficients(x, n, MAX_LPC_ORDER);
+            for (int order : LPC_ORDERS) {
+                if (lpc == null || lpc[order - 1] == null) {
+                    break;
+                }
+                int[] coeffs = new int[order];
+                int shift = quantize(lpc[order - 1], coeffs);
+                if (!computeResidual(x, n, coeffs, shift, residual)) {
+                    continue;
+                }
+                long cost = 2 + 5 + 4 + 4 + (long) order * (LPC_PRECISION + sampleBits)
+                        + RiceParams.choose(residual, n, order).cost;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestType = SUBFRAME_LPC;
+                    bestCoeffs = coeffs;
+                    bestShift = shift;
+                }
+            }
+        }
+
+        out.write(2, bestType);
+        if (bestType == SUBFRAME_VERBATIM) {
+            for (int i = 0; i < n; i++) {
+                out.write(sampleBits, x[i]);
+            }
+            return;
+        }
+
+        int order = bestCoeffs.length;
+        if (bestType == SUBFRAME_FIXED) {
+            out.write(3, order);
+        } else {
+            out.write(5, order - 1);
+            out.write(4, LPC_PRECISION - 1);
+            out.write(4, bestShift);
+            for (int c : bestCoeffs) {
+                out.write(LPC_PRECISION, c);
+            }
+        }
+        for (int i = 0; i < order; i++) {
+            out.write(sampleBits, x[i]);
+        }
+
+        computeResidual(x, n, bestCoeffs, bestShift, residual);
+        RiceParams params = RiceParams.choose(residual, n, order);
+        writeResidual(out, residual, n, order, params);
+    }
+
+    private static void writeResidual(BitWriter out, int[] residual, int n, int order, RiceParams params) {
+        out.write(4, params.partitionOrder);
+        int partitions = 1 << params.partitionOrder;
+        int partitionSize = n >> params.partitionOrder;
+        for (int p = 0; p < partitions; p++) {
+            int k = params.params[p];
+            out.write(5, k);
+            int start = p == 0 ? order : p * partitionSize;
+            int end = (p + 1) * partitionSize;
+            for (int i = start; i < end; i++) {
+                out.writeRice(zigzag(residual[i]), k);
+            }
+        }
+    }
+
+    /**
+     * residual[i] = x[i] - (sum(coeffs[j] * x[i-1-j]) >> shift) for i >= order.
+     * Returns false if a residual falls outside the codable range.
+     */
+    private static boolean computeResidual(int[] x, int n, int[] coeffs, int shift, int[] residual) {
+        int order = coeffs.length;
+        for (int i = order; i < n; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) coeffs[j] * x[i - 1 - j];
+            }
+            long r = x[i] - (sum >> shift);
+            if (r >= RESIDUAL_LIMIT || r <= -RESIDUAL_LIMIT) {
+                return false;
+            }
+            residual[i] = (int) r;
+        }
+        return true;
+    }
+
+    /**
+     * Cheap stand-in for a channel's coded size: sum of second-order fixed residuals.
+     * Only used to pick the stereo mode.
+     */
+    private static long roughCost(int[] x, int n) {
+        long sum = 0;
+        for (int i = 2; i < n; i++) {
+            sum += Math.abs((long) x[i] - 2L * x[i - 1] + x[i - 2]);
+        }
+        return sum;
+    }
+
+    private static boolean isConstant(int[] x, int n) {
+        for (int i = 1; i < n; i++) {
+            if (x[i] != x[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Welch-windowed autocorrelation followed by Levinson-Durbin. Returns the
+     * predictor coefficients for every order up to maxOrder (null where the
+     * recursion stopped early), or null if the signal has no energy.
+     */
+    private static double[][] lpcCoefficients(int[] x, int n, int maxOrder) {
+        double[] windowed = new double[n];
+        double half = (n - 1) / 2.0;
+        double norm = (n + 1) / 2.0;
+        for (int i = 0; i < n; i++) {
+            double t = (i - half) / norm;
+            windowed[i] = x[i] * (1.0 - t * t);
+        }
+
+        double[] autoc = new double[maxOrder + 1];
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < n; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autoc[lag] = sum;
+        }
+        if (autoc[0] == 0) {
+            return null;
+        }
+
+        double[][] result = new double[maxOrder][];
+        double[] lpc = new double[maxOrder];
+        double err = autoc[0];
+        for (int i = 0; i < maxOrder; i++) {
+            double r = -autoc[i + 1];
+            for (int j = 0; j < i; j++) {
+                r -= lpc[j] * autoc[i - j];
+            }
+            r /= err;
+
+            lpc[i] = r;
+            int j = 0;
+            for (; j < (i >> 1); j++) {
+                double tmp = lpc[j];
+                lpc[j] += r * lpc[i - 1 - j];
+                lpc[i - 1 - j] += r * tmp;
+            }
+            if ((i & 1) != 0) {
+                lpc[j] += lpc[j] * r;
+            }
+            err *= (1.0 - r * r);
+
+            double[] coeffs = new double[i + 1];
+            for (int k = 0; k <= i; k++) {
+                coeffs[k] = -lpc[k];
+            }
+            result[i] = coeffs;
+            if (err <= 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Quantize to LPC_PRECISION-bit signed integers with error feedback.
+     * Returns the shift the decoder applies to the prediction sum.
+     */
+    private static int quantize(double[] lpc, int[] out) {
+        double cmax = 0;
+        for (double c : lpc) {
+            cmax = Math.max(cmax, Math.abs(c));
+        }
+        int shift = MAX_LPC_SHIFT;
+        if (cmax > 0) {
+            int log2 = Math.getExponent(cmax) + 1;
+            shift = Math.max(0, Math.min(MAX_LPC_SHIFT, LPC_PRECISION - 1 - log2));
+        }
+
+        int qmax = (1 << (LPC_PRECISION - 1)) - 1;
+        int qmin = -(1 << (LPC_PRECISION - 1));
+        double error = 0;
+        for (int i = 0; i < lpc.length; i++) {
+            error += lpc[i] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(qmin, Math.min(qmax, q));
+            out[i] = (int) q;
+            error -= q;
+        }
+        return shift;
+    }
+
+    /**
+     * Partition order and per-partition Rice parameters, chosen from residual sums.
+     * {@code cost} is the resulting residual size in bits (estimated).
+     */
+    private record RiceParams(int partitionOrder, int[] params, long cost) {
+
+        static RiceParams choose(int[] residual, int n, int order) {
+            long[] prefix = new long[n + 1];
+            for (int i = order; i < n; i++) {
+                prefix[i + 1] = prefix[i] + zigzag(residual[i]);
+            }
+
+            RiceParams best = null;
+            for (int p = 0; p <= MAX_PARTITION_ORDER; p++) {
+                if (p > 0 && ((n & ((1 << p) - 1)) != 0 || (n >> p) <= order)) {
+                    break;
+                }
+                int partitions = 1 << p;
+                int partitionSize = n >> p;
+                int[] params = new int[partitions];
+                long cost = 4;
+                for (int part = 0; part < partitions; part++) {
+                    int start = part == 0 ? order : part * partitionSize;
+                    int end = (part + 1) * partitionSize;
+                    long count = end - start;
+                    long sum = prefix[end] - prefix[start];
+                    int k = bestParam(sum, count);
+                    params[part] = k;
+                    cost += 5 + count * (k + 1) + (sum >> k);
+                }
+                if (best == null || cost < best.cost) {
+                    best = new RiceParams(p, params, cost);
+                }
+            }
+            return best;
+        }
+
+        private static int bestParam(long sum, long count) {
+            if (count == 0) {
+                return 0;
+            }
+            int bestK = 0;
+            long bestCost = Long.MAX_VALUE;
+            for (int k = 0; k <= MAX_RICE_PARAM; k++) {
+                long cost = count * (k + 1) + (sum >> k);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestK = k;
+                }
+            }
+            return bestK;
+        }
+    }
+
+    // --------- decoding ---------
+
+    /**
+     * Decode one block into {@code length} bytes of interleaved PCM.
+     */
+    static void decode(byte[] data, int dataLength, byte[] pcm, int length, int bitsPerSample, int channels)
+            throws IOException {
+        int n = length / (bitsPerSample / 8 * channels);
+        decode(data, dataLength, pcm, length, bitsPerSample, channels, new int[channels][n]);
+    }
+
+    /**
+     * Same as above, decoding through caller-owned sample arrays ({@code channels}
+     * arrays of at least one block of samples each) so nothing is allocated per block.
+     */
+    static void decode(byte[] data, int dataLength, byte[] pcm, int length, int bitsPerSample, int channels,
+                       int[][] samples) throws IOException {
+        int bytesPerSample = bitsPerSample / 8;
+        int n = length / (bytesPerSample * channels);
+        BitReader in = new BitReader(data, dataLength);
+
+        int mode = in.read(2);
+        if (mode != MODE_INDEPENDENT && channels != 2) {
+            throw new IOException("Corrupt lossless block: stereo mode " + mode + " with " + channels + " channels.");
+        }
+
+        for (int c = 0; c < channels; c++) {
+            boolean side = (mode == MODE_LEFT_SIDE && c == 1)
+                    || (mode == MODE_RIGHT_SIDE && c == 0)
+                    || (mode == MODE_MID_SIDE && c == 1);
+            decodeSubframe(in, samples[c], n, bitsPerSample + (side ? 1 : 0));
+        }
+
+        if (channels == 2) {
+            int[] a = samples[0];
+            int[] b = samples[1];
+            switch (mode) {
+                case MODE_LEFT_SIDE -> {
+                    for (int i = 0; i < n; i++) b[i] = a[i] - b[i];
+                }
+                case MODE_RIGHT_SIDE -> {
+                    for (int i = 0; i < n; i++) a[i] = a[i] + b[i];
+                }
+                case MODE_MID_SIDE -> {
+                    for (int i = 0; i < n; i++) {
+                        int side = b[i];
+                        int mid = (a[i] << 1) | (side & 1);
+                        a[i] = (mid + side) >> 1;
+                        b[i] = (mid - side) >> 1;
+                    }
+                }
+                default -> { }
+            }
+        }
+
+        pack(samples, pcm, n, bytesPerSample, channels);
+    }
+
+    private static void decodeSubframe(BitReader in, int[] x, int n, int sampleBits) throws IOException {
+        int type = in.read(2);
+        switch (type) {
+            case SUBFRAME_CONSTANT -> Arrays.fill(x, 0, n, in.readSigned(sampleBits));
+            case SUBFRAME_VERBATIM -> {
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readSigned(sampleBits);
+                }
+            }
+            case SUBFRAME_FIXED -> {
+                int order = in.read(3);
+                if (order > MAX_FIXED_ORDER || order > n) {
+                    throw new IOException("Corrupt lossless block: fixed order " + order + ".");
+                }
+                readWarmUpAndResidual(in, x, n, sampleBits, FIXED_COEFFS[order], 0);
+            }
+            default -> {
+                int order = in.read(5) + 1;
+                int precision = in.read(4) + 1;
+                int shift = in.read(4);
+                if (order > n) {
+                    throw new IOException("Corrupt lossless block: lpc order " + order + ".");
+                }
+                int[] coeffs = new int[order];
+                for (int i = 0; i < order; i++) {
+                    coeffs[i] = in.readSigned(precision);
+                }
+                readWarmUpAndResidual(in, x, n, sampleBits, coeffs, shift);
+            }
+        }
+    }
+
+    private static void readWarmUpAndResidual(BitReader in, int[] x, int n, int sampleBits, int[] coeffs, int shift)
+            throws IOException {
+        int order = coeffs.length;
+        for (int i = 0; i < order; i++) {
+            x[i] = in.readSigned(sampleBits);
+        }
+
+        int partitionOrder = in.read(4);
+        int partitions = 1 << partitionOrder;
+        int partitionSize = n >> partitionOrder;
+        if (partitionOrder > 0 && (partitionSize << partitionOrder != n || partitionSize <= order)) {
+            throw new IOException("Corrupt lossless block: partition order " + partitionOrder + ".");
+        }
+
+        // residuals go straight into x, then prediction is added in place
+        for (int p = 0; p < partitions; p++) {
+            int k = in.read(5);
+            int start = p == 0 ? order : p * partitionSize;
+            int end = (p + 1) * partitionSize;
+            for (int i = start; i < end; i++) {
+                x[i] = unzigzag(in.readRice(k));
+            }
+        }
+
+        if (order == 0) {
+            return;
+        }
+        for (int i = order; i < n; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) coeffs[j] * x[i - 1 - j];
+            }
+            x[i] += (int) (sum >> shift);
+        }
+    }
+
+    // --------- sample (un)packing ---------
+
+    private static void unpack(byte[] pcm, int[][] samples, int n, int bytesPerSample, int channels) {
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < channels; c++) {
+                samples[c][i] = switch (bytesPerSample) {
+                    case 1 -> pcm[o];
+                    case 2 -> (pcm[o] & 0xFF) | (pcm[o + 1] << 8);
+                    default -> (pcm[o] & 0xFF) | ((pcm[o + 1] & 0xFF) << 8) | (pcm[o + 2] << 16);
+                };
+                o += bytesPerSample;
+            }
+        }
+    }
+
+    private static void pack(int[][] samples, byte[] pcm, int n, int bytesPerSample, int channels) {
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < channels; c++) {
+                int v = samples[c][i];
+                pcm[o] = (byte) v;
+                if (bytesPerSample > 1) pcm[o + 1] = (byte) (v >> 8);
+                if (bytesPerSample > 2) pcm[o + 2] = (byte) (v >> 16);
+                o += bytesPerSample;
+            }
+        }
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int u) {
+        return (u >>> 1) ^ -(u & 1);
+    }
+
+    // --------- bit I/O ---------
+
+    private static final class BitWriter {
+        private byte[] buf;
+        private int pos;
+        private long acc;
+        private int accBits;
+
+        BitWriter(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        /**
+         * Writes the low {@code bits} bits of value (bits <= 32).
+         */
+        void write(int bits, long value) {
+            if (bits == 0) {
+                return;
+            }
+            acc = (acc << bits) | (value & ((1L << bits) - 1));
+            accBits += bits;
+            while (accBits >= 8) {
+                accBits -= 8;
+                put((byte) (acc >>> accBits));
+            }
+        }
+
+        /**
+         * Unary quotient (q zeros and a one) followed by k low bits.
+         */
+        void writeRice(int u, int k) {
+            int q = u >>> k;
+            if (q + 1 + k <= 32) {
+                write(q + 1 + k, (1L << k) | (u & ((1L << k) - 1)));
+                return;
+            }
+            while (q >= 32) {
+                write(32, 0);
+                q -= 32;
+            }
+            write(q + 1, 1);
+            write(k, u);
+        }
+
+        byte[] toByteArray() {
+            if (accBits > 0) {
+                put((byte) (acc << (8 - accBits)));
+                accBits = 0;
+            }
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void put(byte b) {
+            if (pos == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[pos++] = b;
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+        private long cache;
+        private int cacheBits;
+
+        BitReader(byte[] buf, int limit) {
+            this.buf = buf;
+            this.limit = limit;
+        }
+
+        int read(int bits) throws IOException {
+            if (bits == 0) {
+                return 0;
+            }
+            if (cacheBits < bits) {
+                refill();
+                if (cacheBits < bits) {
+                    throw new IOException("Corrupt lossless block: unexpected end of data.");
+                }
+            }
+            cacheBits -= bits;
+            return (int) ((cache >>> cacheBits) & ((1L << bits) - 1));
+        }
+
+        int readSigned(int bits) throws IOException {
+            int v = read(bits);
+            return (v << (32 - bits)) >> (32 - bits);
+        }
+
+        int readRice(int k) throws IOException {
+            int q = 0;
+            while (true) {
+                if (cacheBits == 0) {
+                    refill();
+                    if (cacheBits == 0) {
+                        throw new IOException("Corrupt lossless block: unexpected end of data.");
+                    }
+                }
+                long window = cache << (64 - cacheBits);
+                if (window == 0) {
+                    q += cacheBits;
+                    cacheBits = 0;
+                    continue;
+                }
+                int zeros = Long.numberOfLeadingZeros(window);
+                q += zeros;
+                cacheBits -= zeros + 1;
+                break;
+            }
+            return (q << k) | read(k);
+        }
+
+        private void refill() {
+            while (cacheBits <= 56 && pos < limit) {
+                cache = (cache << 8) | (buf[pos++] & 0xFF);
+                cacheBits += 8;
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package dev.thedomcraft.audiosphere;
+
+import java.util.Arrays;
+
+/**
+ * ITU-R BS.1770-4 / EBU R128 loudness measurement, split so that blocks of a
+ * track can be measured on different threads:
+ *
+ *   - {@link KWeighting} filters one block and sums the squared output per
+ *     100 ms step (the hop of the 400 ms gating blocks and 3 s short-term windows);
+ *   - {@link #truePeak} finds the largest 4x oversampled sample of one block;
+ *   - {@link #integrated} and {@link #range} gate the step sums of the whole track.
+ *
+ * The K-weighting filters are IIR, so a block measured on its own needs the
+ * filter state left by the audio before it. Instead of passing state between
+ * blocks (which would serialise them) each block first runs the filters over the
+ * preceding 100 ms from zero state. The slowest pole (the 38 Hz high-pass)
+ * decays by about 1e-9 in that time at any sample rate, far below the 0.1 LU
+ * the result is reported with. Blocks are cut the same way whatever the thread
+ * count, so the result does not depend on it.
+ *
+ * Channel weights are 1.0 for the mono and stereo layouts ASPH stores.
+ */
+final class LoudnessMeter {
+
+    private LoudnessMeter() {}
+
+    static final double ABSOLUTE_GATE_LUFS = -70.0;
+    private static final double RELATIVE_GATE_LU = -10.0;
+    private static final double RANGE_RELATIVE_GATE_LU = -20.0;
+
+    /** Steps (100 ms) per gating block and per short-term window. */
+    private static final int GATING_STEPS = 4;
+    private static final int SHORT_TERM_STEPS = 30;
+
+    /** 48-tap interpolation filter of BS.1770-4 Annex 2, one row of 12 taps per phase. */
+    private static final float[][] TRUE_PEAK_PHASES = {
+            {0.0017089843750f, 0.0109863281250f, -0.0196533203125f, 0.0332031250000f, -0.0594482421875f,
+                    0.1373291015625f, 0.9721679687500f, -0.1022949218750f, 0.0476074218750f, -0.0266113281250f,
+                    0.0148925781250f, -0.0083007812500f},
+            {-0.0291748046875f, 0.0292968750000f, -0.0517578125000f, 0.0891113281250f, -0.1665039062500f,
+                    0.4650878906250f, 0.7797851562500f, -0.2003173828125f, 0.1015625000000f, -0.0582275390625f,
+                    0.0330810546875f, -0.0189208984375f},
+            {-0.0189208984375f, 0.0330810546875f, -0.0582275390625f, 0.1015625000000f, -0.2003173828125f,
+                    0.7797851562500f, 0.4650878906250f, -0.1665039062500f, 0.0891113281250f, -0.0517578125000f,
+                    0.0292968750000f, -0.0291748046875f},
+            {-0.0083007812500f, 0.0148925781250f, -0.0266113281250f, 0.0476074218750f, -0.1022949218750f,
+                    0.9721679687500f, 0.1373291015625f, -0.0594482421875f, 0.0332031250000f, -0.0196533203125f,
+                    0.0109863281250f, 0.0017089843750f}
+    };
+    static final int TRUE_PEAK_TAPS = 12;
+
+    /** Largest gain of any phase for a full-scale input (sum of |taps|). */
+    private static final float TRUE_PEAK_GAIN = maxAbsSum(TRUE_PEAK_PHASES);
+
+    /** Outputs whose inputs are checked against the running peak at once. */
+    private static final int TRUE_PEAK_SPAN = 256;
+
+    /**
+     * Frames per 100 ms step; also the warm-up a block is filtered over first.
+     */
+    static int stepFrames(int sampleRate) {
+        return Math.max(1, Math.round(sampleRate / 10.0f));
+    }
+
+    /**
+     * The two K-weighting biquads (high shelf, then RLB high-pass) for every
+     * channel, derived for the sample rate from the BS.1770 analogue prototypes.
+     * Transposed direct form II in double precision; not thread-safe.
+     */
+    static final class KWeighting {
+        private final double b0, b1, b2, a1, a2; // shelf
+        private final double c1, c2;             // high-pass, numerator is 1, -2, 1
+        private final double[] state;            // 4 per channel
+
+        KWeighting(int sampleRate, int channels) {
+            double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+            double q = 0.7071752369554196;
+            double vh = Math.pow(10.0, 3.999843853973347 / 20.0);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1.0 + k / q + k * k;
+            b0 = (vh + vb * k / q + k * k) / a0;
+            b1 = 2.0 * (k * k - vh) / a0;
+            b2 = (vh - vb * k / q + k * k) / a0;
+            a1 = 2.0 * (k * k - 1.0) / a0;
+            a2 = (1.0 - k / q + k * k) / a0;
+
+            k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+            q = 0.5003270373238773;
+            a0 = 1.0 + k / q + k * k;
+            c1 = 2.0 * (k * k - 1.0) / a0;
+            c2 = (1.0 - k / q + k * k) / a0;
+
+            state = new double[4 * channels];
+        }
+
+        /**
+         * Runs interleaved {@code x[0 .. frames * channels)} through the filters
+         * and discards the output.
+         */
+        void warmUp(float[] x, int frames, int channels) {
+            if (frames == 0) {
+                return;
+            }
+            for (int c = 0; c < channels; c++) {
+                run(x, frames, channels, c, 0, frames, null);
+            }
+        }
+
+        /**
+         * Filters interleaved {@code x[0 .. frames * channels)}, whose first frame is
+         * frame {@code firstFrame} of the track, and adds the squared output summed
+         * over channels to {@code steps[s - firstFrame / stepFrames]} for the
+         * 100 ms step s each frame falls into. Returns the number of steps touched.
+         */
+        int measure(float[] x, int frames, int channels, long firstFrame, int stepFrames, double[] steps) {
+            int count = 0;
+            for (int c = 0; c < channels; c++) {
+                count = run(x, frames, channels, c, firstFrame, stepFrames, steps);
+            }
+            return count;
+        }
+
+        /**
+         * One channel, with the filter state in locals; a null {@code steps} only
+         * advances the state.
+         */
+        private int run(float[] x, int frames, int channels, int c, long firstFrame, int stepFrames, double[] steps) {
+            int s = c * 4;
+            double s0 = state[s], s1 = state[s + 1], s2 = state[s + 2], s3 = state[s + 3];
+            int step = 0;
+            int f = 0;
+            int stepEnd = (int) Math.min(frames, (firstFrame / stepFrames + 1) * stepFrames - firstFrame);
+            while (f < frames) {
+                double sum = 0.0;
+                for (int i = f * channels + c; f < stepEnd; f++, i += channels) {
+                    double in = x[i];
+                    double y = b0 * in + s0;
+                    s0 = b1 * in - a1 * y + s1;
+                    s1 = b2 * in - a2 * y;
+                    double z = y + s2;
+                    s2 = -2.0 * y - c1 * z + s3;
+                    s3 = y - c2 * z;
+                    sum += z * z;
+                }
+                if (steps != null) {
+                    steps[step] += sum;
+                }
+                step++;
+                stepEnd = Math.min(frames, stepEnd + stepFrames);
+            }
+            state[s] = s0;
+            state[s + 1] = s1;
+            state[s + 2] = s2;
+            state[s + 3] = s3;
+            return Math.max(1, step);
+        }
+    }
+
+    /**
+     * Largest absolute 4x oversampled value of one channel, at least {@code floor}.
+     * {@code x} holds TRUE_PEAK_TAPS - 1 samples of history (zeros at the start of
+     * the track) followed by {@code frames} samples of the block. Spans whose
+     * inputs cannot reach the peak so far through the filter are skipped, so for
+     * most material only the loudest passages are interpolated. The filter runs
+     * through {@link PcmDsp#KERNELS}.
+     */
+    static float truePeak(float[] x, int frames, float floor) {
+        float peak = floor;
+        int history = TRUE_PEAK_TAPS - 1;
+        for (int start = 0; start < frames; start += TRUE_PEAK_SPAN) {
+            int end = Math.min(frames, start + TRUE_PEAK_SPAN);
+            float local = 0.0f;
+            for (int i = start; i < end + history; i++) {
+                local = Math.max(local, Math.abs(x[i]));
+            }
+            if (local * TRUE_PEAK_GAIN <= peak) {
+                continue;
+            }
+            for (float[] phase : TRUE_PEAK_PHASES) {
+                peak = Math.max(peak, PcmDsp.KERNELS.firPeak(x, start + history, end + history, phase));
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Gated integrated loudness in LUFS from the per-step sums of a whole track
+     * ({@code count} complete steps); -Infinity when no 400 ms block passes the gates.
+     */
+    static double integrated(double[] steps, int count, int stepFrames) {
+        double[] blocks = windows(steps, count, GATING_STEPS, stepFrames);
+        return gatedMean(blocks, RELATIVE_GATE_LU);
+    }
+
+    /**
+     * EBU Tech 3342 loudness range in LU: the spread between the 10th and 95th
+     * percentile of the gated 3 s short-term loudness, windows one step apart.
+     */
+    static double range(double[] steps, int count, int stepFrames) {
+        double[] windows = windows(steps, count, SHORT_TERM_STEPS, stepFrames);
+        double gate = gatedMean(windows, RANGE_RELATIVE_GATE_LU) + RANGE_RELATIVE_GATE_LU;
+        double[] loudness = Arrays.stream(windows)
+                .map(LoudnessMeter::lufs)
+                .filter(l -> l > ABSOLUTE_GATE_LUFS && l > gate)
+                .sorted()
+                .toArray();
+        if (loudness.length < 2) {
+            return 0.0;
+        }
+        return percentile(loudness, 0.95) - percentile(loudness, 0.10);
+    }
+
+    static double lufs(double meanSquare) {
+        return -0.691 + 10.0 * Math.log10(meanSquare);
+    }
+
+    static double decibels(double peak) {
+        return 20.0 * Math.log10(peak);
+    }
+
+    /**
+     * Mean square (summed over channels) of every window of {@code length} steps,
+     * one step apart.
+     */
+    private static double[] windows(double[] steps, int count, int length, int stepFrames) {
+        if (count < length) {
+            return new double[0];
+        }
+        double[] windows = new double[count - length + 1];
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += steps[i];
+        }
+        for (int w = 0; ; w++) {
+            windows[w] = Math.max(0.0, sum) / ((double) length * stepFrames);
+            if (w + length == count) {
+                return windows;
+            }
+            sum += steps[w + length] - steps[w];
+        }
+    }
+
+    /**
+     * Loudness of the mean of the windows above the absolute gate and above the
+     * relative gate {@code relativeGate} LU below their own mean.
+     */
+    private static double gatedMean(double[] windows, double relativeGate) {
+        double gate = lufs(mean(windows, ABSOLUTE_GATE_LUFS)) + relativeGate;
+        return lufs(mean(windows, Math.max(ABSOLUTE_GATE_LUFS, gate)));
+    }
+
+    private static double mean(double[] windows, double gateLufs) {
+        double sum = 0.0;
+        int n = 0;
+        for (double w : windows) {
+            if (lufs(w) > gateLufs) {
+                sum += w;
+                n++;
+            }
+        }
+        return n == 0 ? 0.0 : sum / n;
+    }
+
+    private static float maxAbsSum(float[][] rows) {
+        float max = 0.0f;
+        for (float[] row : rows) {
+            float sum = 0.0f;
+            for (float v : row) {
+                sum += Math.abs(v);
+            }
+            max = Math.max(max, sum);
+        }
+        return max;
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[(int) Math.round((sorted.length - 1) * p)];
+    }
+}
@@ -1,7 +1,27 @@
 package dev.thedomcraft.audiosphere;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
+
+    private static int exitCode;
+
     public static void main(String[] args) {
+        // --stats works with any command: the per-stage counters are printed as JSON at the end
+        List<String> commandArgs = new ArrayList<>(List.of(args));
+        boolean stats = commandArgs.remove("--stats");
+        long start = System.nanoTime();
+        run(commandArgs.toArray(String[]::new));
+        if (stats) {
+            System.out.print(PipelineStats.toJson(System.nanoTime() - start));
+        }
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    private static void run(String[] args) {
         if (args.length < 2) {
             printUsage();
             return;
@@ -18,7 +38,44 @@ public class Main {
                     return;
                 }
                 String outputFile = args[2];
-                AudioSphereEncoder.encodeToAudioSphere(inputFile, outputFile);
+                EncodeOptions options = parseEncodeOptions(args, 3);
+                if (options == null) {
+                    printUsage();
+                    return;
+                }
+                AudioSphereEncoder.encodeToAudioSphere(inputFile, outputFile, options);
+            }
+            case "encode-dir" -> {
+                if (args.length < 3) {
+                    System.out.println("[AudioSphere] Error: Output directory not specified for encoding.");
+                    printUsage();
+                    return;
+                }
+                List<String> rest = new ArrayList<>();
+                BatchProcessor.BatchOptions batch = parseBatchOptions(args, 3, rest);
+                EncodeOptions options = batch == null ? null : parseEncodeOptions(rest.toArray(String[]::new), 0);
+                if (options == null) {
+                    printUsage();
+                    return;
+                }
+                BatchProcessor.encodeDirectory(inputFile, args[2], options, batch);
+            }
+            case "decode-dir" -> {
+                if (args.length < 3) {
+                    System.out.println("[AudioSphere] Error: Output directory not specified for decoding.");
+                    printUsage();
+                    return;
+                }
+                List<String> rest = new ArrayList<>();
+                BatchProcessor.BatchOptions batch = parseBatchOptions(args, 3, rest);
+                if (batch == null || !rest.isEmpty()) {
+                    if (batch != null) {
+                        System.out.printf("[AudioSphere] Error: Unknown decode option '%s'%n", rest.get(0));
+                    }
+                    printUsage();
+                    return;
+                }
+                BatchProcessor.decodeDirectory(inputFile, args[2], batch);
             }
             case "decode" -> {
                 if (args.length < 3) {
@@ -29,9 +86,85 @@ public class Main {
                 String outputFile = args[2];
                 AudioSphereEncoder.decodeFromAudioSphere(inputFile, outputFile);
             }
+            case "verify" -> {
+                List<String> rest = new ArrayList<>();
+                BatchProcessor.BatchOptions batch = parseBatchOptions(args, 2, rest);
+                if (batch == null || !rest.isEmpty()) {
+                    if (batch != null) {
+                        System.out.printf("[AudioSphere] Error: Unknown verify option '%s'%n", rest.get(0));
+                    }
+                    printUsage();
+                    return;
+                }
+                // exit status 1 when anything is damaged, for scheduled scrubs
+                if (!AsphVerifier.verify(inputFile, batch.jobs())) {
+                    exitCode = 1;
+                }
+            }
+            case "analyse", "analyze" -> AudioAnalysis.printAnalysis(inputFile);
+            case "index" -> LibraryCatalog.index(inputFile);
+            case "query" -> {
+                LibraryCatalog.Field field = null;
+                String prefix = "";
+                if (args.length > 2) {
+                    field = switch (args[2]) {
+                        case "--artist" -> LibraryCatalog.Field.ARTIST;
+                        case "--album" -> LibraryCatalog.Field.ALBUM;
+                        case "--title" -> LibraryCatalog.Field.TITLE;
+                        default -> null;
+                    };
+                    if (field == null || args.length != 4) {
+                        System.out.printf("[AudioSphere] Error: Unknown query option '%s'%n", args[2]);
+                        printUsage();
+                        return;
+                    }
+                    prefix = args[3];
+                }
+                LibraryCatalog.query(inputFile, field, prefix);
+            }
+            case "serve" -> {
+                int port = 8080;
+                if (args.length > 2) {
+                    if (args.length != 4 || !args[2].equals("--port")) {
+                        System.out.printf("[AudioSphere] Error: Unknown serve option '%s'%n", args[2]);
+                        printUsage();
+                        return;
+                    }
+                    try {
+                        port = Integer.parseInt(args[3]);
+                    } catch (NumberFormatException ex) {
+                        port = -1;
+                    }
+                    if (port < 0 || port > 65535) {
+                        System.out.printf("[AudioSphere] Error: Invalid port '%s'.%n", args[3]);
+                        return;
+                    }
+                }
+                AsphServer.serve(inputFile, port);
+            }
+            case "extract" -> {
+                if (args.length < 5) {
+                    System.out.println("[AudioSphere] Error: extract needs <start> <end> <output.wav>.");
+                    printUsage();
+                    return;
+                }
+                double start = parseTime(args[2]);
+                double end = parseTime(args[3]);
+                if (start < 0 || end < 0) {
+                    System.out.printf("[AudioSphere] Error: Invalid time '%s' (seconds, m:ss or h:mm:ss).%n",
+                            start < 0 ? args[2] : args[3]);
+                    return;
+                }
+                AudioSphereEncoder.extractFromAudioSphere(inputFile, start, end, args[4]);
+            }
             case "play" -> {
-                boolean loop = args.length > 2 && args[2].equalsIgnoreCase("loop");
-                AudioSpherePlayer.playAudioSphere(inputFile, loop);
+                // play <file|playlist>... [loop]
+                List<String> files = new ArrayList<>(List.of(args).subList(1, args.length));
+                boolean loop = files.size() > 1 && files.get(files.size() - 1).equalsIgnoreCase("loop");
+                if (loop) {
+                    files.remove(files.size() - 1);
+                }
+                AudioSpherePlayer.playAudioSphere(files, loop);
             }
             case "metadata" -> {
                 if (args.length < 4) {
@@ -55,20 +188,175 @@ public class Main {
         }
     }
 
+    /**
+     * Parses the optional flags after the positional encode arguments.
+     * Returns null (after printing the problem) on bad input.
+     */
+    private static EncodeOptions parseEncodeOptions(String[] args, int start) {
+        EncodeOptions options = EncodeOptions.defaults();
+        for (int i = start; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> {
+                    if (i + 1 >= args.length) {
+                        System.out.println("[AudioSphere] Error: --threads needs a value.");
+                        return null;
+                    }
+                    String value = args[++i];
+                    int threads;
+                    if (value.equalsIgnoreCase("auto")) {
+                        threads = Runtime.getRuntime().availableProcessors();
+                    } else {
+                        try {
+                            threads = Integer.parseInt(value);
+                        } catch (NumberFormatException ex) {
+                            threads = 0;
+                        }
+                    }
+                    if (threads < 1) {
+                        System.out.printf("[AudioSphere] Error: Invalid thread count '%s'.%n", value);
+                        return null;
+                    }
+                    options = options.withThreads(threads);
+                }
+                case "--codec" -> {
+                    if (i + 1 >= args.length) {
+                        System.out.println("[AudioSphere] Error: --codec needs a value.");
+                        return null;
+                    }
+                    String value = args[++i].toLowerCase();
+                    switch (value) {
+                        case "gzip" -> options = options.withCodec(AsphFormat.CODEC_GZIP);
+                        case "lossless" -> options = options.withCodec(AsphFormat.CODEC_LOSSLESS);
+                        default -> {
+                            System.out.printf("[AudioSphere] Error: Unknown codec '%s' (gzip or lossless).%n", value);
+                            return null;
+                        }
+                    }
+                }
+                case "--cipher" -> {
+                    if (i + 1 >= args.length) {
+                        System.out.println("[AudioSphere] Error: --cipher needs a value.");
+                        return null;
+                    }
+                    String value = args[++i].toLowerCase();
+                    switch (value) {
+                        case "cbc" -> options = options.withCipher(AsphFormat.CIPHER_CBC);
+                        case "gcm" -> options = options.withCipher(AsphFormat.CIPHER_GCM);
+                        default -> {
+                            System.out.printf("[AudioSphere] Error: Unknown cipher '%s' (cbc or gcm).%n", value);
+                            return null;
+                        }
+                    }
+                }
+                case "--resample" -> {
+                    if (i + 1 >= args.length) {
+                        System.out.println("[AudioSphere] Error: --resample needs a value.");
+                        return null;
+                    }
+                    String value = args[++i].toLowerCase();
+                    switch (value) {
+                        case "fast" -> options = options.withResampleQuality(ResampleQuality.FAST);
+                        case "standard" -> options = options.withResampleQuality(ResampleQuality.STANDARD);
+                        case "best" -> options = options.withResampleQuality(ResampleQuality.BEST);
+                        default -> {
+                            System.out.printf("[AudioSphere] Error: Unknown resample quality '%s' (fast, standard or best).%n", value);
+                            return null;
+                        }
+                    }
+                }
+                case "--runs" -> options = options.withConstantRuns(true);
+                default -> {
+                    System.out.printf("[AudioSphere] Error: Unknown encode option '%s'%n", args[i]);
+                    return null;
+                }
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Pulls --jobs and --memory out of the arguments; everything else is added to
+     * {@code rest}. Returns null (after printing the problem) on bad input.
+     */
+    private static BatchProcessor.BatchOptions parseBatchOptions(String[] args, int start, List<String> rest) {
+        BatchProcessor.BatchOptions batch = BatchProcessor.BatchOptions.defaults();
+        for (int i = start; i < args.length; i++) {
+            String flag = args[i];
+            if (!flag.equals("--jobs") && !flag.equals("--memory")) {
+                rest.add(flag);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                System.out.printf("[AudioSphere] Error: %s needs a value.%n", flag);
+                return null;
+            }
+            String value = args[++i];
+            long n;
+            try {
+                n = Long.parseLong(value);
+            } catch (NumberFormatException ex) {
+                n = 0;
+            }
+            if (n < 1 || n > Integer.MAX_VALUE) {
+                System.out.printf("[AudioSphere] Error: Invalid value '%s' for %s.%n", value, flag);
+                return null;
+            }
+            batch = flag.equals("--jobs")
+                    ? batch.withJobs((int) n)
+                    : batch.withMemoryBudget(n * 1024 * 1024);
+        }
+        return batch;
+    }
+
+    /**
+     * Seconds from "90", "12.5", "1:30" or "1:02:03.5"; -1 if malformed.
+     */
+    private static double parseTime(String value) {
+        String[] parts = value.split(":", -1);
+        if (parts.length > 3) {
+            return -1;
+        }
+        double seconds = 0;
+        for (String part : parts) {
+            double number;
+            try {
+                number = Double.parseDouble(part);
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+            if (!(number >= 0) || part.isEmpty() || Character.isLetter(part.charAt(part.length() - 1))) {
+                return -1;
+            }
+            seconds = seconds * 60 + number;
+        }
+        return seconds;
+    }
+
     private static void printUsage() {
         System.out.println("================================================================");
         System.out.println(" AudioSphere         |           Copyright (C) 2025 TheDomCraft ");
         System.out.println("================================================================");
         System.out.println(" Usage:");
-        System.out.println("   Encode : audiosphere encode <input.wav> <output.asph>");
+        System.out.println("   Encode : audiosphere encode <input.wav> <output.asph> [--threads N|auto] [--codec gzip|lossless]");
+        System.out.println("            [--resample fast|standard|best] [--cipher cbc|gcm] [--runs]");
         System.out.println("   Decode : audiosphere decode <input.asph> <output.wav>");
-        System.out.println("   Play   : audiosphere play <input.asph> [loop]");
+        System.out.println("   Extract: audiosphere extract <input.asph> <start> <end> <output.wav>   (times: s, m:ss or h:mm:ss)");
+        System.out.println("   Encode dir : audiosphere encode-dir <in-dir> <out-dir> [--jobs N] [--memory MB] [encode options]");
+        System.out.println("   Decode dir : audiosphere decode-dir <in-dir> <out-dir> [--jobs N] [--memory MB]");
+        System.out.println("   Play   : audiosphere play <input.asph|playlist.m3u>... [loop]   (gapless between tracks)");
+        System.out.println("   Analyse: audiosphere analyse <input.asph>   (loudness, true peak and gain from the stored analysis)");
+        System.out.println("   Verify : audiosphere verify <file.asph|dir> [--jobs N]   (exit status 1 if damaged)");
+        System.out.println("   Index  : audiosphere index <dir>   (build/update the catalog of a library)");
+        System.out.println("   Query  : audiosphere query <dir> [--artist|--album|--title <prefix>]");
+        System.out.println("   Serve  : audiosphere serve <dir> [--port N]   (HTTP, default port 8080)");
         System.out.println("   Metadata : audiosphere metadata <input.asph> <title> <artist> [album]");
+        System.out.println("   --stats (any command) : print per-stage bytes and timings as JSON at the end");
         System.out.println("================================================================");
         System.out.println(" During playback:");
         System.out.println("   p      : pause / resume");
         System.out.println("   + / -  : volume up / down");
         System.out.println("   f / b  : seek forward / backward 10 seconds");
+        System.out.println("   n      : next track");
         System.out.println("   q      : stop playback");
         System.out.println("================================================================");
     }
@@ -1,56 +1,32 @@
 package dev.thedomcraft.audiosphere;
 
-import java.io.*;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * 512-byte metadata trailer right after the audio payload.
+ *
+ * Everything goes through positional FileChannel reads/writes: the payload end
+ * comes from the container header, reading tags touches only the trailer, and
+ * tagging overwrites the trailer in place. I/O is constant regardless of the
+ * audio size.
+ */
 public final class MetadataHandler {
 
     private MetadataHandler() {}
 
-    private static final int METADATA_SIZE = 512; // bytes at end of file
+    static final int METADATA_SIZE = 512; // bytes at end of file
 
     public static void addMetadata(String inputFile, String title, String artist, String album) {
         try {
-            byte[] fileBytes = readAllBytes(new File(inputFile));
-
-            try (var memoryStream = new ByteArrayOutputStream()) {
-                memoryStream.write(fileBytes);
-
-                byte[] titleBytes = title.getBytes("UTF-8");
-                byte[] artistBytes = artist.getBytes("UTF-8");
-                byte[] albumBytes = album.getBytes("UTF-8");
-
-                int totalMetadataLength =
-                        4 + titleBytes.length +
-                        4 + artistBytes.length +
-                        4 + albumBytes.length;
-
-                if (totalMetadataLength > METADATA_SIZE) {
-                    throw new IllegalArgumentException("Metadata size exceeds reserved space.");
-                }
-
-                memoryStream.write(intLE(titleBytes.length));
-                memoryStream.write(titleBytes);
-
-                memoryStream.write(intLE(artistBytes.length));
-                memoryStream.write(artistBytes);
-
-                memoryStream.write(intLE(albumBytes.length));
-                memoryStream.write(albumBytes);
-
-                int remaining = METADATA_SIZE - totalMetadataLength;
-                if (remaining > 0) {
-                    memoryStream.write(new byte[remaining]);
-                }
-
-                try (var fos = new FileOutputStream(inputFile)) {
-                    memoryStream.writeTo(fos);
-                }
-            }
-
+            writeMetadata(inputFile, title, artist, album);
             System.out.println("[AudioSphere] Metadata successfully added to " + inputFile);
         } catch (Exception ex) {
             System.out.println("[AudioSphere] Error adding metadata: " + ex.getMessage());
@@ -58,60 +34,83 @@ public final class MetadataHandler {
         }
     }
 
-    public static Map<String, String> readMetadata(String inputFile) {
-        Map<String, String> metadata = new HashMap<>();
-        try {
-            byte[] fileBytes = readAllBytes(new File(inputFile));
-            if (fileBytes.length < METADATA_SIZE) {
-                return metadata; // no metadata
-            }
+    /**
+     * Does the work of addMetadata without printing; errors propagate.
+     */
+    static void writeMetadata(String inputFile, String title, String artist, String album) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer block = trailer(title, artist, album);
+
+            // Replace whatever follows the payload (nothing, one trailer, or the
+            // stacked trailers older versions appended on every call) with one block.
+            long payloadEnd = AsphFormat.payloadEnd(channel);
+            AsphFormat.writeFully(channel, payloadEnd, block);
+            channel.truncate(payloadEnd + METADATA_SIZE);
+        }
+    }
 
-            int metaStart = fileBytes.length - METADATA_SIZE;
-            try (var in = new ByteArrayInputStream(fileBytes, metaStart, METADATA_SIZE)) {
-                byte[] lenBuf = in.readNBytes(4);
-                if (lenBuf.length < 4) return metadata;
-                int titleLen = fromIntLE(lenBuf);
-                if (titleLen > 0 && titleLen <= in.available()) {
-                    byte[] titleBytes = in.readNBytes(titleLen);
-                    metadata.put("Title", new String(titleBytes, "UTF-8"));
-                }
+    /**
+     * The METADATA_SIZE-byte trailer holding the three fields.
+     */
+    static ByteBuffer trailer(String title, String artist, String album) {
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] artistBytes = artist.getBytes(StandardCharsets.UTF_8);
+        byte[] albumBytes = album.getBytes(StandardCharsets.UTF_8);
+
+        int totalMetadataLength =
+                4 + titleBytes.length +
+                4 + artistBytes.length +
+                4 + albumBytes.length;
+
+        if (totalMetadataLength > METADATA_SIZE) {
+            throw new IllegalArgumentException("Metadata size exceeds reserved space.");
+        }
 
-                lenBuf = in.readNBytes(4);
-                if (lenBuf.length < 4) return metadata;
-                int artistLen = fromIntLE(lenBuf);
-                if (artistLen > 0 && artistLen <= in.available()) {
-                    byte[] artistBytes = in.readNBytes(artistLen);
-                    metadata.put("Artist", new String(artistBytes, "UTF-8"));
-                }
+        // zero padding for the remainder comes from allocate()
+        ByteBuffer block = ByteBuffer.allocate(METADATA_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(titleBytes.length).put(titleBytes);
+        block.putInt(artistBytes.length).put(artistBytes);
+        block.putInt(albumBytes.length).put(albumBytes);
+        return block.clear();
+    }
 
-                lenBuf = in.readNBytes(4);
-                if (lenBuf.length < 4) return metadata;
-                int albumLen = fromIntLE(lenBuf);
-                if (albumLen > 0 && albumLen <= in.available()) {
-                    byte[] albumBytes = in.readNBytes(albumLen);
-                    metadata.put("Album", new String(albumBytes, "UTF-8"));
-                }
-            }
+    public static Map<String, String> readMetadata(String inputFile) {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ)) {
+            return readMetadata(channel);
         } catch (Exception ex) {
             System.out.println("[AudioSphere] Error reading metadata: " + ex.getMessage());
+            return new HashMap<>();
         }
-
-        return metadata;
     }
 
-    private static byte[] readAllBytes(File f) throws IOException {
-        try (var in = new FileInputStream(f);
-             var baos = new ByteArrayOutputStream()) {
-            in.transferTo(baos);
-            return baos.toByteArray();
+    /**
+     * Does the work of readMetadata on an open file without printing; errors propagate.
+     * Returns an empty map when the file has no trailer.
+     */
+    static Map<String, String> readMetadata(FileChannel channel) throws IOException {
+        Map<String, String> metadata = new HashMap<>();
+        long size = channel.size();
+        if (size - AsphFormat.payloadEnd(channel) < METADATA_SIZE) {
+            return metadata; // no metadata
         }
-    }
 
-    private static byte[] intLE(int value) {
-        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+        ByteBuffer in = AsphFormat.readFully(channel, size - METADATA_SIZE, METADATA_SIZE);
+        readField(in, metadata, "Title");
+        readField(in, metadata, "Artist");
+        readField(in, metadata, "Album");
+        return metadata;
     }
 
-    private static int fromIntLE(byte[] bytes) {
-        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    /**
+     * Reads one length-prefixed UTF-8 field, if there is one left in the block.
+     */
+    private static void readField(ByteBuffer in, Map<String, String> metadata, String key) {
+        if (in.remaining() < 4) return;
+        int len = in.getInt();
+        if (len > 0 && len <= in.remaining()) {
+            byte[] bytes = new byte[len];
+            in.get(bytes);
+            metadata.put(key, new String(bytes, StandardCharsets.UTF_8));
+        }
     }
 }
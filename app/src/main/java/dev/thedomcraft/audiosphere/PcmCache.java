@@ -0,0 +1,268 @@
+package dev.thedomcraft.audiosphere;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide cache of decoded PCM, so replaying, re-decoding or serving the same
+ * track skips AES and inflate.
+ *
+ * Entries are v5 blocks (or whole v4 tracks, which have no blocks) keyed by file
+ * path, modification time and size, so re-encoding or tagging a file simply misses.
+ * The PCM lives off-heap in direct buffers, evicted least-recently-used to make
+ * room for a new entry before it is allocated. The budget is
+ * {@code -Daudiosphere.cache.mb} (default 256, 0 disables the cache), capped at half
+ * the direct-memory limit ({@code -XX:MaxDirectMemorySize}, by default the max heap
+ * size): evicted buffers only free their memory once collected, and a failed
+ * allocateDirect first stalls in System.gc(). If direct memory runs out anyway, the
+ * budget drops to half of what is cached at that point, so later misses evict
+ * instead of allocating into the limit again.
+ *
+ * Concurrent requests for the same entry share one decode: the first caller
+ * loads it, the others wait for that result instead of decoding it again. If the
+ * load fails, waiters retry on their own.
+ *
+ * Evicted buffers are left to the GC rather than recycled, so a reader copying
+ * out of a buffer never races with it being refilled.
+ */
+public final class PcmCache {
+
+    private static final long DEFAULT_BUDGET_MB = 256;
+    private static final PcmCache SHARED = new PcmCache(
+            Long.getLong("audiosphere.cache.mb", DEFAULT_BUDGET_MB) * 1024 * 1024);
+
+    /** Identity of a file's current contents. */
+    record FileKey(Path path, long modified, long size) {
+        static FileKey of(Path path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileKey(path.toAbsolutePath().normalize(),
+                    attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+    }
+
+    private record Key(FileKey file, long block) {}
+
+    /**
+     * @param hits      lookups served from the cache, including waits on another caller's decode
+     * @param shared    the part of {@code hits} that waited on an in-flight decode
+     * @param misses    lookups that had to decode
+     * @param evictions entries dropped to stay within the budget
+     */
+    public record Stats(long hits, long shared, long misses, long evictions, int entries, long bytes, long budget) {}
+
+    @FunctionalInterface
+    interface BlockLoader {
+        /** Decodes the entry into dst[0, length). */
+        void load(byte[] dst) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface TrackLoader {
+        byte[] load() throws IOException;
+    }
+
+    private record Lookup(ByteBuffer hit, CompletableFuture<ByteBuffer> claim) {}
+
+    private volatile long budget; // only lowered, under this
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(256, 0.75f, true); // guarded by this
+    private final ConcurrentHashMap<Key, CompletableFuture<ByteBuffer>> inFlight = new ConcurrentHashMap<>();
+    private long bytes; // guarded by this
+    private long reserved; // guarded by this; allocations in progress
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PcmCache(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("budget must be >= 0, got " + budgetBytes);
+        }
+        this.budget = Math.min(budgetBytes, directMemoryLimit() / 2);
+    }
+
+    public static PcmCache shared() {
+        return SHARED;
+    }
+
+    public boolean enabled() {
+        return budget > 0;
+    }
+
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(hits.sum(), shared.sum(), misses.sum(), evictions.sum(), entries.size(), bytes, budget);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Fills dst[0, length) with block {@code block} of {@code file}, from the cache or
+     * through {@code loader} (which then fills dst itself).
+     */
+    void read(FileKey file, long block, byte[] dst, int length, BlockLoader loader) throws IOException {
+        if (!enabled()) {
+            loader.load(dst);
+            return;
+        }
+
+        Key key = new Key(file, block);
+        Lookup lookup = lookup(key);
+        if (lookup.hit() != null) {
+            lookup.hit().get(0, dst, 0, length);
+            return;
+        }
+
+        ByteBuffer stored = null;
+        try {
+            loader.load(dst);
+            stored = store(key, dst, length);
+        } finally {
+            release(key, lookup.claim(), stored);
+        }
+    }
+
+    /**
+     * Returns the whole decoded track (v4 files), from the cache or through {@code loader}.
+     * Callers get their own copy.
+     */
+    byte[] readAll(FileKey file, TrackLoader loader) throws IOException {
+        if (!enabled()) {
+            return loader.load();
+        }
+
+        Key key = new Key(file, -1);
+        Lookup lookup = lookup(key);
+        if (lookup.hit() != null) {
+            byte[] copy = new byte[lookup.hit().capacity()];
+            lookup.hit().get(0, copy);
+            return copy;
+        }
+
+        ByteBuffer result = null;
+        try {
+            byte[] data = loader.load();
+            result = store(key, data, data.length);
+            return data;
+        } finally {
+            release(key, lookup.claim(), result);
+        }
+    }
+
+    // --------- internals ---------
+
+    /**
+     * Either a cached (or just decoded by someone else) buffer, or a claim: the
+     * caller must load the entry and then release() the claim.
+     */
+    private Lookup lookup(Key key) {
+        while (true) {
+            synchronized (this) {
+                ByteBuffer hit = entries.get(key);
+                if (hit != null) {
+                    hits.increment();
+                    return new Lookup(hit, null);
+                }
+            }
+
+            CompletableFuture<ByteBuffer> claim = new CompletableFuture<>();
+            CompletableFuture<ByteBuffer> pending = inFlight.putIfAbsent(key, claim);
+            if (pending == null) {
+                misses.increment();
+                return new Lookup(null, claim);
+            }
+
+            ByteBuffer result = pending.join();
+            if (result != null) {
+                hits.increment();
+                shared.increment();
+                return new Lookup(result, null);
+            }
+            // that load failed or wasn't cacheable: try again, possibly loading it ourselves
+        }
+    }
+
+    private void release(Key key, CompletableFuture<ByteBuffer> claim, ByteBuffer result) {
+        inFlight.remove(key, claim);
+        claim.complete(result);
+    }
+
+    /**
+     * Evicts the least recently used entries until {@code length} more bytes fit,
+     * reserves them, and copies data into a new direct buffer. Returns null when
+     * the entry is not worth caching (over a quarter of the budget) or direct
+     * memory ran out.
+     */
+    private ByteBuffer store(Key key, byte[] data, int length) {
+        synchronized (this) {
+            if (length > budget / 4) {
+                return null;
+            }
+            Iterator<Map.Entry<Key, ByteBuffer>> eldest = entries.entrySet().iterator();
+            while (bytes + reserved + length > budget && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().capacity();
+                eldest.remove();
+                evictions.increment();
+            }
+            reserved += length;
+        }
+
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(length);
+        } catch (OutOfMemoryError ex) {
+            synchronized (this) {
+                reserved -= length;
+                // evicted buffers free their memory only once collected, so leave room
+                // for them below what fitted; repeated failures shrink the cache to nothing
+                budget = Math.min(budget, bytes / 2);
+            }
+            return null;
+        }
+        buffer.put(0, data, 0, length);
+
+        synchronized (this) {
+            reserved -= length;
+            ByteBuffer previous = entries.put(key, buffer);
+            if (previous != null) {
+                bytes -= previous.capacity();
+            }
+            bytes += length;
+        }
+        return buffer;
+    }
+
+    /**
+     * The JVM's direct-memory limit: -XX:MaxDirectMemorySize, or the max heap size
+     * when it is not set (or the VM doesn't say).
+     */
+    private static long directMemoryLimit() {
+        try {
+            String value = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                    .getVMOption("MaxDirectMemorySize").getValue();
+            long limit = Long.parseLong(value);
+            if (limit > 0) {
+                return limit;
+            }
+        } catch (RuntimeException ex) {
+            // not HotSpot, or jdk.management missing: fall back to the default
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+}
@@ -0,0 +1,298 @@
+package dev.thedomcraft.audiosphere;
+
+/**
+ * Sample-domain DSP for PCM: gain, channel mixdown and requantisation with TPDF
+ * dither. Samples are unpacked to normalised floats in [-1, 1), processed, and
+ * packed back to PCM_SIGNED little-endian.
+ *
+ * The arithmetic runs through {@link Kernels}: the Vector API implementation when
+ * the JVM was started with {@code --add-modules jdk.incubator.vector}, plain loops
+ * otherwise ({@code -Daudiosphere.dsp=scalar} forces those). Both produce
+ * bit-identical output, dither included: the noise for sample k is a hash of k,
+ * not a stream that depends on the lane count.
+ *
+ * Unpacking and packing are scalar. Viewing a byte[] as shorts/ints through the
+ * Vector API needs the FFM API, which is still a preview in Java 21.
+ *
+ * Converting between any of the supported integer depths without a reduction is
+ * exact: every 8/16/24-bit value is representable as a float scaled by a power of two.
+ */
+final class PcmDsp {
+
+    private PcmDsp() {}
+
+    /**
+     * Float-array kernels. Implementations must produce identical results.
+     */
+    interface Kernels {
+        void scale(float[] x, int n, float gain);
+
+        /**
+         * out[f*outCh + o] = sum over i of weights[o*inCh + i] * in[f*inCh + i], summed in channel order.
+         */
+        void mix(float[] in, int frames, int inChannels, float[] weights, float[] out, int outChannels);
+
+        /**
+         * out[i] = clamp(round(x[i] * scale + dither(k0 + i)), min, max) where dither is
+         * TPDF noise of +-1 LSB (or 0 when {@code dither} is false).
+         */
+        void quantize(float[] x, int n, float scale, boolean dither, int k0, int min, int max, int[] out);
+
+        /**
+         * The largest |sum over k of taps[k] * x[i - k]| for i in [from, to), summed
+         * in tap order; {@code from} must be at least taps.length - 1.
+         */
+        float firPeak(float[] x, int from, int to, float[] taps);
+    }
+
+    static final Kernels KERNELS = selectKernels();
+
+    private static Kernels selectKernels() {
+        boolean vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if (vectorModule && !"scalar".equals(System.getProperty("audiosphere.dsp"))) {
+            return new VectorKernels();
+        }
+        return new ScalarKernels();
+    }
+
+    static String implementation() {
+        return KERNELS instanceof ScalarKernels ? "scalar" : "vector";
+    }
+
+    // --------- dither noise (shared by both kernel sets) ---------
+
+    static final float NOISE_SCALE = 1.0f / (1 << 24);
+
+    /**
+     * lowbias32 integer hash; the top 24 bits give a uniform float in [0, 1).
+     */
+    static int hash(int x) {
+        x ^= x >>> 16;
+        x *= 0x7feb352d;
+        x ^= x >>> 15;
+        x *= 0x846ca68b;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    /**
+     * Triangular noise in (-1, 1) LSB for sample k: the difference of two uniforms.
+     */
+    static float tpdf(int k) {
+        return ((hash(2 * k) >>> 8) - (hash(2 * k + 1) >>> 8)) * NOISE_SCALE;
+    }
+
+    // --------- packing ---------
+
+    /**
+     * Unpacks {@code samples} samples (not frames) of integer PCM to floats in [-1, 1).
+     * 8-bit input may be unsigned (as in WAV files); wider input may be big-endian.
+     * 32-bit float input is passed through, 64-bit float is narrowed.
+     */
+    static void toFloat(byte[] src, int off, int samples, int bits, boolean signed, boolean bigEndian,
+                        boolean floatingPoint, float[] dst) {
+        if (floatingPoint && bits == 64) {
+            for (int i = 0, p = off; i < samples; i++, p += 8) {
+                long lo = (bigEndian ? readBE(src, p + 4, 4) : readLE(src, p, 4)) & 0xFFFFFFFFL;
+                long hi = (bigEndian ? readBE(src, p, 4) : readLE(src, p + 4, 4)) & 0xFFFFFFFFL;
+                dst[i] = (float) Double.longBitsToDouble(hi << 32 | lo);
+            }
+            return;
+        }
+        if (floatingPoint) {
+            for (int i = 0, p = off; i < samples; i++, p += 4) {
+                dst[i] = Float.intBitsToFloat(bigEndian ? readBE(src, p, 4) : readLE(src, p, 4));
+            }
+            return;
+        }
+        int bytes = bits / 8;
+        float scale = 1.0f / (1L << (bits - 1));
+        if (bytes == 1) {
+            int bias = signed ? 0 : 128;
+            for (int i = 0; i < samples; i++) {
+                int v = signed ? src[off + i] : (src[off + i] & 0xFF) - bias;
+                dst[i] = v * scale;
+            }
+            return;
+        }
+        int shift = 32 - bits;
+        for (int i = 0, p = off; i < samples; i++, p += bytes) {
+            int raw = bigEndian ? readBE(src, p, bytes) : readLE(src, p, bytes);
+            dst[i] = ((raw << shift) >> shift) * scale;
+        }
+    }
+
+    /**
+     * Packs integer samples to PCM_SIGNED little-endian.
+     */
+    static void pack(int[] src, int samples, int bits, byte[] dst, int off) {
+        switch (bits) {
+            case 8 -> {
+                for (int i = 0; i < samples; i++) {
+                    dst[off + i] = (byte) src[i];
+                }
+            }
+            case 16 -> {
+                for (int i = 0, p = off; i < samples; i++, p += 2) {
+                    int v = src[i];
+                    dst[p] = (byte) v;
+                    dst[p + 1] = (byte) (v >> 8);
+                }
+            }
+            default -> {
+                for (int i = 0, p = off; i < samples; i++, p += 3) {
+                    int v = src[i];
+                    dst[p] = (byte) v;
+                    dst[p + 1] = (byte) (v >> 8);
+                    dst[p + 2] = (byte) (v >> 16);
+                }
+            }
+        }
+    }
+
+    private static int readLE(byte[] b, int p, int bytes) {
+        int v = 0;
+        for (int i = bytes - 1; i >= 0; i--) {
+            v = (v << 8) | (b[p + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static int readBE(byte[] b, int p, int bytes) {
+        int v = 0;
+        for (int i = 0; i < bytes; i++) {
+            v = (v << 8) | (b[p + i] & 0xFF);
+        }
+        return v;
+    }
+
+    // --------- higher-level operations ---------
+
+    /**
+     * Quantises normalised floats to {@code bits}-bit integers.
+     */
+    static void quantize(float[] x, int n, int bits, boolean dither, int k0, int[] out) {
+        int max = (1 << (bits - 1)) - 1;
+        KERNELS.quantize(x, n, (float) (1L << (bits - 1)), dither, k0, -max - 1, max, out);
+    }
+
+    /**
+     * Downmix matrix (row per output channel) for WAV channel order
+     * (FL, FR, FC, LFE, BL, BR, SL, SR, ...). Centre and surrounds go to both sides at
+     * -3 dB, LFE is dropped, anything beyond 8 channels alternates left/right. Rows are
+     * normalised so a full-scale signal on every input cannot clip.
+     */
+    static float[] mixdownWeights(int inChannels, int outChannels) {
+        double[] left = new double[inChannels];
+        double[] right = new double[inChannels];
+        double side = Math.sqrt(0.5);
+        for (int c = 0; c < inChannels; c++) {
+            switch (inChannels <= 2 ? c : Math.min(c, 8)) {
+                case 0 -> left[c] = 1;
+                case 1 -> right[c] = 1;
+                case 2 -> left[c] = right[c] = side;
+                case 3 -> { } // LFE
+                case 4, 6 -> left[c] = side;
+                case 5, 7 -> right[c] = side;
+                default -> {
+                    if (c % 2 == 0) left[c] = side;
+                    else right[c] = side;
+                }
+            }
+        }
+        if (inChannels == 1) {
+            right[0] = 1;
+        }
+
+        float[] weights = new float[outChannels * inChannels];
+        if (outChannels == 1) {
+            double sum = 0;
+            for (int c = 0; c < inChannels; c++) sum += left[c] + right[c];
+            for (int c = 0; c < inChannels; c++) weights[c] = (float) ((left[c] + right[c]) / sum);
+        } else {
+            double sumL = 0, sumR = 0;
+            for (int c = 0; c < inChannels; c++) {
+                sumL += left[c];
+                sumR += right[c];
+            }
+            for (int c = 0; c < inChannels; c++) {
+                weights[c] = (float) (left[c] / sumL);
+                weights[inChannels + c] = (float) (right[c] / sumR);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * In-place software volume for PCM_SIGNED little-endian (the player's volume
+     * control). {@code floats} and {@code ints} must hold len / (bits/8) samples.
+     */
+    static void applyGain(byte[] pcm, int off, int len, int bits, float gain, float[] floats, int[] ints) {
+        int samples = len / (bits / 8);
+        toFloat(pcm, off, samples, bits, true, false, false, floats);
+        KERNELS.scale(floats, samples, gain);
+        quantize(floats, samples, bits, false, 0, ints);
+        pack(ints, samples, bits, pcm, off);
+    }
+
+    /**
+     * Scalar mix of frames [from, to); also the tail of the vector kernel.
+     */
+    static void mixRange(float[] in, int from, int to, int inChannels, float[] weights, float[] out, int outChannels) {
+        for (int f = from; f < to; f++) {
+            for (int o = 0; o < outChannels; o++) {
+                float acc = 0;
+                for (int i = 0; i < inChannels; i++) {
+                    acc += weights[o * inChannels + i] * in[f * inChannels + i];
+                }
+                out[f * outChannels + o] = acc;
+            }
+        }
+    }
+
+    // --------- scalar kernels ---------
+
+    static final class ScalarKernels implements Kernels {
+
+        @Override
+        public void scale(float[] x, int n, float gain) {
+            for (int i = 0; i < n; i++) {
+                x[i] *= gain;
+            }
+        }
+
+        @Override
+        public void mix(float[] in, int frames, int inChannels, float[] weights, float[] out, int outChannels) {
+            mixRange(in, 0, frames, inChannels, weights, out, outChannels);
+        }
+
+        @Override
+        public void quantize(float[] x, int n, float scale, boolean dither, int k0, int min, int max, int[] out) {
+            for (int i = 0; i < n; i++) {
+                float v = x[i] * scale;
+                if (dither) {
+                    v += tpdf(k0 + i);
+                }
+                v += v < 0 ? -0.5f : 0.5f;
+                out[i] = (int) Math.max(min, Math.min(max, v));
+            }
+        }
+
+        @Override
+        public float firPeak(float[] x, int from, int to, float[] taps) {
+            return firPeakRange(x, from, to, taps);
+        }
+    }
+
+    static float firPeakRange(float[] x, int from, int to, float[] taps) {
+        float peak = 0.0f;
+        for (int i = from; i < to; i++) {
+            float acc = 0.0f;
+            for (int k = 0; k < taps.length; k++) {
+                acc += taps[k] * x[i - k];
+            }
+            peak = Math.max(peak, Math.abs(acc));
+        }
+        return peak;
+    }
+}
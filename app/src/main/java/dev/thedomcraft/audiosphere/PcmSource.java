@@ -0,0 +1,52 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Seekable source of decoded PCM (PCM_SIGNED, little-endian) from an ASPH file.
+ * Positions are in sample frames.
+ */
+public interface PcmSource extends Closeable {
+
+    AsphFormat.Header header();
+
+    /**
+     * Reads decoded PCM into {@code b}. Returns the number of bytes read (always a
+     * whole number of frames when {@code len} is), or -1 at the end of the track.
+     */
+    int read(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Moves to {@code sample}, clamped to [0, totalSamples].
+     */
+    void seek(long sample) throws IOException;
+
+    long position();
+
+    default long totalSamples() {
+        return header().totalSamples();
+    }
+
+    /**
+     * Opens an ASPH file for decoding. Both versions are streamed; v5 seeks through
+     * the block index, v4 has to inflate (or restart) up to the target. v5 blocks
+     * are read through the shared {@link PcmCache}.
+     */
+    static PcmSource open(String inputFile) throws IOException {
+        Path path = Path.of(inputFile);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (AsphFormat.probeVersion(channel) == AsphFormat.VERSION_5) {
+                return BlockInputStream.open(channel, PcmCache.FileKey.of(path));
+            }
+            return V4StreamPcmSource.open(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+}
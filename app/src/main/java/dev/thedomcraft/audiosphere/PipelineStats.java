@@ -0,0 +1,183 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide byte and time counters for each stage of the encode, decode and
+ * playback pipelines, so a slow run shows whether WAV ingest, conversion, GZip,
+ * AES or file I/O is to blame.
+ *
+ * Stages are timed per block (or per read/write call) through {@link StageEvent},
+ * which also emits a JFR event when a recording is running. Outside a recording
+ * the cost is two nanoTime() calls and three LongAdder updates per block, so the
+ * counters are always on.
+ *
+ * Times are summed over threads: with a parallel encode, compress and encrypt can
+ * add up to more than the wall-clock time.
+ */
+public final class PipelineStats {
+
+    private PipelineStats() {}
+
+    public enum Stage {
+        /** Reading PCM from the input WAV (mapped reads, or Java Sound decoding). */
+        INGEST("ingest"),
+        /** Sample format, channel and rate conversion; the player's software volume. */
+        CONVERT("convert"),
+        /** Waveform peaks and loudness measured during an encode (see AudioAnalysis). */
+        ANALYSE("analyse"),
+        COMPRESS("compress"),
+        ENCRYPT("encrypt"),
+        /** Writing ASPH blocks, seek index and header. */
+        WRITE("write"),
+        /** Reading ASPH payload from disk. */
+        READ("read"),
+        DECRYPT("decrypt"),
+        /** Inflating or lossless decoding; for streamed v4 playback it includes decrypt and read. */
+        DECOMPRESS("decompress"),
+        /** Writing the decoded WAV, or handing PCM to the audio line. */
+        OUTPUT("output");
+
+        private final String label;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        void add(long byteCount, long elapsedNanos) {
+            calls.increment();
+            bytes.add(byteCount);
+            nanos.add(elapsedNanos);
+        }
+    }
+
+    /**
+     * @param bytes bytes that went into the stage (PCM for codecs, file bytes for I/O)
+     * @param nanos time spent in the stage, summed over threads
+     */
+    public record StageStats(Stage stage, long calls, long bytes, long nanos) {
+
+        /** Throughput in MB/s (10^6 bytes), 0 when nothing was timed. */
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes * 1000.0 / nanos;
+        }
+    }
+
+    /**
+     * Counters of every stage, in pipeline order.
+     */
+    public static List<StageStats> snapshot() {
+        List<StageStats> stats = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            stats.add(new StageStats(stage, stage.calls.sum(), stage.bytes.sum(), stage.nanos.sum()));
+        }
+        return stats;
+    }
+
+    public static void reset() {
+        for (Stage stage : Stage.values()) {
+            stage.calls.reset();
+            stage.bytes.reset();
+            stage.nanos.reset();
+        }
+    }
+
+    /**
+     * The counters (stages that never ran are left out) and the PCM cache
+     * statistics as a JSON object; {@code wallNanos} is the caller's elapsed time.
+     */
+    public static String toJson(long wallNanos) {
+        StringBuilder json = new StringBuilder("{\n  \"wallNanos\": ").append(wallNanos)
+                .append(",\n  \"stages\": {");
+        boolean first = true;
+        for (StageStats s : snapshot()) {
+            if (s.calls() == 0) {
+                continue;
+            }
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    ").append(Utilities.jsonString(s.stage().label()))
+                    .append(": {\"calls\": ").append(s.calls())
+                    .append(", \"bytes\": ").append(s.bytes())
+                    .append(", \"nanos\": ").append(s.nanos())
+                    .append(", \"mbPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", s.megabytesPerSecond()))
+                    .append('}');
+        }
+        json.append(first ? "},\n" : "\n  },\n");
+
+        PcmCache.Stats cache = PcmCache.shared().stats();
+        json.append("  \"cache\": {\"hits\": ").append(cache.hits())
+                .append(", \"sharedDecodes\": ").append(cache.shared())
+                .append(", \"misses\": ").append(cache.misses())
+                .append(", \"evictions\": ").append(cache.evictions())
+                .append(", \"bytes\": ").append(cache.bytes())
+                .append("}\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Times every read of {@code in} as {@code stage}.
+     */
+    static InputStream timed(InputStream in, Stage stage) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                StageEvent timer = StageEvent.begin(stage);
+                int b = in.read();
+                timer.end(b < 0 ? 0 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                StageEvent timer = StageEvent.begin(stage);
+                int n = in.read(b, off, len);
+                timer.end(Math.max(0, n));
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Times every write to {@code out} as {@code stage}.
+     */
+    static OutputStream timed(OutputStream out, Stage stage) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                StageEvent timer = StageEvent.begin(stage);
+                out.write(b);
+                timer.end(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                StageEvent timer = StageEvent.begin(stage);
+                out.write(b, off, len);
+                timer.end(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                StageEvent timer = StageEvent.begin(stage);
+                out.flush();
+                timer.end(0);
+            }
+        };
+    }
+}
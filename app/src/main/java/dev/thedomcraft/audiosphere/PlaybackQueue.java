@@ -0,0 +1,166 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The tracks of a playlist, opened one ahead of the renderer.
+ *
+ * When the renderer takes a track, the next one is opened on a virtual thread and
+ * its {@link ReadAheadPcm} starts decoding right away, so by the time the current
+ * track ends the next one's ring is already full and its first chunk can follow
+ * the last chunk of the current one on the same line without a gap.
+ *
+ * Tracks that fail to open are reported and skipped by the prefetch thread. With
+ * {@code loop} the playlist wraps around; it ends once a whole pass has failed.
+ */
+final class PlaybackQueue implements Closeable {
+
+    /**
+     * An open track whose read-ahead is already running; {@code index} is its
+     * position in the playlist.
+     */
+    record Track(String path, int index, PcmSource source, ReadAheadPcm readAhead,
+                 Map<String, String> metadata, long totalBytes) implements Closeable {
+
+        AudioFormat format() {
+            return source.header().audioFormat();
+        }
+
+        float bytesPerSecond() {
+            AudioFormat format = format();
+            return format.getFrameRate() * format.getFrameSize();
+        }
+
+        @Override
+        public void close() {
+            readAhead.close();
+            try {
+                source.close();
+            } catch (IOException ignored) {
+                // read-only; nothing to lose
+            }
+        }
+    }
+
+    private final List<String> paths;
+    private final boolean loop;
+    private CompletableFuture<Track> pending; // only touched by the renderer thread, then close()
+
+    PlaybackQueue(List<String> paths, boolean loop) {
+        this.paths = List.copyOf(paths);
+        this.loop = loop;
+        this.pending = prefetch(0);
+    }
+
+    int size() {
+        return paths.size();
+    }
+
+    /**
+     * Waits for the prefetched track and starts opening the one after it.
+     * Returns null at the end of the playlist.
+     */
+    Track next() throws InterruptedException {
+        Track track;
+        try {
+            track = pending.get();
+        } catch (ExecutionException ex) {
+            track = null; // prefetch() never completes exceptionally
+        }
+        pending = track == null ? CompletableFuture.completedFuture(null) : prefetch(track.index() + 1);
+        return track;
+    }
+
+    /**
+     * Closes the prefetched track, once it is open. Tracks returned by next()
+     * belong to the caller.
+     */
+    @Override
+    public void close() {
+        pending.thenAccept(track -> {
+            if (track != null) {
+                track.close();
+            }
+        });
+    }
+
+    /**
+     * Reads an M3U playlist: one path per line, relative to the playlist's
+     * directory; blank lines and #-comments (including #EXTINF) are ignored.
+     */
+    static List<String> readPlaylist(Path playlist) throws IOException {
+        Path base = playlist.toAbsolutePath().getParent();
+        List<String> files = new ArrayList<>();
+        for (String line : Files.readAllLines(playlist, StandardCharsets.UTF_8)) {
+            String entry = line.replace("\uFEFF", "").strip(); // UTF-8 BOM of .m3u8 files
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            files.add(base.resolve(entry).toString());
+        }
+        return files;
+    }
+
+    static boolean isPlaylist(String file) {
+        String name = file.toLowerCase(Locale.ROOT);
+        return name.endsWith(".m3u") || name.endsWith(".m3u8");
+    }
+
+    // --------- internals ---------
+
+    private CompletableFuture<Track> prefetch(int start) {
+        CompletableFuture<Track> future = new CompletableFuture<>();
+        Thread.ofVirtual().name("asph-prefetch").start(() -> future.complete(openFrom(start)));
+        return future;
+    }
+
+    /**
+     * The first track from {@code start} on that opens, or null.
+     */
+    private Track openFrom(int start) {
+        for (int attempt = 0; attempt < paths.size(); attempt++) {
+            int index = start + attempt;
+            if (index >= paths.size()) {
+                if (!loop) {
+                    return null;
+                }
+                index %= paths.size();
+            }
+            String path = paths.get(index);
+            try {
+                return open(path, index);
+            } catch (NoSuchFileException ex) {
+                System.out.printf("%n[AudioSphere] Skipping %s: file not found%n", path);
+            } catch (Exception ex) {
+                System.out.printf("%n[AudioSphere] Skipping %s: %s%n", path, ex.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private static Track open(String path, int index) throws IOException {
+        PcmSource source = PcmSource.open(path);
+        try {
+            Map<String, String> metadata = MetadataHandler.readMetadata(path);
+            ReadAheadPcm readAhead = new ReadAheadPcm(source,
+                    AudioSpherePlayer.CHUNK_BYTES, AudioSpherePlayer.CHUNK_COUNT).start();
+            return new Track(path, index, source, readAhead, metadata,
+                    source.totalSamples() * source.header().frameSize());
+        } catch (RuntimeException ex) {
+            source.close();
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The audio side of the player. Runs on its own max-priority platform thread
+ * and does nothing but move chunks from the read-ahead pipeline into the line:
+ * no formatting, no console output, no boxing.
+ *
+ * Everything the UI and key threads touch is a primitive atomic. Controls are
+ * requests the render loop picks up between writes (seek, pause, volume).
+ *
+ * Volume is applied in software with {@link PcmDsp#applyGain} on each chunk before
+ * it is written, so it behaves the same on every mixer (many lines have no
+ * MASTER_GAIN) and is skipped entirely at full volume. Because gain lands before
+ * the line's buffer, a change is heard after the buffered audio has played.
+ *
+ * Gain and line writes are counted as the CONVERT and OUTPUT stages of
+ * {@link PipelineStats}; an OUTPUT write blocks while the line is full, so its
+ * time is mostly the device's pace, not work.
+ *
+ * Tracks come from a {@link PlaybackQueue}. When the next track has the same
+ * format, its first chunk is written right after the last chunk of the current
+ * one on the same open line, so the switch is sample-accurate and gapless. Only a
+ * format change drains and reopens the line.
+ *
+ * An underrun is counted when a write finds the line's buffer completely empty
+ * although it has been fed since the last start, seek or resume, i.e. the device
+ * ran dry and played silence. That includes a track switch that came too late.
+ */
+final class PlaybackRenderer implements Runnable {
+
+    private static final long NO_SEEK = -1;
+    private static final long PAUSE_POLL_NANOS = 20_000_000;
+
+    private final PlaybackQueue queue;
+
+    private volatile PlaybackQueue.Track track; // the one playing, or the last one played
+    private final Queue<PlaybackQueue.Track> started = new ConcurrentLinkedQueue<>(); // for the UI to announce
+    private final AtomicLong position = new AtomicLong(); // byte offset in the track's PCM handed to the line
+    private final AtomicLong seekTarget = new AtomicLong(NO_SEEK); // pending seek (bytes)
+    private final AtomicInteger volumeBits = new AtomicInteger(Float.floatToIntBits(1.0f));
+    private final AtomicLong underruns = new AtomicLong();
+
+    private volatile boolean paused;
+    private volatile boolean skip;
+    private volatile boolean stopped;
+    private volatile Exception error;
+
+    PlaybackRenderer(PlaybackQueue queue) {
+        this.queue = queue;
+    }
+
+    Thread start() {
+        return Thread.ofPlatform()
+                .name("asph-render")
+                .priority(Thread.MAX_PRIORITY)
+                .daemon(true)
+                .start(this);
+    }
+
+    @Override
+    public void run() {
+        SourceDataLine line = null;
+        PlaybackQueue.Track current = null;
+        try {
+            current = queue.next();
+            while (current != null && !stopped) {
+                track = current;
+                started.offer(current);
+                position.set(0);
+                seekTarget.set(NO_SEEK);
+                AudioFormat format = current.format();
+                if (line == null || !line.getFormat().matches(format)) {
+                    if (line != null) {
+                        line.drain();
+                        line.close();
+                    }
+                    line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+                    line.open(format);
+                    line.start();
+                }
+
+                render(current, line);
+
+                current.close();
+                current = stopped ? null : queue.next();
+            }
+
+            if (line != null && !stopped) {
+                line.drain();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            error = ex;
+        } finally {
+            if (current != null) {
+                current.close();
+            }
+            if (line != null) {
+                line.close();
+            }
+        }
+    }
+
+    /**
+     * Plays one track into the open line until it ends, is skipped or playback stops.
+     */
+    private void render(PlaybackQueue.Track current, SourceDataLine line) throws IOException, InterruptedException {
+        ReadAheadPcm readAhead = current.readAhead();
+        AudioFormat format = line.getFormat();
+        int frameSize = format.getFrameSize();
+        int bits = format.getSampleSizeInBits();
+        int chunkSamples = AudioSpherePlayer.CHUNK_BYTES / (bits / 8);
+        float[] gainFloats = new float[chunkSamples];
+        int[] gainInts = new int[chunkSamples];
+        // the line may still hold the previous track: it counts as fed
+        boolean fed = line.available() < line.getBufferSize();
+
+        while (!stopped) {
+            if (skip) {
+                skip = false;
+                line.flush();
+                return;
+            }
+            if (paused) {
+                if (line.isRunning()) {
+                    line.stop();
+                }
+                LockSupport.parkNanos(this, PAUSE_POLL_NANOS);
+                continue;
+            }
+            if (!line.isRunning()) {
+                line.start();
+            }
+
+            long seekTo = seekTarget.getAndSet(NO_SEEK);
+            if (seekTo != NO_SEEK) {
+                // the decode thread repositions; stale chunks are dropped by take()
+                readAhead.seek(seekTo / frameSize);
+                position.set(seekTo / frameSize * frameSize);
+                line.flush();
+                fed = false;
+            }
+
+            ReadAheadPcm.Chunk chunk = readAhead.take();
+            if (chunk.isEnd()) {
+                readAhead.recycle(chunk);
+                position.set(current.totalBytes());
+                return;
+            }
+
+            float volume = volume();
+            if (volume != 1.0f) {
+                StageEvent gainTimer = StageEvent.begin(PipelineStats.Stage.CONVERT);
+                PcmDsp.applyGain(chunk.data, 0, chunk.length, bits, volume, gainFloats, gainInts);
+                gainTimer.end(chunk.length);
+            }
+
+            if (fed && line.available() >= line.getBufferSize()) {
+                underruns.incrementAndGet();
+            }
+            StageEvent outputTimer = StageEvent.begin(PipelineStats.Stage.OUTPUT);
+            int written = line.write(chunk.data, 0, chunk.length);
+            outputTimer.end(written);
+            fed = true;
+            position.set(chunk.sample * frameSize + written);
+            readAhead.recycle(chunk);
+        }
+    }
+
+    // --------- controls (any thread) ---------
+
+    /**
+     * The next track the renderer has started since the last call, or null; lets
+     * the UI announce every track, even one too short to be seen by track().
+     */
+    PlaybackQueue.Track pollStarted() {
+        return started.poll();
+    }
+
+    long position() {
+        return position.get();
+    }
+
+    /**
+     * The track playing (or the last one played); null until the first one is open.
+     */
+    PlaybackQueue.Track track() {
+        return track;
+    }
+
+    long underruns() {
+        return underruns.get();
+    }
+
+    Exception error() {
+        return error;
+    }
+
+    /**
+     * Requests a jump to {@code bytes}, clamped to the track.
+     */
+    void seek(long bytes) {
+        PlaybackQueue.Track current = track;
+        if (current != null) {
+            seekTarget.set(Math.max(0, Math.min(current.totalBytes(), bytes)));
+        }
+    }
+
+    /**
+     * Where a relative seek should start from: a seek the render loop hasn't picked
+     * up yet, so repeated presses stack, otherwise the current position.
+     */
+    long seekBase() {
+        long pending = seekTarget.get();
+        return pending != NO_SEEK ? pending : position.get();
+    }
+
+    boolean togglePause() {
+        paused = !paused;
+        return paused;
+    }
+
+    float volume() {
+        return Float.intBitsToFloat(volumeBits.get());
+    }
+
+    float adjustVolume(float delta) {
+        int bits = volumeBits.updateAndGet(
+                b -> Float.floatToIntBits(Math.max(0.0f, Math.min(1.0f, Float.intBitsToFloat(b) + delta))));
+        return Float.intBitsToFloat(bits);
+    }
+
+    /**
+     * Requests a jump to the next track, dropping what the line still holds.
+     */
+    void skip() {
+        skip = true;
+    }
+
+    void stop() {
+        stopped = true;
+    }
+}
@@ -0,0 +1,168 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Producer/consumer pipeline between a PcmSource and the audio thread.
+ *
+ * A virtual thread decrypts and inflates into a fixed ring of preallocated
+ * chunks; the audio thread takes filled chunks and hands them back with
+ * recycle(). Heap use is chunkCount * chunkBytes no matter how long the track
+ * is, and playback can start as soon as the first chunk is filled.
+ *
+ * Seeks are tagged with a generation number. The producer repositions the source
+ * when it sees a new generation, and take() drops chunks from older ones, so
+ * audio from before a seek is never played.
+ */
+final class ReadAheadPcm implements Closeable {
+
+    /**
+     * One slot of the ring. {@code length} is -1 for the end-of-track marker.
+     */
+    static final class Chunk {
+        final byte[] data;
+        int length;
+        long sample;
+        long generation;
+        IOException error;
+
+        Chunk(int capacity) {
+            this.data = new byte[capacity];
+        }
+
+        boolean isEnd() {
+            return length < 0;
+        }
+    }
+
+    private record SeekRequest(long generation, long sample) {}
+
+    private final PcmSource source;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<Chunk> free;
+    private final AtomicReference<SeekRequest> seekRequest = new AtomicReference<>(new SeekRequest(0, -1));
+    private final Thread producer;
+
+    private volatile boolean closed;
+
+    ReadAheadPcm(PcmSource source, int chunkBytes, int chunkCount) {
+        this.source = source;
+        this.filled = new ArrayBlockingQueue<>(chunkCount);
+        this.free = new ArrayBlockingQueue<>(chunkCount);
+        int frameSize = source.header().frameSize();
+        int capacity = Math.max(1, chunkBytes / frameSize) * frameSize;
+        for (int i = 0; i < chunkCount; i++) {
+            free.add(new Chunk(capacity));
+        }
+        this.producer = Thread.ofVirtual().name("asph-read-ahead").unstarted(this::produce);
+    }
+
+    ReadAheadPcm start() {
+        producer.start();
+        return this;
+    }
+
+    /**
+     * Blocks until the next chunk of the current generation is available.
+     */
+    Chunk take() throws IOException, InterruptedException {
+        while (true) {
+            Chunk chunk = filled.take();
+            if (chunk.generation != seekRequest.get().generation()) {
+                recycle(chunk);
+                continue;
+            }
+            if (chunk.error != null) {
+                IOException error = chunk.error;
+                recycle(chunk);
+                throw error;
+            }
+            return chunk;
+        }
+    }
+
+    void recycle(Chunk chunk) {
+        chunk.error = null;
+        free.offer(chunk);
+    }
+
+    /**
+     * Request a jump to {@code sample}; chunks decoded before the request are dropped.
+     */
+    void seek(long sample) {
+        seekRequest.updateAndGet(current -> new SeekRequest(current.generation() + 1, sample));
+        LockSupport.unpark(producer);
+    }
+
+    /**
+     * Stops the producer and waits for it to exit, so the source can be closed
+     * right after without racing a read or seek still in progress.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        producer.interrupt();
+        try {
+            producer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void produce() {
+        long generation = 0;
+        boolean atEnd = false;
+        try {
+            while (!closed) {
+                SeekRequest request = seekRequest.get();
+                if (request.generation() != generation) {
+                    generation = request.generation();
+                    atEnd = false;
+                    try {
+                        source.seek(request.sample());
+                    } catch (IOException ex) {
+                        publishError(ex, generation);
+                        atEnd = true;
+                        continue;
+                    }
+                }
+
+                if (atEnd) {
+                    // nothing to do until the consumer seeks (e.g. to loop)
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                Chunk chunk = free.take();
+                chunk.generation = generation;
+                chunk.sample = source.position();
+                try {
+                    chunk.length = source.read(chunk.data, 0, chunk.data.length);
+                } catch (IOException ex) {
+                    chunk.length = -1;
+                    chunk.error = ex;
+                }
+                atEnd = chunk.length < 0;
+                filled.put(chunk);
+            }
+        } catch (InterruptedException ignored) {
+            // closed
+        }
+    }
+
+    private void publishError(IOException error, long generation) throws InterruptedException {
+        Chunk chunk = free.take();
+        chunk.generation = generation;
+        chunk.length = -1;
+        chunk.error = error;
+        filled.put(chunk);
+    }
+}
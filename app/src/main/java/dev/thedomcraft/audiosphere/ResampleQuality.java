@@ -0,0 +1,43 @@
+package dev.thedomcraft.audiosphere;
+
+/**
+ * Filter presets for the encoder's sample-rate converter (used only when a WAV's
+ * rate is outside 8–96 kHz). Each is a Kaiser-windowed sinc low-pass:
+ *
+ * @param zeroCrossings sinc zero crossings on each side of the centre tap; the
+ *                      filter is 2 * zeroCrossings / cutoff input samples long
+ * @param cutoff        -6 dB point as a fraction of the lower Nyquist frequency,
+ *                      placed so the stopband starts at about Nyquist
+ * @param beta          Kaiser window shape; stopband attenuation is roughly
+ *                      beta / 0.1102 + 8.7 dB
+ */
+public enum ResampleQuality {
+    /** ~55 dB stopband, short filter; for previews. */
+    FAST(8, 0.80, 5.0),
+    /** ~90 dB stopband, flat to ~20 kHz at 48 kHz output. */
+    STANDARD(32, 0.91, 9.0),
+    /** ~115 dB stopband, flat to ~21.5 kHz at 48 kHz output. */
+    BEST(64, 0.945, 12.0);
+
+    private final int zeroCrossings;
+    private final double cutoff;
+    private final double beta;
+
+    ResampleQuality(int zeroCrossings, double cutoff, double beta) {
+        this.zeroCrossings = zeroCrossings;
+        this.cutoff = cutoff;
+        this.beta = beta;
+    }
+
+    public int zeroCrossings() {
+        return zeroCrossings;
+    }
+
+    public double cutoff() {
+        return cutoff;
+    }
+
+    public double beta() {
+        return beta;
+    }
+}
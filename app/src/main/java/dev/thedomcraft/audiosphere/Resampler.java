@@ -0,0 +1,286 @@
+package dev.thedomcraft.audiosphere;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Streaming polyphase windowed-sinc sample-rate converter for interleaved float
+ * audio.
+ *
+ * The ratio is reduced to up/down (output/input rate). Output frame n sits at input
+ * time n * down / up; its value is the dot product of the surrounding input samples
+ * with phase (n * down mod up) of a Kaiser-windowed sinc low-pass that cuts off
+ * below the lower of the two Nyquist frequencies (see {@link ResampleQuality}).
+ * Every phase is normalised to unity DC gain. When up exceeds MAX_PHASES (awkward
+ * ratios such as 192001 -> 96000 Hz) the table holds MAX_PHASES phases and the
+ * two nearest are interpolated linearly.
+ *
+ * Input is fed a chunk at a time: process() emits every output frame whose input
+ * window is complete and keeps the rest as history, finish() flushes the tail
+ * against zeros. Output frames of a chunk are independent, so with a pool they
+ * are computed as one task per channel and segment.
+ */
+final class Resampler implements AutoCloseable {
+
+    static final int MAX_PHASES = 1024;
+    private static final int MIN_SEGMENT_FRAMES = 4096; // output frames per task
+
+    private final int channels;
+    private final long up;
+    private final long down;
+    private final int half;
+    private final int taps;
+    private final int phases;
+    private final boolean exact;
+    private final float[] filter; // (phases + 1) rows of taps
+
+    private final ForkJoinPool pool; // null = compute on the calling thread
+    private final int threads;
+
+    private final float[][] history; // per channel; history[c][0] is input frame historyStart
+    private int historyLength;
+    private long historyStart;
+    private long inputFrames;
+    private long nextOutput;
+
+    /**
+     * @param threads 1 computes on the calling thread, more uses a private pool
+     */
+    Resampler(int channels, int inRate, int outRate, ResampleQuality quality, int threads) {
+        long gcd = gcd(inRate, outRate);
+        this.channels = channels;
+        this.up = outRate / gcd;
+        this.down = inRate / gcd;
+
+        double cutoff = cutoff(quality, up, down);
+        this.half = (int) Math.ceil(quality.zeroCrossings() / cutoff);
+        this.taps = 2 * half;
+        this.exact = up <= MAX_PHASES;
+        this.phases = exact ? (int) up : MAX_PHASES;
+        this.filter = design(phases, half, cutoff, quality.beta());
+
+        this.threads = threads;
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+
+        // half - 1 leading zeros, so the first output's window starts in the buffer
+        this.history = new float[channels][taps + MIN_SEGMENT_FRAMES];
+        this.historyLength = half - 1;
+        this.historyStart = -(half - 1);
+    }
+
+    /**
+     * Bytes the filter table and history of a resampler with these parameters take,
+     * without designing the filter; for callers that budget memory up front.
+     */
+    static long workingSetBytes(int channels, int inRate, int outRate, ResampleQuality quality) {
+        long gcd = gcd(inRate, outRate);
+        long up = outRate / gcd;
+        long down = inRate / gcd;
+        long taps = 2 * (long) Math.ceil(quality.zeroCrossings() / cutoff(quality, up, down));
+        long phases = Math.min(up, MAX_PHASES);
+        return Float.BYTES * ((phases + 1) * taps + channels * (taps + MIN_SEGMENT_FRAMES));
+    }
+
+    /**
+     * Normalised cutoff: the quality's passband, narrowed to the output rate when downsampling.
+     */
+    private static double cutoff(ResampleQuality quality, long up, long down) {
+        return quality.cutoff() * Math.min(1.0, (double) up / down);
+    }
+
+    /**
+     * Upper bound on the frames process() or finish() returns for {@code inputFrames} of input.
+     */
+    int maxOutputFrames(int inputFrames) {
+        return (int) ((inputFrames + taps) * up / down) + 2;
+    }
+
+    /**
+     * Consumes {@code frames} interleaved frames and writes the output frames that
+     * are now complete to {@code out}; returns their count.
+     */
+    int process(float[] in, int frames, float[] out) {
+        append(in, frames);
+        inputFrames += frames;
+        return produce(Long.MAX_VALUE, out);
+    }
+
+    /**
+     * Emits the remaining output (ceil(input * up / down) frames in total).
+     */
+    int finish(float[] out) {
+        append(null, half);
+        long total = (inputFrames * up + down - 1) / down;
+        return produce(total, out);
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    // --------- streaming ---------
+
+    private void append(float[] in, int frames) {
+        // drop history no future output needs
+        long firstNeeded = nextOutput * down / up - half + 1;
+        int drop = (int) Math.max(0, Math.min(historyLength, firstNeeded - historyStart));
+        if (drop > 0) {
+            for (float[] h : history) {
+                System.arraycopy(h, drop, h, 0, historyLength - drop);
+            }
+            historyLength -= drop;
+            historyStart += drop;
+        }
+
+        if (historyLength + frames > history[0].length) {
+            for (int c = 0; c < channels; c++) {
+                history[c] = Arrays.copyOf(history[c], historyLength + frames + taps);
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            float[] h = history[c];
+            if (in == null) {
+                Arrays.fill(h, historyLength, historyLength + frames, 0f);
+            } else {
+                for (int f = 0, i = c; f < frames; f++, i += channels) {
+                    h[historyLength + f] = in[i];
+                }
+            }
+        }
+        historyLength += frames;
+    }
+
+    private int produce(long limit, float[] out) {
+        // output n is ready once input frame floor(n * down / up) + half is buffered
+        long lastCentre = historyStart + historyLength - 1 - half;
+        long end = lastCentre < 0 ? 0 : ((lastCentre + 1) * up + down - 1) / down;
+        end = Math.min(end, limit);
+        long start = nextOutput;
+        int count = (int) Math.max(0, end - start);
+        if (count == 0) {
+            return 0;
+        }
+
+        int segments = Math.max(1, Math.min(threads, count / MIN_SEGMENT_FRAMES));
+        if (pool == null || channels * segments == 1) {
+            for (int c = 0; c < channels; c++) {
+                render(c, start, start, end, out);
+            }
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(channels * segments);
+            for (int c = 0; c < channels; c++) {
+                for (int s = 0; s < segments; s++) {
+                    int channel = c;
+                    long from = start + (long) count * s / segments;
+                    long to = start + (long) count * (s + 1) / segments;
+                    tasks.add(pool.submit(() -> render(channel, start, from, to, out)));
+                }
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        nextOutput = end;
+        return count;
+    }
+
+    /**
+     * Computes channel {@code c} of output frames [from, to) into out, where frame
+     * {@code base} goes to out frame 0.
+     */
+    private void render(int c, long base, long from, long to, float[] out) {
+        float[] x = history[c];
+        for (long n = from; n < to; n++) {
+            long position = n * down;
+            long centre = position / up;
+            int phase = (int) (position % up);
+            int first = (int) (centre - half + 1 - historyStart);
+
+            float acc;
+            if (exact) {
+                acc = dot(x, first, phase * taps);
+            } else {
+                double p = (double) phase * phases / up;
+                int row = (int) p;
+                float w = (float) (p - row);
+                acc = (1 - w) * dot(x, first, row * taps) + w * dot(x, first, (row + 1) * taps);
+            }
+            out[(int) (n - base) * channels + c] = acc;
+        }
+    }
+
+    /**
+     * taps is even; two accumulators break the add dependency chain.
+     */
+    private float dot(float[] x, int first, int row) {
+        float[] h = filter;
+        float acc0 = 0;
+        float acc1 = 0;
+        for (int j = 0; j < taps; j += 2) {
+            acc0 += h[row + j] * x[first + j];
+            acc1 += h[row + j + 1] * x[first + j + 1];
+        }
+        return acc0 + acc1;
+    }
+
+    // --------- filter design ---------
+
+    /**
+     * Row p holds the taps for an output at fraction p / phases past the centre
+     * input frame; row {@code phases} (fraction 1) is kept for interpolation.
+     */
+    private static float[] design(int phases, int half, double cutoff, double beta) {
+        int taps = 2 * half;
+        float[] filter = new float[(phases + 1) * taps];
+        double norm = besselI0(beta);
+        for (int p = 0; p <= phases; p++) {
+            double frac = (double) p / phases;
+            double[] row = new double[taps];
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                double d = j - half + 1 - frac; // distance from the output, in input frames
+                double r = d / half;
+                double window = Math.abs(r) >= 1 ? 0 : besselI0(beta * Math.sqrt(1 - r * r)) / norm;
+                row[j] = cutoff * sinc(cutoff * d) * window;
+                sum += row[j];
+            }
+            for (int j = 0; j < taps; j++) {
+                filter[p * taps + j] = (float) (row[j] / sum);
+            }
+        }
+        return filter;
+    }
+
+    private static double sinc(double x) {
+        return x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    /**
+     * Zeroth-order modified Bessel function of the first kind (series expansion).
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double q = x * x / 4;
+        for (int k = 1; k < 64 && term > 1e-12 * sum; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
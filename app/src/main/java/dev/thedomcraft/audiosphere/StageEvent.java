@@ -0,0 +1,58 @@
+package dev.thedomcraft.audiosphere;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one pass through a pipeline stage, which also feeds the
+ * {@link PipelineStats} counters:
+ *
+ *   StageEvent timer = StageEvent.begin(PipelineStats.Stage.COMPRESS);
+ *   ... work ...
+ *   timer.end(bytes);
+ *
+ * Without a recording, begin()/end() skip the JFR work and the short-lived event
+ * object is usually scalar-replaced by the JIT. Record with
+ * {@code -XX:StartFlightRecording} and look for "AudioSphere Stage".
+ */
+@Name("dev.thedomcraft.audiosphere.Stage")
+@Label("AudioSphere Stage")
+@Category("AudioSphere")
+@Description("Time and bytes of one encode, decode or playback pipeline stage")
+@StackTrace(false)
+final class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    // not recorded (JFR ignores transient fields)
+    private transient PipelineStats.Stage kind;
+    private transient long startNanos;
+
+    static StageEvent begin(PipelineStats.Stage kind) {
+        StageEvent event = new StageEvent();
+        event.kind = kind;
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    void end(long byteCount) {
+        kind.add(byteCount, System.nanoTime() - startNanos);
+        end();
+        if (shouldCommit()) {
+            stage = kind.label();
+            bytes = byteCount;
+            commit();
+        }
+    }
+}
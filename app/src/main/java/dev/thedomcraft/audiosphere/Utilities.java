@@ -1,16 +1,18 @@
 package dev.thedomcraft.audiosphere;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.security.GeneralSecurityException;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * General AES + GZip helpers.
- * Not strictly required by the current encoder (it does inline work),
- * but kept for parity and possible reuse.
+ * The v4 path does its work inline; the v5 block writer/reader use the
+ * per-block cipher setup below.
  */
 public final class Utilities {
 
@@ -25,11 +27,88 @@ public final class Utilities {
             0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88
     };
 
+    private static final SecretKeySpec KEY_SPEC = new SecretKeySpec(ENCRYPTION_KEY, "AES");
+
+    public static final int GCM_NONCE_SIZE = 12;
+    public static final int GCM_TAG_SIZE = 16;
+    private static final int GCM_TAG_BITS = GCM_TAG_SIZE * 8;
+
+    public static Cipher newBlockCipher() throws GeneralSecurityException {
+        return Cipher.getInstance("AES/CBC/PKCS5Padding");
+    }
+
+    /**
+     * Same cipher without padding, for decrypting v5 blocks into a reused buffer:
+     * the padded JDK cipher copies every block into a fresh internal array on
+     * decrypt, so the caller strips the PKCS#5 padding itself instead.
+     */
+    public static Cipher newUnpaddedBlockCipher() throws GeneralSecurityException {
+        return Cipher.getInstance("AES/CBC/NoPadding");
+    }
+
+    /**
+     * (Re)initialise a cipher for one ASPH v5 block. The IV is the base IV with the
+     * block index folded into its last 8 bytes, so identical blocks (e.g. silence)
+     * don't produce identical ciphertext.
+     */
+    public static void initBlockCipher(Cipher cipher, int mode, long blockIndex) throws GeneralSecurityException {
+        byte[] iv = INIT_VECTOR.clone();
+        for (int i = 0; i < 8; i++) {
+            iv[15 - i] ^= (byte) (blockIndex >>> (8 * i));
+        }
+        cipher.init(mode, KEY_SPEC, new IvParameterSpec(iv));
+    }
+
+    /**
+     * AES-GCM for ASPH v5 blocks with {@link AsphFormat#CIPHER_GCM}; see initGcmBlockCipher.
+     */
+    public static Cipher newGcmBlockCipher() throws GeneralSecurityException {
+        return Cipher.getInstance("AES/GCM/NoPadding");
+    }
+
+    /**
+     * (Re)initialise a GCM cipher for one block. {@code nonce[offset, offset + 12)} is
+     * the block's own random nonce (stored in front of its ciphertext); the block
+     * index is the associated data, so a block copied to another position fails
+     * authentication.
+     */
+    public static void initGcmBlockCipher(Cipher cipher, int mode, byte[] nonce, int offset, long blockIndex)
+            throws GeneralSecurityException {
+        cipher.init(mode, KEY_SPEC, new GCMParameterSpec(GCM_TAG_BITS, nonce, offset, GCM_NONCE_SIZE));
+        byte[] aad = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            aad[i] = (byte) (blockIndex >>> (8 * i));
+        }
+        cipher.updateAAD(aad);
+    }
+
+    /**
+     * Cipher for streaming the single CBC payload of an ASPH v4 file
+     * (e.g. through a CipherInputStream).
+     */
+    public static Cipher newV4DecryptCipher() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, KEY_SPEC, new IvParameterSpec(INIT_VECTOR));
+        return cipher;
+    }
+
+    /**
+     * Decrypts the last AES blocks of a v4 payload without touching the rest: in CBC
+     * each block only depends on the ciphertext block before it. Padding is left in
+     * place. {@code previousBlock} is null when {@code tailBlocks} starts the payload.
+     */
+    public static byte[] decryptV4Tail(byte[] previousBlock, byte[] tailBlocks) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+        byte[] iv = previousBlock != null ? previousBlock : INIT_VECTOR;
+        cipher.init(Cipher.DECRYPT_MODE, KEY_SPEC, new IvParameterSpec(iv));
+        return cipher.doFinal(tailBlocks);
+    }
+
     public static byte[] encrypt(byte[] data) throws Exception {
         Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
         cipher.init(
                 Cipher.ENCRYPT_MODE,
-                new SecretKeySpec(ENCRYPTION_KEY, "AES"),
+                KEY_SPEC,
                 new IvParameterSpec(INIT_VECTOR)
         );
         return cipher.doFinal(data);
@@ -39,7 +118,7 @@ public final class Utilities {
         Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
         cipher.init(
                 Cipher.DECRYPT_MODE,
-                new SecretKeySpec(ENCRYPTION_KEY, "AES"),
+                KEY_SPEC,
                 new IvParameterSpec(INIT_VECTOR)
         );
         return cipher.doFinal(data);
@@ -61,4 +140,29 @@ public final class Utilities {
             return baos.toByteArray();
         }
     }
+
+    /**
+     * {@code s} as a quoted JSON string, for the hand-built JSON of the server and --stats.
+     */
+    static String jsonString(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
 }
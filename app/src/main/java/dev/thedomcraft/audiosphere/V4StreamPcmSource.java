@@ -0,0 +1,250 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * PcmSource over an ASPH v4 file that decrypts and inflates on the fly
+ * (file -> CipherInputStream -> GZIPInputStream), so memory use does not depend
+ * on the track length.
+ *
+ * The v4 payload is one CBC/GZip stream, so seeking forward inflates and discards
+ * up to the target and seeking backward restarts from the beginning. The total
+ * length is known up front anyway: the GZip trailer ends with the uncompressed
+ * size, and CBC lets us decrypt just the last two AES blocks to read it.
+ */
+final class V4StreamPcmSource implements PcmSource {
+
+    private static final int INNER_HEADER_SIZE = 17; // magic(4) version(1) rate(4) bits(4) channels(4)
+    private static final int AES_BLOCK = 16;
+    private static final int STREAM_BUFFER = 64 * 1024;
+
+    private final FileChannel channel;
+    private final int encryptedLength;
+    private final AsphFormat.Header header;
+
+    private InputStream pcm;
+    private long positionBytes;
+    private byte[] scratch; // for discard()
+
+    private V4StreamPcmSource(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.encryptedLength = AsphFormat.readFully(channel, 4, 4).getInt();
+        if (encryptedLength <= 0 || encryptedLength % AES_BLOCK != 0 || 8L + encryptedLength > channel.size()) {
+            throw new AsphFormatException("Invalid ASPH v4 payload length " + encryptedLength + ".");
+        }
+
+        long inflatedSize = readInflatedSize();
+        this.pcm = openPayload();
+        byte[] inner = pcm.readNBytes(INNER_HEADER_SIZE);
+        if (inner.length != INNER_HEADER_SIZE || !Arrays.equals(inner, 0, 4, AsphFormat.MAGIC, 0, 4)) {
+            throw new AsphCorruptDataException("Invalid data: wrong ASPH magic.");
+        }
+
+        ByteBuffer fmt = ByteBuffer.wrap(inner, 5, 12).order(ByteOrder.LITTLE_ENDIAN);
+        int sampleRate = fmt.getInt();
+        int bitsPerSample = fmt.getInt();
+        int channels = fmt.getInt();
+        int frameSize = channels * (bitsPerSample / 8);
+        if (sampleRate <= 0 || frameSize <= 0) {
+            throw new AsphFormatException("Invalid ASPH format: " + sampleRate + " Hz, " + bitsPerSample + "-bit, " + channels + " ch.");
+        }
+
+        long totalSamples = (inflatedSize - INNER_HEADER_SIZE) / frameSize;
+        this.header = new AsphFormat.Header(inner[4] & 0xFF, AsphFormat.CODEC_GZIP, sampleRate, bitsPerSample, channels, 0, totalSamples, 0);
+    }
+
+    static V4StreamPcmSource open(FileChannel channel) throws IOException {
+        return new V4StreamPcmSource(channel);
+    }
+
+    @Override
+    public AsphFormat.Header header() {
+        return header;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long remaining = header.totalSamples() * header.frameSize() - positionBytes;
+        if (remaining <= 0) {
+            return -1;
+        }
+        // fill the whole request so callers get whole frames, like the block source
+        int n;
+        StageEvent timer = StageEvent.begin(PipelineStats.Stage.DECOMPRESS);
+        try {
+            n = pcm.readNBytes(b, off, (int) Math.min(len, remaining));
+        } catch (ZipException | EOFException ex) {
+            throw new AsphCorruptDataException("Corrupt ASPH v4 payload at byte " + positionBytes + ": " + ex.getMessage(), -1, ex);
+        }
+        if (n == 0 && len > 0) {
+            throw new AsphCorruptDataException("ASPH v4 payload ended early at byte " + positionBytes + ".");
+        }
+        timer.end(n);
+        positionBytes += n;
+        return n;
+    }
+
+    @Override
+    public void seek(long sample) throws IOException {
+        long target = Math.max(0, Math.min(sample, header.totalSamples())) * header.frameSize();
+        if (target < positionBytes) {
+            pcm.close();
+            pcm = openPayload();
+            pcm.skipNBytes(INNER_HEADER_SIZE);
+            positionBytes = 0;
+        }
+        discard(target - positionBytes);
+        positionBytes = target;
+    }
+
+    /**
+     * Inflates and drops {@code count} bytes through one reused scratch array;
+     * InflaterInputStream.skip() would inflate them 512 bytes per call.
+     */
+    private void discard(long count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[STREAM_BUFFER];
+        }
+        StageEvent timer = StageEvent.begin(PipelineStats.Stage.DECOMPRESS);
+        long left = count;
+        try {
+            while (left > 0) {
+                int n = pcm.read(scratch, 0, (int) Math.min(scratch.length, left));
+                if (n < 0) {
+                    throw new AsphCorruptDataException("ASPH v4 payload ended early at byte " + (positionBytes + count - left) + ".");
+                }
+                left -= n;
+            }
+        } catch (ZipException | EOFException ex) {
+            throw new AsphCorruptDataException("Corrupt ASPH v4 payload: " + ex.getMessage(), -1, ex);
+        }
+        timer.end(count);
+    }
+
+    /**
+     * Inflates whatever is left of the payload, GZip trailer included, so the
+     * stream's CRC32 and length get checked; read() stops at the last PCM byte and
+     * never gets there. Leaves the source at the end of the track.
+     */
+    void readToEnd() throws IOException {
+        try {
+            pcm.transferTo(OutputStream.nullOutputStream());
+        } catch (ZipException | EOFException ex) {
+            throw new AsphCorruptDataException("Corrupt ASPH v4 payload: " + ex.getMessage(), -1, ex);
+        }
+        positionBytes = header.totalSamples() * header.frameSize();
+    }
+
+    @Override
+    public long position() {
+        return positionBytes / header.frameSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            pcm.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private InputStream openPayload() throws IOException {
+        Cipher cipher;
+        try {
+            cipher = Utilities.newV4DecryptCipher();
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("AES not available: " + ex.getMessage(), ex);
+        }
+        // CipherInputStream pulls 512 bytes at a time: buffer so that is not a file read each
+        InputStream encrypted = new BoundedInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel.position(8)), STREAM_BUFFER), encryptedLength);
+        return new GZIPInputStream(new CipherInputStream(encrypted, cipher), STREAM_BUFFER);
+    }
+
+    /**
+     * Reads ISIZE (uncompressed length mod 2^32) from the GZip trailer by decrypting
+     * only the last two AES blocks. v4 lengths are int-sized, so it is exact.
+     */
+    private long readInflatedSize() throws IOException {
+        int tailBlocks = Math.min(2, encryptedLength / AES_BLOCK);
+        long tailStart = 8L + encryptedLength - (long) tailBlocks * AES_BLOCK;
+        byte[] previous = tailStart > 8
+                ? AsphFormat.readFully(channel, tailStart - AES_BLOCK, AES_BLOCK).array()
+                : null;
+        byte[] tail = AsphFormat.readFully(channel, tailStart, tailBlocks * AES_BLOCK).array();
+
+        byte[] plain;
+        try {
+            plain = Utilities.decryptV4Tail(previous, tail);
+        } catch (GeneralSecurityException ex) {
+            throw new AsphCorruptDataException("Failed to decrypt ASPH v4 trailer: " + ex.getMessage(), -1, ex);
+        }
+
+        int padding = plain[plain.length - 1] & 0xFF;
+        int isizeOffset = plain.length - padding - 4;
+        if (padding < 1 || padding > AES_BLOCK || isizeOffset < 0) {
+            throw new AsphCorruptDataException("Corrupt ASPH v4 payload (bad padding).");
+        }
+        return ByteBuffer.wrap(plain, isizeOffset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Stops the cipher at the end of the payload so a metadata trailer is never fed to it.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // the channel is owned by the source
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package dev.thedomcraft.audiosphere;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PcmDsp.Kernels} on the JDK Vector API. Only loaded when the
+ * jdk.incubator.vector module is present (see PcmDsp.selectKernels); every
+ * method matches ScalarKernels bit for bit, tails included.
+ */
+final class VectorKernels implements PcmDsp.Kernels {
+
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> I = VectorSpecies.of(int.class, F.vectorShape());
+
+    // gather/scatter index maps: MAPS[c][lane] = lane * c, for interleaved layouts of c channels
+    private static final int MAX_MAPPED_CHANNELS = 64;
+    private static final int[][] MAPS = new int[MAX_MAPPED_CHANNELS + 1][];
+
+    static {
+        for (int c = 1; c <= MAX_MAPPED_CHANNELS; c++) {
+            MAPS[c] = new int[F.length()];
+            for (int lane = 0; lane < F.length(); lane++) {
+                MAPS[c][lane] = lane * c;
+            }
+        }
+    }
+
+    @Override
+    public void scale(float[] x, int n, float gain) {
+        int i = 0;
+        for (int upper = F.loopBound(n); i < upper; i += F.length()) {
+            FloatVector.fromArray(F, x, i).mul(gain).intoArray(x, i);
+        }
+        for (; i < n; i++) {
+            x[i] *= gain;
+        }
+    }
+
+    @Override
+    public void mix(float[] in, int frames, int inChannels, float[] weights, float[] out, int outChannels) {
+        if (inChannels > MAX_MAPPED_CHANNELS || outChannels > MAX_MAPPED_CHANNELS) {
+            PcmDsp.mixRange(in, 0, frames, inChannels, weights, out, outChannels);
+            return;
+        }
+        int[] inMap = MAPS[inChannels];
+        int[] outMap = MAPS[outChannels];
+
+        // one vector = the same output channel of F.length() consecutive frames
+        int f = 0;
+        for (int upper = F.loopBound(frames); f < upper; f += F.length()) {
+            for (int o = 0; o < outChannels; o++) {
+                FloatVector acc = FloatVector.zero(F);
+                for (int i = 0; i < inChannels; i++) {
+                    FloatVector x = FloatVector.fromArray(F, in, f * inChannels + i, inMap, 0);
+                    acc = acc.add(x.mul(weights[o * inChannels + i]));
+                }
+                acc.intoArray(out, f * outChannels + o, outMap, 0);
+            }
+        }
+        PcmDsp.mixRange(in, f, frames, inChannels, weights, out, outChannels);
+    }
+
+    @Override
+    public void quantize(float[] x, int n, float scale, boolean dither, int k0, int min, int max, int[] out) {
+        FloatVector half = FloatVector.broadcast(F, 0.5f);
+        FloatVector minusHalf = FloatVector.broadcast(F, -0.5f);
+        float lo = min;
+        float hi = max;
+        IntVector lane = IntVector.zero(I).addIndex(1);
+
+        int i = 0;
+        for (int upper = F.loopBound(n); i < upper; i += F.length()) {
+            FloatVector v = FloatVector.fromArray(F, x, i).mul(scale);
+            if (dither) {
+                v = v.add(tpdf(lane.add(k0 + i)));
+            }
+            VectorMask<Float> negative = v.lt(0f);
+            v = v.add(half.blend(minusHalf, negative)).max(lo).min(hi);
+            ((IntVector) v.convert(VectorOperators.F2I, 0)).intoArray(out, i);
+        }
+        for (; i < n; i++) {
+            float v = x[i] * scale;
+            if (dither) {
+                v += PcmDsp.tpdf(k0 + i);
+            }
+            v += v < 0 ? -0.5f : 0.5f;
+            out[i] = (int) Math.max(min, Math.min(max, v));
+        }
+    }
+
+    @Override
+    public float firPeak(float[] x, int from, int to, float[] taps) {
+        // one vector = F.length() consecutive outputs
+        FloatVector peak = FloatVector.zero(F);
+        int i = from;
+        for (int upper = from + F.loopBound(to - from); i < upper; i += F.length()) {
+            FloatVector acc = FloatVector.zero(F);
+            for (int k = 0; k < taps.length; k++) {
+                acc = acc.add(FloatVector.fromArray(F, x, i - k).mul(taps[k]));
+            }
+            peak = peak.max(acc.abs());
+        }
+        return Math.max(peak.reduceLanes(VectorOperators.MAX), PcmDsp.firPeakRange(x, i, to, taps));
+    }
+
+    private static FloatVector tpdf(IntVector k) {
+        IntVector k2 = k.lanewise(VectorOperators.LSHL, 1);
+        IntVector a = hash(k2).lanewise(VectorOperators.LSHR, 8);
+        IntVector b = hash(k2.add(1)).lanewise(VectorOperators.LSHR, 8);
+        return ((FloatVector) a.sub(b).convert(VectorOperators.I2F, 0)).mul(PcmDsp.NOISE_SCALE);
+    }
+
+    private static IntVector hash(IntVector x) {
+        x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 16));
+        x = x.mul(0x7feb352d);
+        x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 15));
+        x = x.mul(0x846ca68b);
+        return x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 16));
+    }
+}
@@ -0,0 +1,283 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RIFF/WAVE reader for the encoder. Walks the chunk list with a few small
+ * positional reads, then hands out the data chunk through read-only memory
+ * mappings, so PCM goes from the page cache straight into the encoder's block
+ * buffer with no intermediate copies and no javax.sound providers involved.
+ *
+ * Understands plain and WAVE_FORMAT_EXTENSIBLE PCM (8–32 bit, any valid-bit count
+ * in a whole-byte container) and IEEE float (32/64 bit), in RIFF as well as
+ * RF64/BW64 files whose 64-bit sizes live in the ds64 chunk. Anything else
+ * (A-law, u-law, ADPCM) parses but reports {@link #isLinearPcm()} false so the
+ * caller can fall back to Java Sound.
+ */
+final class WavFile implements Closeable {
+
+    static final int TAG_PCM = 0x0001;
+    static final int TAG_FLOAT = 0x0003;
+    static final int TAG_EXTENSIBLE = 0xFFFE;
+
+    private static final long MAP_WINDOW = 1L << 30; // a MappedByteBuffer is limited to 2 GB
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final int formatTag; // for extensible files, the tag from the sub-format GUID
+    private final int channels;
+    private final int sampleRate;
+    private final int blockAlign;
+    private final int validBits;
+    private final long dataOffset;
+    private final long dataLength;
+
+    private WavFile(FileChannel channel, int formatTag, int channels, int sampleRate, int blockAlign,
+                    int validBits, long dataOffset, long dataLength) {
+        this.channel = channel;
+        this.formatTag = formatTag;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.blockAlign = blockAlign;
+        this.validBits = validBits;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Opens and parses {@code path}; the file stays open until {@link #close()} (or
+     * until the stream from {@link #openData()} is closed).
+     */
+    static WavFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return parse(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static WavFile parse(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer head = read(channel, 0, 12);
+        String riff = fourCC(head, 0);
+        boolean rf64 = riff.equals("RF64") || riff.equals("BW64");
+        if (head == null || !(riff.equals("RIFF") || rf64) || !fourCC(head, 8).equals("WAVE")) {
+            throw new AsphFormatException("Input must be a WAV file (no RIFF/WAVE header).");
+        }
+
+        long ds64DataSize = -1;
+        ByteBuffer fmt = null;
+        long dataOffset = -1;
+        long dataLength = 0;
+
+        long pos = 12;
+        while (pos + 8 <= fileSize && (fmt == null || dataOffset < 0)) {
+            ByteBuffer chunk = read(channel, pos, 8);
+            String id = fourCC(chunk, 0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            long body = pos + 8;
+
+            switch (id) {
+                case "ds64" -> {
+                    ByteBuffer ds64 = read(channel, body, 16);
+                    if (ds64 == null) {
+                        throw new AsphFormatException("Truncated ds64 chunk.");
+                    }
+                    ds64DataSize = ds64.getLong(8);
+                }
+                case "fmt " -> {
+                    fmt = read(channel, body, (int) Math.min(size, 40));
+                    if (fmt == null || size < 16) {
+                        throw new AsphFormatException("Truncated fmt chunk.");
+                    }
+                }
+                case "data" -> {
+                    if (rf64 && size == UNKNOWN_SIZE && ds64DataSize >= 0) {
+                        size = ds64DataSize;
+                    }
+                    dataOffset = body;
+                    // streaming writers leave the size at 0xFFFFFFFF; truncated files end early
+                    dataLength = Math.min(size, fileSize - body);
+                }
+                default -> { } // LIST, fact, cue, bext, ... are not needed
+            }
+            pos = body + size + (size & 1);
+        }
+
+        if (fmt == null) {
+            throw new AsphFormatException("WAV file has no fmt chunk.");
+        }
+        if (dataOffset < 0) {
+            throw new AsphFormatException("WAV file has no data chunk.");
+        }
+
+        int tag = fmt.getShort(0) & 0xFFFF;
+        int channels = fmt.getShort(2) & 0xFFFF;
+        int sampleRate = fmt.getInt(4);
+        int blockAlign = fmt.getShort(12) & 0xFFFF;
+        int bits = fmt.getShort(14) & 0xFFFF;
+        if (tag == TAG_EXTENSIBLE) {
+            if (fmt.limit() < 40) {
+                throw new AsphFormatException("Truncated WAVE_FORMAT_EXTENSIBLE fmt chunk.");
+            }
+            int valid = fmt.getShort(18) & 0xFFFF;
+            if (valid > 0) {
+                bits = Math.min(bits, valid);
+            }
+            tag = fmt.getShort(24) & 0xFFFF; // first two bytes of the sub-format GUID
+        }
+
+        if (channels < 1 || sampleRate <= 0) {
+            throw new AsphFormatException("Unsupported WAV: " + channels + " channels at " + sampleRate + " Hz.");
+        }
+        if (blockAlign < channels || blockAlign % channels != 0 || bits < 1 || bits > blockAlign / channels * 8) {
+            throw new AsphFormatException("Unsupported WAV: block align " + blockAlign + " for "
+                    + channels + " channels of " + bits + " bits.");
+        }
+
+        dataLength -= dataLength % blockAlign; // a trailing partial frame is dropped
+        return new WavFile(channel, tag, channels, sampleRate, blockAlign, bits, dataOffset, dataLength);
+    }
+
+    /**
+     * True for integer PCM and IEEE float; false for codecs Java Sound has to decode.
+     */
+    boolean isLinearPcm() {
+        int containerBits = blockAlign / channels * 8;
+        return (formatTag == TAG_PCM && containerBits <= 32)
+                || (formatTag == TAG_FLOAT && (containerBits == 32 || containerBits == 64));
+    }
+
+    long frames() {
+        return dataLength / blockAlign;
+    }
+
+    /**
+     * Format of the data chunk. The sample size is the number of valid bits, the
+     * frame size the container, so 20-in-24 bit audio reports 20 bits and 6-byte
+     * stereo frames. 8-bit PCM is unsigned, as WAV defines it.
+     */
+    AudioFormat audioFormat() {
+        AudioFormat.Encoding encoding;
+        if (formatTag == TAG_FLOAT) {
+            encoding = AudioFormat.Encoding.PCM_FLOAT;
+        } else if (blockAlign / channels == 1) {
+            encoding = AudioFormat.Encoding.PCM_UNSIGNED;
+        } else {
+            encoding = AudioFormat.Encoding.PCM_SIGNED;
+        }
+        return new AudioFormat(encoding, sampleRate, validBits, channels, blockAlign, sampleRate, false);
+    }
+
+    /**
+     * The data chunk as a stream over read-only mappings of the file (1 GB at a
+     * time). Closing it closes this WavFile.
+     */
+    InputStream openData() {
+        return new MappedDataStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private final class MappedDataStream extends InputStream {
+
+        private long position = dataOffset;
+        private final long end = dataOffset + dataLength;
+        private MappedByteBuffer window;
+
+        @Override
+        public int read() throws IOException {
+            return nextWindow() ? window.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextWindow()) {
+                return -1;
+            }
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            return n;
+        }
+
+        private boolean nextWindow() throws IOException {
+            if (window != null && window.hasRemaining()) {
+                return true;
+            }
+            if (position >= end) {
+                return false;
+            }
+            long size = Math.min(MAP_WINDOW, end - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            position += size;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            WavFile.this.close();
+        }
+    }
+
+    /**
+     * A canonical 44-byte PCM WAV header for {@code dataBytes} of audio. Sizes that
+     * do not fit 32 bits are written as 0xFFFFFFFF, which most readers take as
+     * "until end of stream".
+     */
+    static byte[] header(AudioFormat format, long dataBytes) {
+        int frameSize = format.getFrameSize();
+        int sampleRate = Math.round(format.getSampleRate());
+        long riffSize = 36 + dataBytes;
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt((int) Math.min(riffSize, UNKNOWN_SIZE));
+        header.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '}).putInt(16);
+        header.putShort((short) TAG_PCM).putShort((short) format.getChannels());
+        header.putInt(sampleRate).putInt(sampleRate * frameSize);
+        header.putShort((short) frameSize).putShort((short) format.getSampleSizeInBits());
+        header.put(new byte[]{'d', 'a', 't', 'a'}).putInt((int) Math.min(dataBytes, UNKNOWN_SIZE));
+        return header.array();
+    }
+
+    // --------- helpers ---------
+
+    /**
+     * Reads exactly {@code length} bytes at {@code position}, or returns null at EOF.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                return null;
+            }
+        }
+        return buf.flip();
+    }
+
+    private static String fourCC(ByteBuffer buf, int offset) {
+        if (buf == null) {
+            return "";
+        }
+        char[] id = new char[4];
+        for (int i = 0; i < 4; i++) {
+            id[i] = (char) (buf.get(offset + i) & 0xFF);
+        }
+        return new String(id);
+    }
+}
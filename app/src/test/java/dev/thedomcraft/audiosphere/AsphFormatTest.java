@@ -0,0 +1,77 @@
+package dev.thedomcraft.audiosphere;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsphFormatTest {
+
+    @Test
+    void headerRoundTrips() throws AsphFormatException {
+        AsphFormat.Header header = new AsphFormat.Header(AsphFormat.VERSION_5, AsphFormat.CODEC_GZIP, 96000, 24,
+                2, 16384, 5_000_000_000L, 123_456_789L);
+        assertEquals(header, AsphFormat.parseV5Header(AsphFormat.v5HeaderBytes(header)));
+    }
+
+    @Test
+    void corruptHeadersAreRejected() {
+        AsphFormat.Header header = new AsphFormat.Header(AsphFormat.VERSION_5, AsphFormat.CODEC_GZIP, 44100, 16,
+                2, 16384, 1000, 0);
+        ByteBuffer badVersion = AsphFormat.v5HeaderBytes(header).put(4, (byte) 6);
+        assertThrows(AsphFormatException.class, () -> AsphFormat.parseV5Header(badVersion));
+        ByteBuffer badCodec = AsphFormat.v5HeaderBytes(header).put(5, (byte) 99);
+        assertThrows(AsphFormatException.class, () -> AsphFormat.parseV5Header(badCodec));
+        ByteBuffer badBits = AsphFormat.v5HeaderBytes(header).putInt(12, 12);
+        assertThrows(AsphFormatException.class, () -> AsphFormat.parseV5Header(badBits));
+    }
+
+    @Test
+    void unknownHeaderFlagsAreRejected() throws AsphFormatException {
+        AsphFormat.Header header = new AsphFormat.Header(AsphFormat.VERSION_5, AsphFormat.CODEC_LOSSLESS, 96000, 24,
+                2, 16384, 5_000_000_000L, 123_456_789L, AsphFormat.KNOWN_FLAGS, AsphFormat.CIPHER_GCM);
+        assertEquals(header, AsphFormat.parseV5Header(AsphFormat.v5HeaderBytes(header)));
+
+        ByteBuffer future = AsphFormat.v5HeaderBytes(header.withFlags(AsphFormat.KNOWN_FLAGS | 0x08));
+        AsphFormatException ex = assertThrows(AsphFormatException.class, () -> AsphFormat.parseV5Header(future));
+        assertTrue(ex.getMessage().contains("flags"), ex.getMessage());
+    }
+
+    @Test
+    void seekIndexRoundTripsAndRejectsBadOffsets() throws AsphCorruptDataException {
+        AsphFormat.Header header = new AsphFormat.Header(AsphFormat.VERSION_5, AsphFormat.CODEC_GZIP, 44100, 16, 2,
+                1000, 3000, 1000);
+        long[] offsets = {AsphFormat.V5_HEADER_SIZE, 300, 650};
+
+        AsphFormat.SeekIndex index = AsphFormat.parseSeekIndex(AsphFormat.seekIndexBytes(offsets, null, 3), header);
+        assertArrayEquals(offsets, index.offsets());
+        assertNull(index.checksums());
+
+        long[] falling = {AsphFormat.V5_HEADER_SIZE, 650, 300};
+        assertThrows(AsphCorruptDataException.class,
+                () -> AsphFormat.parseSeekIndex(AsphFormat.seekIndexBytes(falling, null, 3), header));
+        long[] pastIndex = {AsphFormat.V5_HEADER_SIZE, 300, 1000};
+        assertThrows(AsphCorruptDataException.class,
+                () -> AsphFormat.parseSeekIndex(AsphFormat.seekIndexBytes(pastIndex, null, 3), header));
+        long[] shortIndex = {AsphFormat.V5_HEADER_SIZE, 300};
+        assertThrows(AsphCorruptDataException.class,
+                () -> AsphFormat.parseSeekIndex(AsphFormat.seekIndexBytes(shortIndex, null, 2), header));
+    }
+
+    @Test
+    void seekIndexCarriesBlockChecksums() throws AsphCorruptDataException {
+        AsphFormat.Header header = new AsphFormat.Header(AsphFormat.VERSION_5, AsphFormat.CODEC_GZIP, 44100, 16, 2,
+                1000, 3000, 1000, AsphFormat.FLAG_BLOCK_CRC32C, AsphFormat.CIPHER_CBC);
+        long[] offsets = {AsphFormat.V5_HEADER_SIZE, 300, 650};
+        int[] checksums = {1, -2, 3};
+
+        AsphFormat.SeekIndex index = AsphFormat.parseSeekIndex(AsphFormat.seekIndexBytes(offsets, checksums, 3), header);
+        assertArrayEquals(offsets, index.offsets());
+        assertArrayEquals(checksums, index.checksums());
+    }
+}
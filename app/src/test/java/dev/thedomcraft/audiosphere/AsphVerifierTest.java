@@ -0,0 +1,37 @@
+package dev.thedomcraft.audiosphere;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsphVerifierTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void damagedLengthPrefixIsReportedNotAllocated() throws Exception {
+        Path wav = TestSignals.wav16(dir.resolve("in.wav"), TestSignals.music(40000, 16, 2, 1), 44100, 2);
+        Path asph = dir.resolve("out.asph");
+        AudioSphereEncoder.encodeFile(wav.toString(), asph.toString(), EncodeOptions.defaults());
+        assertTrue(AsphVerifier.verifyFile(asph).ok());
+
+        try (FileChannel channel = FileChannel.open(asph, StandardOpenOption.WRITE)) {
+            ByteBuffer prefix = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 0x7ff00000);
+            AsphFormat.writeFully(channel, AsphFormat.V5_HEADER_SIZE, prefix);
+        }
+        AsphVerifier.Report report = AsphVerifier.verifyFile(asph);
+        assertFalse(report.ok());
+        assertEquals(0L, report.problems().get(0).index());
+        assertFalse(AsphVerifier.verify(asph.toString(), 1), "damage must fail the run");
+    }
+}
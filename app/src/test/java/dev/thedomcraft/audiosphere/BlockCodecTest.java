@@ -0,0 +1,213 @@
+package dev.thedomcraft.audiosphere;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BlockCodecTest {
+
+    private static final int SAMPLES_PER_BLOCK = 4096;
+
+    private final BlockCodec codec = new BlockCodec();
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void close() {
+        codec.close();
+    }
+
+    @Test
+    void gzipBlocksRoundTrip() throws Exception {
+        for (int bits : new int[]{8, 16, 24}) {
+            for (int channels = 1; channels <= 2; channels++) {
+                AsphFormat.Header header = header(AsphFormat.CODEC_GZIP, AsphFormat.CIPHER_CBC, 0, bits, channels);
+                String mode = bits + "-bit, " + channels + " ch";
+
+                byte[] music = TestSignals.music(SAMPLES_PER_BLOCK, bits, channels, bits + channels);
+                assertArrayEquals(music, roundTrip(header, music, 3), mode);
+
+                byte[] noise = TestSignals.noise(music.length, bits);
+                assertArrayEquals(noise, roundTrip(header, noise, 4), mode);
+
+                byte[] silence = new byte[music.length];
+                assertArrayEquals(silence, roundTrip(header, silence, 5), mode);
+
+                byte[] tail = Arrays.copyOf(music, 777 * header.frameSize()); // short last block
+                assertArrayEquals(tail, roundTrip(header, tail, 6), mode);
+            }
+        }
+    }
+
+    @Test
+    void constantRunBlocksRoundTrip() throws Exception {
+        for (int codecId : new int[]{AsphFormat.CODEC_GZIP, AsphFormat.CODEC_LOSSLESS}) {
+            for (int cipher : new int[]{AsphFormat.CIPHER_CBC, AsphFormat.CIPHER_GCM}) {
+                for (int bits : new int[]{8, 16, 24}) {
+                    AsphFormat.Header header = header(codecId, cipher, AsphFormat.FLAG_CONSTANT_RUNS, bits, 2);
+                    String mode = codecId + "/" + cipher + "/" + bits;
+
+                    byte[] music = TestSignals.music(SAMPLES_PER_BLOCK, bits, 2, bits);
+                    assertArrayEquals(music, roundTrip(header, music, 3), mode);
+
+                    byte[] gaps = music.clone(); // silence in the middle and at the end
+                    Arrays.fill(gaps, 500 * header.frameSize(), 1500 * header.frameSize(), (byte) 0);
+                    Arrays.fill(gaps, 3800 * header.frameSize(), gaps.length, (byte) 0);
+                    assertArrayEquals(gaps, roundTrip(header, gaps, 4), mode);
+
+                    byte[] silence = new byte[music.length];
+                    assertArrayEquals(silence, roundTrip(header, silence, 5), mode);
+
+                    byte[] tail = Arrays.copyOf(gaps, 3900 * header.frameSize()); // short last block
+                    assertArrayEquals(tail, roundTrip(header, tail, 6), mode);
+                }
+            }
+        }
+    }
+
+    @Test
+    void cbcBlocksDependOnlyOnContentAndIndex() throws Exception {
+        byte[] pcm = TestSignals.music(SAMPLES_PER_BLOCK, 16, 2, 1);
+        AsphFormat.Header header = header(AsphFormat.CODEC_GZIP, AsphFormat.CIPHER_CBC, 0, 16, 2);
+        assertArrayEquals(store(header, pcm, 0), store(header, pcm, 0));
+        assertNotEquals(Arrays.toString(store(header, pcm, 0)), Arrays.toString(store(header, pcm, 1)),
+                "the CBC IV depends on the block index");
+    }
+
+    @Test
+    void gcmBlocksRoundTrip() throws Exception {
+        for (int codecId : new int[]{AsphFormat.CODEC_GZIP, AsphFormat.CODEC_LOSSLESS}) {
+            for (int bits : new int[]{8, 16, 24}) {
+                AsphFormat.Header header = header(codecId, AsphFormat.CIPHER_GCM, 0, bits, 2);
+                String mode = codecId + "/" + bits;
+
+                byte[] music = TestSignals.music(SAMPLES_PER_BLOCK, bits, 2, bits);
+                assertArrayEquals(music, roundTrip(header, music, 3), mode);
+
+                byte[] tail = Arrays.copyOf(music, 777 * header.frameSize()); // short last block
+                assertArrayEquals(tail, roundTrip(header, tail, 6), mode);
+            }
+        }
+    }
+
+    @Test
+    void gcmBlocksTakeAFreshNonce() throws Exception {
+        byte[] pcm = TestSignals.music(SAMPLES_PER_BLOCK, 16, 2, 1);
+        AsphFormat.Header header = header(AsphFormat.CODEC_GZIP, AsphFormat.CIPHER_GCM, 0, 16, 2);
+        byte[] a = store(header, pcm, 0);
+        byte[] b = store(header, pcm, 0);
+        assertEquals(a.length, b.length);
+        assertNotEquals(Arrays.toString(Arrays.copyOfRange(a, 4, 4 + Utilities.GCM_NONCE_SIZE)),
+                Arrays.toString(Arrays.copyOfRange(b, 4, 4 + Utilities.GCM_NONCE_SIZE)), "a fresh nonce per block");
+    }
+
+    @Test
+    void gcmRejectsTamperingAndMovedBlocksWithoutChecksums() throws Exception {
+        AsphFormat.Header header = header(AsphFormat.CODEC_GZIP, AsphFormat.CIPHER_GCM, 0, 24, 2);
+        byte[] pcm = TestSignals.music(SAMPLES_PER_BLOCK, 24, 2, 3);
+        byte[] stored = store(header, pcm, 2);
+
+        byte[] damaged = stored.clone();
+        damaged[stored.length / 2] ^= 1;
+        assertThrows(AsphCorruptDataException.class,
+                () -> decode(header, damaged, 2, pcm.length, BlockCodec.NO_CHECKSUM));
+
+        // the block index is authenticated, so a block copied elsewhere fails too
+        assertThrows(AsphCorruptDataException.class,
+                () -> decode(header, stored, 3, pcm.length, BlockCodec.NO_CHECKSUM));
+    }
+
+    @Test
+    void mismatchedLengthPrefixIsRejected() throws Exception {
+        AsphFormat.Header header = header(AsphFormat.CODEC_GZIP, AsphFormat.CIPHER_CBC, 0, 16, 2);
+        byte[] pcm = TestSignals.music(SAMPLES_PER_BLOCK, 16, 2, 4);
+        byte[] stored = store(header, pcm, 0);
+        assertThrows(AsphCorruptDataException.class,
+                () -> decode(header, Arrays.copyOf(stored, stored.length - 16), 0, pcm.length, BlockCodec.NO_CHECKSUM));
+    }
+
+    @Test
+    void checksumCatchesAnyFlippedBit() throws Exception {
+        for (int codecId : new int[]{AsphFormat.CODEC_GZIP, AsphFormat.CODEC_LOSSLESS}) {
+            AsphFormat.Header header = header(codecId, AsphFormat.CIPHER_CBC, AsphFormat.FLAG_BLOCK_CRC32C, 16, 2);
+            byte[] pcm = TestSignals.music(SAMPLES_PER_BLOCK, 16, 2, 2);
+            byte[] stored = store(header, pcm, 9);
+            long checksum = crc(stored);
+            assertArrayEquals(pcm, decode(header, stored, 9, pcm.length, checksum));
+            for (int offset : new int[]{0, 4, stored.length / 2, stored.length - 1}) {
+                byte[] damaged = stored.clone();
+                damaged[offset] ^= 0x10;
+                AsphCorruptDataException ex = assertThrows(AsphCorruptDataException.class,
+                        () -> decode(header, damaged, 9, pcm.length, checksum));
+                assertEquals(9, ex.blockIndex());
+            }
+        }
+    }
+
+    @Test
+    void oversizedLengthPrefixIsRejectedBeforeReading() throws Exception {
+        AsphFormat.Header header = header(AsphFormat.CODEC_GZIP, AsphFormat.CIPHER_CBC, 0, 16, 2);
+        byte[] stored = store(header, TestSignals.music(SAMPLES_PER_BLOCK, 16, 2, 5), 0);
+        stored[0] = 0;
+        stored[1] = 0;
+        stored[2] = (byte) 0xF0;
+        stored[3] = 0x7F; // 0x7ff00000: would be a 2 GB buffer
+        Path file = Files.write(dir.resolve("block"), stored);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            AsphCorruptDataException ex = assertThrows(AsphCorruptDataException.class,
+                    () -> codec.read(channel, 0, stored.length, 0, BlockCodec.NO_CHECKSUM));
+            assertEquals(0, ex.blockIndex());
+        }
+    }
+
+    // --------- helpers ---------
+
+    private static AsphFormat.Header header(int codec, int cipher, int flags, int bits, int channels) {
+        return new AsphFormat.Header(AsphFormat.VERSION_5, codec, 44100, bits, channels, SAMPLES_PER_BLOCK,
+                10L * SAMPLES_PER_BLOCK, 0, flags, cipher);
+    }
+
+    private byte[] roundTrip(AsphFormat.Header header, byte[] pcm, long blockIndex) throws Exception {
+        return decode(header, store(header, pcm, blockIndex), blockIndex, pcm.length, BlockCodec.NO_CHECKSUM);
+    }
+
+    /**
+     * The block as the writer puts it on disk: int32 LE length, then the ciphertext.
+     */
+    private byte[] store(AsphFormat.Header header, byte[] pcm, long blockIndex) throws Exception {
+        int length = codec.encode(header, pcm, pcm.length, blockIndex);
+        byte[] stored = new byte[4 + length];
+        for (int i = 0; i < 4; i++) {
+            stored[i] = (byte) (length >>> (8 * i));
+        }
+        System.arraycopy(codec.encrypted(), 0, stored, 4, length);
+        return stored;
+    }
+
+    private byte[] decode(AsphFormat.Header header, byte[] stored, long blockIndex, int expected, long checksum)
+            throws Exception {
+        byte[] pcm = new byte[header.blockBytes()];
+        Arrays.fill(pcm, (byte) 0x5A); // stale data must be overwritten
+        codec.decode(stored, stored.length, header, blockIndex, pcm, expected, checksum);
+        return Arrays.copyOf(pcm, expected);
+    }
+
+    private static long crc(byte[] stored) {
+        CRC32C crc = new CRC32C();
+        crc.update(stored);
+        return crc.getValue();
+    }
+}
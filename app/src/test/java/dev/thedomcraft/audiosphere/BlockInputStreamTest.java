@@ -0,0 +1,58 @@
+package dev.thedomcraft.audiosphere;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BlockInputStreamTest {
+
+    private static final int FRAMES = 100_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void seekLandsOnTheRightSample() throws Exception {
+        byte[] pcm = TestSignals.music(FRAMES, 16, 2, 1);
+        Path asph = encode(pcm);
+        try (BlockInputStream in = BlockInputStream.open(FileChannel.open(asph, StandardOpenOption.READ), null)) {
+            in.seek(FRAMES - 1000);
+            assertArrayEquals(Arrays.copyOfRange(pcm, (FRAMES - 1000) * 4, pcm.length), in.readAllBytes());
+            in.seek(10);
+            byte[] start = new byte[400];
+            assertEquals(start.length, in.readNBytes(start, 0, start.length));
+            assertArrayEquals(Arrays.copyOfRange(pcm, 40, 440), start);
+        }
+    }
+
+    @Test
+    void damagedLengthPrefixIsCorruptData() throws Exception {
+        Path asph = encode(TestSignals.music(FRAMES, 16, 2, 2));
+        try (FileChannel channel = FileChannel.open(asph, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long second = AsphFormat.readSeekIndex(channel, AsphFormat.readV5Header(channel)).offsets()[1];
+            ByteBuffer prefix = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 0x7ff00000);
+            AsphFormat.writeFully(channel, second, prefix);
+        }
+        try (BlockInputStream in = BlockInputStream.open(FileChannel.open(asph, StandardOpenOption.READ), null)) {
+            AsphCorruptDataException ex = assertThrows(AsphCorruptDataException.class, in::readAllBytes);
+            assertEquals(1L, ex.blockIndex());
+        }
+    }
+
+    private Path encode(byte[] pcm) throws Exception {
+        Path wav = TestSignals.wav16(dir.resolve("in.wav"), pcm, 44100, 2);
+        Path asph = dir.resolve("out.asph");
+        AudioSphereEncoder.encodeFile(wav.toString(), asph.toString(), EncodeOptions.defaults());
+        return asph;
+    }
+}
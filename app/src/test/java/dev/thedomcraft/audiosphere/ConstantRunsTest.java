@@ -0,0 +1,107 @@
+package dev.thedomcraft.audiosphere;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConstantRunsTest {
+
+    private static final int FRAME_SIZE = 4; // 16-bit stereo
+    private static final int FRAMES = 16384;
+
+    @Test
+    void musicHasNoRuns() {
+        byte[] pcm = TestSignals.music(FRAMES, 16, 2, 1);
+        int[] runs = ConstantRuns.newRunArray(FRAMES);
+        assertEquals(0, ConstantRuns.find(pcm, pcm.length, FRAME_SIZE, runs));
+    }
+
+    @Test
+    void findsSilenceAndDcRuns() {
+        byte[] pcm = TestSignals.music(FRAMES, 16, 2, 2);
+        Arrays.fill(pcm, 1000 * FRAME_SIZE, 3000 * FRAME_SIZE, (byte) 0);
+        fillFrame(pcm, 5000, 5300, new byte[]{1, 2, 3, 4});
+        fillFrame(pcm, 9000, 9100, new byte[]{9, 9, 9, 9}); // below MIN_RUN_FRAMES
+
+        int[] runs = ConstantRuns.newRunArray(FRAMES);
+        int count = ConstantRuns.find(pcm, pcm.length, FRAME_SIZE, runs);
+
+        assertEquals(2, count);
+        assertArrayEquals(new int[]{1000, 2000, 5000, 300}, Arrays.copyOf(runs, 4));
+    }
+
+    @Test
+    void mapRoundTrips() throws AsphCorruptDataException {
+        byte[] pcm = TestSignals.music(FRAMES, 16, 2, 3);
+        Arrays.fill(pcm, 0, 700 * FRAME_SIZE, (byte) 0);             // at the start
+        fillFrame(pcm, 4000, 8000, new byte[]{-1, 0x7F, 0, -128});
+        fillFrame(pcm, FRAMES - 300, FRAMES, new byte[]{5, 0, 5, 0}); // at the end
+        assertRoundTrip(pcm);
+    }
+
+    @Test
+    void wholeBlockRunAndPartialBlockRoundTrip() throws AsphCorruptDataException {
+        byte[] silence = new byte[FRAMES * FRAME_SIZE];
+        assertRoundTrip(silence);
+
+        byte[] tail = TestSignals.music(1234, 16, 2, 4); // last block of a track
+        Arrays.fill(tail, 200 * FRAME_SIZE, 900 * FRAME_SIZE, (byte) 0);
+        assertRoundTrip(tail);
+    }
+
+    @Test
+    void corruptMapsAreRejected() {
+        byte[] plain = new byte[2 * ConstantRuns.entrySize(FRAME_SIZE)];
+        writeEntry(plain, 0, 100, 300);
+        writeEntry(plain, ConstantRuns.entrySize(FRAME_SIZE), 200, 300); // overlaps the first
+        assertThrows(AsphCorruptDataException.class,
+                () -> ConstantRuns.literalLength(plain, 0, 2, FRAME_SIZE, FRAMES * FRAME_SIZE, 7));
+
+        writeEntry(plain, ConstantRuns.entrySize(FRAME_SIZE), FRAMES - 10, 300); // past the block
+        assertThrows(AsphCorruptDataException.class,
+                () -> ConstantRuns.literalLength(plain, 0, 2, FRAME_SIZE, FRAMES * FRAME_SIZE, 7));
+
+        writeEntry(plain, 0, 100, 0); // empty run
+        assertThrows(AsphCorruptDataException.class,
+                () -> ConstantRuns.literalLength(plain, 0, 1, FRAME_SIZE, FRAMES * FRAME_SIZE, 7));
+
+        assertThrows(AsphCorruptDataException.class, () -> ConstantRuns.readCount(new byte[1], 1, 7));
+    }
+
+    /**
+     * Splits pcm into literals and a map the way the encoder does, and rebuilds it.
+     */
+    private static void assertRoundTrip(byte[] pcm) throws AsphCorruptDataException {
+        int frames = pcm.length / FRAME_SIZE;
+        int[] runs = ConstantRuns.newRunArray(frames);
+        int count = ConstantRuns.find(pcm, pcm.length, FRAME_SIZE, runs);
+        byte[] literal = new byte[pcm.length];
+        int literalLength = ConstantRuns.gatherLiterals(pcm, pcm.length, FRAME_SIZE, runs, count, literal);
+        byte[] map = new byte[runs.length / 2 * ConstantRuns.entrySize(FRAME_SIZE) + ConstantRuns.COUNT_SIZE];
+        int mapLength = ConstantRuns.writeMap(pcm, FRAME_SIZE, runs, count, map);
+
+        assertEquals(count, ConstantRuns.readCount(map, mapLength, 0));
+        assertEquals(literalLength, ConstantRuns.literalLength(map, 0, count, FRAME_SIZE, pcm.length, 0));
+        byte[] rebuilt = new byte[pcm.length];
+        Arrays.fill(rebuilt, (byte) 0x5A);
+        ConstantRuns.expand(map, 0, count, FRAME_SIZE, literal, rebuilt, pcm.length);
+        assertArrayEquals(pcm, rebuilt);
+    }
+
+    private static void fillFrame(byte[] pcm, int fromFrame, int toFrame, byte[] frame) {
+        for (int f = fromFrame; f < toFrame; f++) {
+            System.arraycopy(frame, 0, pcm, f * FRAME_SIZE, FRAME_SIZE);
+        }
+    }
+
+    private static void writeEntry(byte[] plain, int offset, int first, int length) {
+        for (int i = 0; i < 4; i++) {
+            plain[offset + i] = (byte) (first >>> (8 * i));
+            plain[offset + 4 + i] = (byte) (length >>> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package dev.thedomcraft.audiosphere;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LosslessCodecTest {
+
+    private static final int FRAMES = 4096;
+
+    @Test
+    void musicRoundTripsAtEveryDepthAndLayout() throws IOException {
+        for (int bits : new int[]{8, 16, 24}) {
+            for (int channels = 1; channels <= 2; channels++) {
+                byte[] pcm = TestSignals.music(FRAMES, bits, channels, bits * 10L + channels);
+                byte[] encoded = LosslessCodec.encode(pcm, pcm.length, bits, channels);
+                assertArrayEquals(pcm, decode(encoded, pcm.length, bits, channels), bits + "-bit, " + channels + " ch");
+                if (bits > 8) {
+                    assertTrue(encoded.length < pcm.length * 3 / 4, "predictable audio should compress");
+                }
+            }
+        }
+    }
+
+    @Test
+    void noiseAndFullScaleRoundTrip() throws IOException {
+        for (int bits : new int[]{8, 16, 24}) {
+            for (int channels = 1; channels <= 2; channels++) {
+                byte[] pcm = TestSignals.noise(FRAMES * channels * bits / 8, bits + channels);
+                byte[] encoded = LosslessCodec.encode(pcm, pcm.length, bits, channels);
+                assertArrayEquals(pcm, decode(encoded, pcm.length, bits, channels), bits + "-bit, " + channels + " ch");
+            }
+        }
+        byte[] extremes = new byte[FRAMES * 2 * 3];
+        for (int i = 0; i < extremes.length; i += 3) {
+            boolean max = (i / 3) % 2 == 0;
+            extremes[i] = (byte) (max ? 0xFF : 0x00);
+            extremes[i + 1] = (byte) (max ? 0xFF : 0x00);
+            extremes[i + 2] = (byte) (max ? 0x7F : 0x80);
+        }
+        assertArrayEquals(extremes, decode(LosslessCodec.encode(extremes, extremes.length, 24, 2), extremes.length, 24, 2));
+    }
+
+    @Test
+    void constantAndShortBlocksRoundTrip() throws IOException {
+        byte[] silence = new byte[FRAMES * 4];
+        assertArrayEquals(silence, decode(LosslessCodec.encode(silence, silence.length, 16, 2), silence.length, 16, 2));
+
+        byte[] dc = new byte[FRAMES * 2];
+        for (int i = 0; i < dc.length; i += 2) {
+            dc[i] = 0x34;
+            dc[i + 1] = 0x12;
+        }
+        assertArrayEquals(dc, decode(LosslessCodec.encode(dc, dc.length, 16, 1), dc.length, 16, 1));
+
+        for (int frames : new int[]{1, 2, 5, 13}) {
+            byte[] pcm = TestSignals.music(frames, 16, 2, frames);
+            assertArrayEquals(pcm, decode(LosslessCodec.encode(pcm, pcm.length, 16, 2), pcm.length, 16, 2));
+        }
+    }
+
+    @Test
+    void truncatedDataFails() {
+        byte[] pcm = TestSignals.music(FRAMES, 16, 2, 7);
+        byte[] encoded = LosslessCodec.encode(pcm, pcm.length, 16, 2);
+        assertThrows(IOException.class,
+                () -> LosslessCodec.decode(encoded, encoded.length / 2, new byte[pcm.length], pcm.length, 16, 2));
+    }
+
+    @Test
+    void invalidStereoModeForMonoFails() {
+        byte[] data = new byte[64];
+        data[0] = (byte) 0xC0; // mode 3 (mid/side) on a mono block
+        assertThrows(IOException.class, () -> LosslessCodec.decode(data, data.length, new byte[200], 200, 16, 1));
+    }
+
+    private static byte[] decode(byte[] encoded, int length, int bits, int channels) throws IOException {
+        byte[] pcm = new byte[length];
+        Arrays.fill(pcm, (byte) 0x5A); // stale data must be overwritten
+        LosslessCodec.decode(encoded, encoded.length, pcm, length, bits, channels);
+        return pcm;
+    }
+}
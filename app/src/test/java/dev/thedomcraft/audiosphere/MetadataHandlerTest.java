@@ -0,0 +1,68 @@
+package dev.thedomcraft.audiosphere;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataHandlerTest {
+
+    /** Bytes before the PCM in decryptAndDecompress output. */
+    private static final int COMBINED_HEADER_SIZE = 17;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rewritingReplacesTheTrailerInPlace() throws Exception {
+        byte[] pcm = TestSignals.music(40000, 16, 2, 1);
+        Path wav = TestSignals.wav16(dir.resolve("in.wav"), pcm, 44100, 2);
+        Path asph = dir.resolve("out.asph");
+        AudioSphereEncoder.encodeFile(wav.toString(), asph.toString(), EncodeOptions.defaults());
+        long payloadEnd = payloadEnd(asph);
+        assertEquals(Files.size(asph), payloadEnd, "a fresh file has no trailer");
+        assertTrue(MetadataHandler.readMetadata(asph.toString()).isEmpty());
+
+        MetadataHandler.writeMetadata(asph.toString(), "A much longer first title", "Artist", "Album");
+        MetadataHandler.writeMetadata(asph.toString(), "Title", "Ärtist", "");
+        assertEquals(payloadEnd, payloadEnd(asph));
+        assertEquals(payloadEnd + MetadataHandler.METADATA_SIZE, Files.size(asph));
+        assertEquals(Map.of("Title", "Title", "Artist", "Ärtist"), // empty fields are not returned
+                MetadataHandler.readMetadata(asph.toString()));
+
+        byte[] combined = AudioSphereEncoder.decryptAndDecompress(asph.toString());
+        assertArrayEquals(pcm, Arrays.copyOfRange(combined, COMBINED_HEADER_SIZE, combined.length));
+    }
+
+    @Test
+    void stackedTrailersCollapseIntoOne() throws Exception {
+        Path wav = TestSignals.wav16(dir.resolve("in.wav"), TestSignals.music(5000, 16, 1, 2), 22050, 1);
+        Path asph = dir.resolve("out.asph");
+        AudioSphereEncoder.encodeFile(wav.toString(), asph.toString(), EncodeOptions.defaults());
+        long payloadEnd = payloadEnd(asph);
+
+        byte[] old = MetadataHandler.trailer("Old", "Old", "Old").array();
+        Files.write(asph, old, StandardOpenOption.APPEND);
+        Files.write(asph, old, StandardOpenOption.APPEND);
+        MetadataHandler.writeMetadata(asph.toString(), "New", "New", "New");
+
+        assertEquals(payloadEnd + MetadataHandler.METADATA_SIZE, Files.size(asph));
+        assertEquals("New", MetadataHandler.readMetadata(asph.toString()).get("Title"));
+    }
+
+    private static long payloadEnd(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return AsphFormat.payloadEnd(channel);
+        }
+    }
+}
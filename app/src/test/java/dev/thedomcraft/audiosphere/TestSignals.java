@@ -0,0 +1,61 @@
+package dev.thedomcraft.audiosphere;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Deterministic interleaved PCM (signed, little-endian, as ASPH stores it) for
+ * the format tests.
+ */
+final class TestSignals {
+
+    private TestSignals() {}
+
+    /**
+     * A two-tone signal with a little noise: what the LPC and Rice paths are for.
+     */
+    static byte[] music(int frames, int bitsPerSample, int channels, long seed) {
+        Random random = new Random(seed);
+        int bytes = bitsPerSample / 8;
+        long peak = (1L << (bitsPerSample - 1)) - 1;
+        byte[] pcm = new byte[frames * channels * bytes];
+        for (int f = 0; f < frames; f++) {
+            for (int c = 0; c < channels; c++) {
+                double v = 0.5 * Math.sin(f * 0.031 * (c + 1)) + 0.2 * Math.sin(f * 0.0071 + c)
+                        + 0.001 * random.nextGaussian();
+                put(pcm, (f * channels + c) * bytes, bytes, Math.round(Math.max(-1.0, Math.min(1.0, v)) * peak));
+            }
+        }
+        return pcm;
+    }
+
+    /**
+     * Uniformly random bytes: every bit pattern, including full-scale samples.
+     */
+    static byte[] noise(int length, long seed) {
+        byte[] pcm = new byte[length];
+        new Random(seed).nextBytes(pcm);
+        return pcm;
+    }
+
+    /**
+     * Writes {@code pcm} as a 16-bit PCM WAV file.
+     */
+    static Path wav16(Path file, byte[] pcm, int sampleRate, int channels) throws IOException {
+        AudioFormat format = new AudioFormat(sampleRate, 16, channels, true, false);
+        byte[] header = WavFile.header(format, pcm.length);
+        byte[] wav = new byte[header.length + pcm.length];
+        System.arraycopy(header, 0, wav, 0, header.length);
+        System.arraycopy(pcm, 0, wav, header.length, pcm.length);
+        return Files.write(file, wav);
+    }
+
+    private static void put(byte[] pcm, int offset, int bytes, long value) {
+        for (int i = 0; i < bytes; i++) {
+            pcm[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dev.thedomcraft.audiosphere;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic inputs for the benchmarks, so runs are reproducible and need no
+ * audio files checked in.
+ *
+ * The signal is two sine tones per channel plus a little seeded noise: tonal
+ * enough that the lossless predictor has something to do, noisy enough that
+ * GZip can't collapse it the way it collapses digital silence.
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {}
+
+    /**
+     * @param format "sampleRate/bits/channels", e.g. "44100/16/2"
+     */
+    static Path createWav(Path dir, String format, int seconds) throws IOException {
+        String[] parts = format.split("/");
+        int sampleRate = Integer.parseInt(parts[0]);
+        int bits = Integer.parseInt(parts[1]);
+        int channels = Integer.parseInt(parts[2]);
+        int bytesPerSample = bits / 8;
+        long frames = (long) sampleRate * seconds;
+        long dataBytes = frames * channels * bytesPerSample;
+
+        Path wav = dir.resolve(format.replace('/', '-') + "-" + seconds + "s.wav");
+        try (FileChannel out = FileChannel.open(wav,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+            header.put("RIFF".getBytes()).putInt((int) (36 + dataBytes)).put("WAVE".getBytes());
+            header.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) channels);
+            header.putInt(sampleRate).putInt(sampleRate * channels * bytesPerSample);
+            header.putShort((short) (channels * bytesPerSample)).putShort((short) bits);
+            header.put("data".getBytes()).putInt((int) dataBytes);
+            out.write(header.flip());
+
+            SplittableRandom noise = new SplittableRandom(42);
+            double peak = (1 << (bits - 1)) - 1;
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024 - 64 * 1024 % (channels * bytesPerSample))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (long i = 0; i < frames; i++) {
+                double t = (double) i / sampleRate;
+                for (int c = 0; c < channels; c++) {
+                    double x = 0.35 * Math.sin(2 * Math.PI * (220 + 110 * c) * t)
+                            + 0.15 * Math.sin(2 * Math.PI * 1760 * t)
+                            + 0.01 * (noise.nextDouble() * 2 - 1);
+                    int s = (int) Math.round(x * peak);
+                    switch (bytesPerSample) {
+                        case 1 -> buf.put((byte) (s + 128)); // 8-bit WAV is unsigned
+                        case 2 -> buf.putShort((short) s);
+                        default -> buf.put((byte) s).put((byte) (s >> 8)).put((byte) (s >> 16));
+                    }
+                }
+                if (!buf.hasRemaining()) {
+                    out.write(buf.flip());
+                    buf.clear();
+                }
+            }
+            out.write(buf.flip());
+        }
+        return wav;
+    }
+
+    static Path encode(Path wav, String codec) throws Exception {
+        Path asph = wav.resolveSibling(wav.getFileName() + "." + codec + ".asph");
+        AudioSphereEncoder.encodeFile(wav.toString(), asph.toString(), options(codec));
+        return asph;
+    }
+
+    static EncodeOptions options(String codec) {
+        return EncodeOptions.defaults().withCodec(switch (codec) {
+            case "gzip" -> AsphFormat.CODEC_GZIP;
+            case "lossless" -> AsphFormat.CODEC_LOSSLESS;
+            default -> throw new IllegalArgumentException("Unknown codec " + codec);
+        });
+    }
+
+    static Path tempDir() throws IOException {
+        return Files.createTempDirectory("asph-bench-");
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package dev.thedomcraft.audiosphere;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ASPH -> PCM/WAV paths. One operation decodes the whole file:
+ * <ul>
+ *   <li>decryptAndDecompress: the whole track into one byte[]</li>
+ *   <li>decodeToWav: the work behind decodeFromAudioSphere, streamed to a WAV file</li>
+ *   <li>sessionDecode: an {@link AsphCodec} session reused across files, into a direct buffer</li>
+ *   <li>cachedSessionDecode: the same with a {@link PcmCache} that holds the whole
+ *       file after the first operation, so it measures the copy out of the cache</li>
+ * </ul>
+ * The shared cache is off in the forks (see jmh/build.gradle), so the other paths
+ * decode every block each time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"22050/8/1", "44100/16/2", "96000/24/2"})
+    public String format;
+
+    @Param({"5", "60"})
+    public int seconds;
+
+    @Param({"gzip", "lossless"})
+    public String codec;
+
+    private Path dir;
+    private Path asph;
+    private Path wavOut;
+    private AsphCodec session;
+    private AsphCodec cachedSession;
+    private ByteBuffer pcm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = BenchmarkFiles.tempDir();
+        asph = BenchmarkFiles.encode(BenchmarkFiles.createWav(dir, format, seconds), codec);
+        wavOut = dir.resolve("out.wav");
+        session = new AsphCodec();
+        cachedSession = new AsphCodec(new PcmCache(1L << 30));
+        pcm = ByteBuffer.allocateDirect(64 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        session.close();
+        cachedSession.close();
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public byte[] decryptAndDecompress() {
+        return AudioSphereEncoder.decryptAndDecompress(asph.toString());
+    }
+
+    @Benchmark
+    public void decodeToWav() throws Exception {
+        AudioSphereEncoder.decodeFile(asph.toString(), wavOut.toString());
+    }
+
+    @Benchmark
+    public void sessionDecode(Blackhole bh) throws Exception {
+        drain(session, bh);
+    }
+
+    @Benchmark
+    public void cachedSessionDecode(Blackhole bh) throws Exception {
+        drain(cachedSession, bh);
+    }
+
+    private void drain(AsphCodec codec, Blackhole bh) throws Exception {
+        try (AsphCodec.Decoder decoder = codec.open(asph)) {
+            int n;
+            while ((n = decoder.read(pcm.clear())) > 0) {
+                bh.consume(n);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package dev.thedomcraft.audiosphere;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WAV -> ASPH encode (the work behind encodeToAudioSphere, without the console
+ * report). One operation encodes the whole file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodeBenchmark {
+
+    @Param({"22050/8/1", "44100/16/2", "96000/24/2"})
+    public String format;
+
+    @Param({"5", "60"})
+    public int seconds;
+
+    @Param({"gzip", "lossless"})
+    public String codec;
+
+    private Path dir;
+    private Path wav;
+    private Path output;
+    private EncodeOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = BenchmarkFiles.tempDir();
+        wav = BenchmarkFiles.createWav(dir, format, seconds);
+        output = dir.resolve("out.asph");
+        options = BenchmarkFiles.options(codec);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public AsphFormat.Header encode() throws Exception {
+        return AudioSphereEncoder.encodeFile(wav.toString(), output.toString(), options);
+    }
+}
@@ -0,0 +1,52 @@
+package dev.thedomcraft.audiosphere;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tag read/write. Both should cost the same for a 5 s and a 10 min file, since
+ * they only touch the header and the trailer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataBenchmark {
+
+    @Param({"5", "600"})
+    public int seconds;
+
+    private Path dir;
+    private String asph;
+    private long writes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = BenchmarkFiles.tempDir();
+        asph = BenchmarkFiles.encode(BenchmarkFiles.createWav(dir, "44100/16/2", seconds), "gzip").toString();
+        MetadataHandler.writeMetadata(asph, "Title", "Artist", "Album");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public Map<String, String> readMetadata() {
+        return MetadataHandler.readMetadata(asph);
+    }
+
+    /**
+     * The work behind addMetadata, without the console message.
+     */
+    @Benchmark
+    public void addMetadata() throws Exception {
+        MetadataHandler.writeMetadata(asph, "Title " + (writes++ & 7), "Artist", "Album");
+    }
+}
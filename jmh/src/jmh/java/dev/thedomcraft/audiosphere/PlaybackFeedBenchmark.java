@@ -0,0 +1,64 @@
+package dev.thedomcraft.audiosphere;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The player's feed path with the audio line replaced by a Blackhole: open the
+ * file, run the read-ahead pipeline with the player's ring size and drain every
+ * chunk. One operation plays the whole track as fast as it decodes, so this
+ * measures decode headroom over real time, not audio-device behaviour.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlaybackFeedBenchmark {
+
+    @Param({"22050/8/1", "44100/16/2", "96000/24/2"})
+    public String format;
+
+    @Param({"5", "60"})
+    public int seconds;
+
+    @Param({"gzip", "lossless"})
+    public String codec;
+
+    private Path dir;
+    private String asph;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = BenchmarkFiles.tempDir();
+        asph = BenchmarkFiles.encode(BenchmarkFiles.createWav(dir, format, seconds), codec).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public long feed(Blackhole bh) throws Exception {
+        long bytes = 0;
+        try (PcmSource source = PcmSource.open(asph);
+             ReadAheadPcm readAhead = new ReadAheadPcm(source,
+                     AudioSpherePlayer.CHUNK_BYTES, AudioSpherePlayer.CHUNK_COUNT).start()) {
+            while (true) {
+                ReadAheadPcm.Chunk chunk = readAhead.take();
+                if (chunk.isEnd()) {
+                    readAhead.recycle(chunk);
+                    return bytes;
+                }
+                bh.consume(chunk.data);
+                bytes += chunk.length;
+                readAhead.recycle(chunk);
+            }
+        }
+    }
+}
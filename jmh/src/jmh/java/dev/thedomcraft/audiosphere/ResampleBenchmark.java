@@ -0,0 +1,62 @@
+package dev.thedomcraft.audiosphere;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The encoder's sample-rate converter on its own: one operation converts ten
+ * seconds of stereo float audio, fed in the same 64k-frame chunks the encoder uses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResampleBenchmark {
+
+    private static final int CHUNK_FRAMES = 65536;
+    private static final int CHANNELS = 2;
+    private static final int SECONDS = 10;
+
+    @Param({"192000/96000", "176400/96000", "4000/8000"})
+    public String rates;
+
+    @Param({"FAST", "STANDARD", "BEST"})
+    public ResampleQuality quality;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private int inRate;
+    private int outRate;
+    private float[] chunk;
+    private float[] out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = rates.split("/");
+        inRate = Integer.parseInt(parts[0]);
+        outRate = Integer.parseInt(parts[1]);
+        chunk = new float[CHUNK_FRAMES * CHANNELS];
+        for (int i = 0; i < CHUNK_FRAMES; i++) {
+            float x = (float) (0.4 * Math.sin(2 * Math.PI * 1000.0 * i / inRate));
+            chunk[i * CHANNELS] = x;
+            chunk[i * CHANNELS + 1] = -x;
+        }
+        // one output chunk is always enough: (CHUNK_FRAMES + taps) * up / down
+        out = new float[(int) ((CHUNK_FRAMES + 1024L) * outRate / inRate + 2) * CHANNELS];
+    }
+
+    @Benchmark
+    public long resample() {
+        try (Resampler resampler = new Resampler(CHANNELS, inRate, outRate, quality, threads)) {
+            long frames = 0;
+            for (long fed = 0; fed < (long) inRate * SECONDS; fed += CHUNK_FRAMES) {
+                frames += resampler.process(chunk, CHUNK_FRAMES, out);
+            }
+            return frames + resampler.finish(out);
+        }
+    }
+}